@@ -0,0 +1,240 @@
+package core;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import markov.MarkovChain;
+import markov.ProbabilityMapping;
+import markov.Sampler;
+import markov.TokenSequence;
+import markov.util.RandomGenerator;
+import markov.util.XoroshiroRandomGenerator;
+
+/**
+ * Collects concurrent generation requests into micro-batches. The first
+ * request of a batch waits at most the configured delay for others to join,
+ * after which the walks of the whole batch are advanced together, one step at
+ * a time. Walks in the same state share a single lookup of its successors per
+ * step, which pays off since walks concentrate in the frequent states of a
+ * chain. Every walk draws from its own generator, so it is the same as the
+ * walk of {@link MarkovChain#stream(RandomGenerator, Sampler)} with the same
+ * seed, regardless of the batch it is generated in.
+ */
+public class GenerationBatcher<T> implements Closeable {
+
+    private final MarkovChain<T> chain;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    private final Thread worker;
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder requests = new LongAdder();
+    // Makes checking for and enqueueing a request atomic with closing
+    private final Object lifecycle = new Object();
+    private volatile boolean running = true;
+
+    /**
+     * Constructs and starts a new batcher.
+     * 
+     * @param chain
+     *            the chain to generate from
+     * @param maxBatchSize
+     *            the maximum number of requests per batch
+     * @param maxDelay
+     *            the maximum time a request waits for others to join
+     * @param unit
+     *            the unit of maxDelay
+     * @throws IllegalArgumentException
+     *             if maxBatchSize < 1 or maxDelay < 0
+     */
+    public GenerationBatcher(MarkovChain<T> chain, int maxBatchSize, long maxDelay, TimeUnit unit) {
+        if (maxBatchSize < 1 || maxDelay < 0) {
+            throw new IllegalArgumentException("Batch size must be positive and delay non-negative");
+        }
+        this.chain = chain;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayNanos = unit.toNanos(maxDelay);
+        this.worker = new Thread(this::run, "generation-batcher");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Enqueues a request for a walk of the specified length.
+     * 
+     * @param length
+     *            the number of elements to generate
+     * @param seed
+     *            the seed of the walk, equal requests produce equal walks
+     * @param sampler
+     *            the sampler controlling how each element is drawn
+     * @return the future walk
+     */
+    public CompletableFuture<List<T>> submit(int length, long seed, Sampler sampler) {
+        Request request = new Request(length, seed, sampler);
+        synchronized (lifecycle) {
+            if (running) {
+                queue.add(request);
+                return request.result;
+            }
+        }
+        request.fail();
+        return request.result;
+    }
+
+    /**
+     * Returns the average number of requests per batch.
+     * 
+     * @return the average number of requests per batch
+     */
+    public double getAverageBatchSize() {
+        long count = batches.sum();
+        return count == 0 ? 0 : (double) requests.sum() / count;
+    }
+
+    @Override
+    public void close() {
+        synchronized (lifecycle) {
+            running = false;
+        }
+        worker.interrupt();
+        // No request is enqueued after this point
+        Request request;
+        while ((request = queue.poll()) != null) {
+            request.fail();
+        }
+    }
+
+    private void run() {
+        List<Request> batch = new ArrayList<>(maxBatchSize);
+        while (running) {
+            try {
+                Request first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + maxDelayNanos;
+                while (batch.size() < maxBatchSize) {
+                    Request next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                // Closed while collecting, the collected requests would
+                // otherwise never complete
+                for (Request request : batch) {
+                    request.fail();
+                }
+                Thread.currentThread()
+                        .interrupt();
+                return;
+            }
+            batches.increment();
+            requests.add(batch.size());
+            generate(batch);
+            batch.clear();
+        }
+    }
+
+    private void generate(List<Request> batch) {
+        Map<TokenSequence<T>, ProbabilityMapping<T>> states = chain.states();
+        List<Request> active = new ArrayList<>(batch.size());
+        for (Request request : batch) {
+            if (request.start()) {
+                active.add(request);
+            }
+        }
+        // The successors of the states reached in the current step
+        Map<TokenSequence<T>, ProbabilityMapping<T>> step = new HashMap<>();
+        while (!active.isEmpty()) {
+            step.clear();
+            active.removeIf(request -> !request.advance(step.computeIfAbsent(request.state, states::get)));
+        }
+    }
+
+    private class Request {
+
+        private final int length;
+        private final long seed;
+        private final Sampler sampler;
+        private final CompletableFuture<List<T>> result = new CompletableFuture<>();
+        // The walk in progress, only touched by the worker
+        private RandomGenerator gen;
+        private TokenSequence<T> state;
+        private List<T> tokens;
+
+        Request(int length, long seed, Sampler sampler) {
+            this.length = length;
+            this.seed = seed;
+            this.sampler = sampler;
+        }
+
+        /**
+         * Starts the walk with a random state, returns whether it needs to be
+         * advanced.
+         */
+        boolean start() {
+            if (result.isDone()) {
+                // Cancelled by the caller
+                return false;
+            }
+            try {
+                gen = new XoroshiroRandomGenerator(seed);
+                state = chain.getRandomState(gen);
+                tokens = new ArrayList<>(length);
+                for (T token : state.getTokens()) {
+                    if (tokens.size() < length) {
+                        tokens.add(token);
+                    }
+                }
+                return proceed();
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+                return false;
+            }
+        }
+
+        /**
+         * Draws the next element from the successors of the current state,
+         * returns whether the walk needs to be advanced further.
+         */
+        boolean advance(ProbabilityMapping<T> successors) {
+            if (result.isDone()) {
+                // Cancelled by the caller, for instance after a timeout
+                return false;
+            }
+            try {
+                T next = sampler.sample(successors, gen);
+                tokens.add(next);
+                state = state.getNext(next);
+                return proceed();
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+                return false;
+            }
+        }
+
+        private boolean proceed() {
+            if (tokens.size() < length) {
+                return true;
+            }
+            result.complete(tokens);
+            return false;
+        }
+
+        void fail() {
+            result.completeExceptionally(new IllegalStateException("Batcher is closed"));
+        }
+    }
+}
@@ -0,0 +1,370 @@
+package core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import markov.MarkovChain;
+import markov.Sampler;
+import markov.Score;
+import markov.TokenSequence;
+import util.LatencyRecorder;
+import util.text.Tokenizer;
+
+/**
+ * Serves a single, already trained, chain of words over HTTP. Every request
+ * runs on a virtual thread when the JVM supports them, and on a pooled thread
+ * otherwise. Generation requests are micro-batched by a
+ * {@link GenerationBatcher}. Walks longer than the configured maximum are
+ * rejected with 400 Bad Request, and a generation request not served within
+ * the configured timeout is answered with 503 Service Unavailable. Request
+ * bodies larger than {@value #MAX_BODY_BYTES} bytes are rejected with 413
+ * Payload Too Large.
+ * <p>
+ * Endpoints, all answering with JSON:
+ * <ul>
+ * <li>GET /generate?length=&amp;seed=&amp;temperature=&amp;topK=&amp;topP=</li>
+ * <li>POST /score with whitespace separated words as body</li>
+ * <li>GET /topk?context=&amp;k=, where context is space separated</li>
+ * <li>GET /stats</li>
+ * </ul>
+ */
+public class GenerationServer {
+
+    private static final int MAX_BATCH_SIZE = 64;
+    private static final long MAX_BATCH_DELAY_MICROS = 200;
+    private static final int DEFAULT_MAX_LENGTH = 10_000;
+    private static final long DEFAULT_TIMEOUT_SECONDS = 10;
+    private static final int MAX_BODY_BYTES = 1 << 20;
+
+    private final MarkovChain<String> chain;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final GenerationBatcher<String> batcher;
+    private final int maxLength;
+    private final long timeoutNanos;
+    private final Map<String, LatencyRecorder> latencies = new HashMap<>();
+    private final LongAdder generatedTokens = new LongAdder();
+    private final long startNanos = System.nanoTime();
+
+    /**
+     * Constructs a new server for the specified chain, generating walks of at
+     * most {@value #DEFAULT_MAX_LENGTH} elements with a timeout of
+     * {@value #DEFAULT_TIMEOUT_SECONDS} seconds. The server does not accept
+     * requests until started.
+     * 
+     * @param chain
+     *            the chain to serve, frozen by this constructor
+     * @param address
+     *            the address to bind to, port 0 picks any free port
+     * @throws IOException
+     *             if the address could not be bound
+     */
+    public GenerationServer(MarkovChain<String> chain, InetSocketAddress address) throws IOException {
+        this(chain, address, DEFAULT_MAX_LENGTH, DEFAULT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Constructs a new server for the specified chain. The server does not
+     * accept requests until started.
+     * 
+     * @param chain
+     *            the chain to serve, frozen by this constructor
+     * @param address
+     *            the address to bind to, port 0 picks any free port
+     * @param maxLength
+     *            the maximum number of elements of a generated walk
+     * @param timeout
+     *            the maximum time a generation request waits for its walk
+     * @param unit
+     *            the unit of timeout
+     * @throws IOException
+     *             if the address could not be bound
+     * @throws IllegalArgumentException
+     *             if maxLength < 0 or timeout < 1
+     */
+    public GenerationServer(MarkovChain<String> chain, InetSocketAddress address, int maxLength, long timeout,
+            TimeUnit unit) throws IOException {
+        if (maxLength < 0 || timeout < 1) {
+            throw new IllegalArgumentException(
+                    "The maximum length may not be negative and the timeout must be positive");
+        }
+        this.maxLength = maxLength;
+        this.timeoutNanos = unit.toNanos(timeout);
+        this.chain = chain.freeze();
+        this.server = HttpServer.create(address, 0);
+        this.executor = newRequestExecutor();
+        this.batcher = new GenerationBatcher<>(this.chain, MAX_BATCH_SIZE, MAX_BATCH_DELAY_MICROS,
+                TimeUnit.MICROSECONDS);
+        server.setExecutor(executor);
+        route("/generate", this::generate);
+        route("/score", this::score);
+        route("/topk", this::topK);
+        route("/stats", (exchange, query) -> stats());
+    }
+
+    /**
+     * Starts accepting requests.
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * Stops accepting requests and releases all threads.
+     */
+    public void stop() {
+        server.stop(0);
+        batcher.close();
+        executor.shutdown();
+    }
+
+    /**
+     * Returns the address this server listens on.
+     * 
+     * @return the address this server listens on
+     */
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+    private void route(String path, Endpoint endpoint) {
+        LatencyRecorder recorder = new LatencyRecorder();
+        latencies.put(path, recorder);
+        server.createContext(path, exchange -> {
+            long start = System.nanoTime();
+            try {
+                respond(exchange, 200, endpoint.handle(exchange, parseQuery(exchange)));
+            } catch (IllegalArgumentException e) {
+                respond(exchange, 400, "{\"error\":" + quote(String.valueOf(e.getMessage())) + "}");
+            } catch (TimeoutException e) {
+                respond(exchange, 503, "{\"error\":\"Timed out\"}");
+            } catch (BodyTooLargeException e) {
+                respond(exchange, 413, "{\"error\":" + quote(e.getMessage()) + "}");
+            } catch (Exception e) {
+                respond(exchange, 500, "{\"error\":" + quote(String.valueOf(e)) + "}");
+            } finally {
+                recorder.record(System.nanoTime() - start);
+            }
+        });
+    }
+
+    private String generate(HttpExchange exchange, Map<String, String> query) throws Exception {
+        int length = Integer.parseInt(query.getOrDefault("length", "50"));
+        long seed = query.containsKey("seed") ? Long.parseLong(query.get("seed")) : System.nanoTime();
+        Sampler sampler = Sampler.standard();
+        if (query.containsKey("temperature")) {
+            sampler = sampler.withTemperature(Double.parseDouble(query.get("temperature")));
+        }
+        if (query.containsKey("topK")) {
+            sampler = sampler.withTopK(Integer.parseInt(query.get("topK")));
+        }
+        if (query.containsKey("topP")) {
+            sampler = sampler.withTopP(Double.parseDouble(query.get("topP")));
+        }
+        if (length < 0 || length > maxLength) {
+            throw new IllegalArgumentException("Length must be between 0 and " + maxLength);
+        }
+        List<String> tokens;
+        CompletableFuture<List<String>> walk = batcher.submit(length, seed, sampler);
+        try {
+            tokens = walk.get(timeoutNanos, TimeUnit.NANOSECONDS);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } catch (TimeoutException e) {
+            // Spares the batcher the walk if it has not started yet
+            walk.cancel(false);
+            throw e;
+        }
+        generatedTokens.add(tokens.size());
+        return "{\"tokens\":" + quote(tokens) + "}";
+    }
+
+    private String score(HttpExchange exchange, Map<String, String> query) throws IOException {
+        Score score = chain.score(words(readBody(exchange.getRequestBody())));
+        return "{\"logProbability\":" + finite(score.getLogProbability()) + ",\"perplexity\":"
+                + finite(score.getPerplexity()) + ",\"transitions\":" + score.getTransitions()
+                + ",\"unseenContexts\":" + score.getUnseenContexts() + ",\"unseenTransitions\":"
+                + score.getUnseenTransitions() + "}";
+    }
+
+    private String topK(HttpExchange exchange, Map<String, String> query) {
+        List<String> context = words(query.getOrDefault("context", "")).collect(Collectors.toList());
+        if (context.size() != chain.getOrder()) {
+            throw new IllegalArgumentException("The context must consist of " + chain.getOrder() + " words");
+        }
+        int k = Integer.parseInt(query.getOrDefault("k", "10"));
+        return "{\"tokens\":" + quote(chain.topK(new TokenSequence<>(context), k)) + "}";
+    }
+
+    private String stats() {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        String endpoints = latencies.entrySet()
+                .stream()
+                .sorted(Map.Entry.comparingByKey())
+                .map(e -> quote(e.getKey()) + ":{\"requests\":" + e.getValue()
+                        .getCount() + ",\"p50Micros\":"
+                        + e.getValue()
+                                .getPercentile(50, TimeUnit.MICROSECONDS)
+                        + ",\"p99Micros\":" + e.getValue()
+                                .getPercentile(99, TimeUnit.MICROSECONDS)
+                        + "}")
+                .collect(Collectors.joining(",", "{", "}"));
+        return "{\"endpoints\":" + endpoints + ",\"tokensPerSecond\":" + generatedTokens.sum() / seconds
+                + ",\"averageBatchSize\":" + batcher.getAverageBatchSize() + "}";
+    }
+
+    private static Map<String, String> parseQuery(HttpExchange exchange) throws UnsupportedEncodingException {
+        Map<String, String> query = new HashMap<>();
+        String raw = exchange.getRequestURI()
+                .getRawQuery();
+        if (raw == null) {
+            return query;
+        }
+        for (String pair : raw.split("&")) {
+            int split = pair.indexOf('=');
+            if (split > 0) {
+                query.put(URLDecoder.decode(pair.substring(0, split), "UTF-8"),
+                        URLDecoder.decode(pair.substring(split + 1), "UTF-8"));
+            }
+        }
+        return query;
+    }
+
+    private static Stream<String> words(String text) {
+        return Arrays.stream(text.split("\\s+"))
+                .filter(word -> !word.isEmpty());
+    }
+
+    private static String readBody(InputStream in) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            if (body.size() + read > MAX_BODY_BYTES) {
+                throw new BodyTooLargeException();
+            }
+            body.write(buffer, 0, read);
+        }
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders()
+                .set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static String finite(double value) {
+        return Double.isFinite(value) ? String.valueOf(value) : "null";
+    }
+
+    private static String quote(List<String> values) {
+        return values.stream()
+                .map(GenerationServer::quote)
+                .collect(Collectors.joining(",", "[", "]"));
+    }
+
+    private static String quote(String value) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                sb.append('\\')
+                        .append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"')
+                .toString();
+    }
+
+    // Virtual threads are only available from Java 21
+    private static ExecutorService newRequestExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(r, "generation-request");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private static final class BodyTooLargeException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        BodyTooLargeException() {
+            super("The body may not exceed " + MAX_BODY_BYTES + " bytes");
+        }
+    }
+
+    @FunctionalInterface
+    private interface Endpoint {
+
+        String handle(HttpExchange exchange, Map<String, String> query) throws Exception;
+
+    }
+
+    /**
+     * Trains a chain from the specified text files once and serves it until
+     * the process is killed.
+     * 
+     * @param args
+     *            the port, the order of the chain and one or more text files
+     * @throws IOException
+     *             if the server could not be started
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("Usage: GenerationServer <port> <order> <file>...");
+            System.exit(1);
+        }
+        MarkovChain<String> chain = new MarkovChain<>(Integer.parseInt(args[1]));
+        List<Path> files = Arrays.stream(args, 2, args.length)
+                .map(Paths::get)
+                .collect(Collectors.toList());
+        chain.addDocuments(Tokenizer.whitespace()
+                .withInterning()
+                .documents(files));
+        GenerationServer server = new GenerationServer(chain,
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(args[0])));
+        server.start();
+        System.out.println("Serving on " + server.getAddress());
+    }
+}
@@ -1,7 +1,5 @@
 package core;
 
-import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.AbstractMap.SimpleEntry;
@@ -9,7 +7,6 @@ import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map.Entry;
-import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.LongStream;
 import java.util.stream.Stream;
@@ -17,6 +14,7 @@ import java.util.stream.Stream;
 import markov.MarkovChain;
 import markov.util.RandomGenerator;
 import markov.util.SeededRandomGenerator;
+import util.text.Tokenizer;
 
 public class Main {
 
@@ -37,11 +35,13 @@ public class Main {
                 .limit(200));
     }
 
-    private static Stream<String> streamAndSplit(String... texts) {
-        return Arrays.stream(String.join(" ", getTexts(texts))
-                .split(" "))
-                .filter(e -> !e.trim()
-                        .isEmpty());
+    static Stream<String> streamAndSplit(String... texts) {
+        List<Path> paths = Arrays.stream(texts)
+                .map(Paths::get)
+                .collect(Collectors.toList());
+        return Tokenizer.whitespace()
+                .withInterning()
+                .tokens(paths);
     }
 
     private static <T> void printStream(int linebreak, Stream<T> source) {
@@ -61,28 +61,6 @@ public class Main {
         }
     }
 
-    private static List<String> getTexts(String... paths) {
-        return Arrays.stream(paths)
-                .map(Paths::get)
-                .map(Main::linesOf)
-                .flatMap(Function.identity())
-                .filter(Main::isNotEmpty)
-                .collect(Collectors.toList());
-    }
-
-    private static Stream<String> linesOf(Path path) {
-        try {
-            return Files.lines(path);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        return Stream.empty();
-    }
-
-    private static boolean isNotEmpty(String s) {
-        return !s.isEmpty();
-    }
-
     private static RandomGenerator getGenerator(long seed) {
         return new SeededRandomGenerator(seed);
     }
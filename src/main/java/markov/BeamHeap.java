@@ -0,0 +1,115 @@
+package markov;
+
+/**
+ * A bounded min-heap of scored candidates stored in primitive arrays. A
+ * candidate is a reference packed into a long. Candidates with equal scores are
+ * ordered by reference, which makes the retained set independent of insertion
+ * order.
+ */
+final class BeamHeap {
+
+    private final double[] scores;
+    private final long[] refs;
+    private int size;
+
+    BeamHeap(int capacity) {
+        this.scores = new double[capacity];
+        this.refs = new long[capacity];
+    }
+
+    int size() {
+        return size;
+    }
+
+    double score(int i) {
+        return scores[i];
+    }
+
+    long ref(int i) {
+        return refs[i];
+    }
+
+    /**
+     * Returns true if a candidate with the specified score could still enter
+     * this heap.
+     */
+    boolean accepts(double score) {
+        return size < scores.length || score >= scores[0];
+    }
+
+    void offer(double score, long ref) {
+        if (size < scores.length) {
+            int i = size++;
+            scores[i] = score;
+            refs[i] = ref;
+            siftUp(i);
+        } else if (worse(0, score, ref)) {
+            scores[0] = score;
+            refs[0] = ref;
+            siftDown(0);
+        }
+    }
+
+    void addAll(BeamHeap other) {
+        for (int i = 0; i < other.size; i++) {
+            offer(other.scores[i], other.refs[i]);
+        }
+    }
+
+    /**
+     * Sorts the contents best first. The heap property is lost, so nothing may
+     * be offered afterwards.
+     */
+    void sortDescending() {
+        for (int end = size - 1; end > 0; end--) {
+            swap(0, end);
+            int remaining = size;
+            size = end;
+            siftDown(0);
+            size = remaining;
+        }
+    }
+
+    private boolean worse(int i, double score, long ref) {
+        return scores[i] < score || (scores[i] == score && refs[i] > ref);
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!worse(i, scores[parent], refs[parent])) {
+                return;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int left = 2 * i + 1;
+            if (left >= size) {
+                return;
+            }
+            int child = left;
+            int right = left + 1;
+            if (right < size && worse(right, scores[left], refs[left])) {
+                child = right;
+            }
+            if (!worse(child, scores[i], refs[i])) {
+                return;
+            }
+            swap(i, child);
+            i = child;
+        }
+    }
+
+    private void swap(int a, int b) {
+        double score = scores[a];
+        scores[a] = scores[b];
+        scores[b] = score;
+        long ref = refs[a];
+        refs[a] = refs[b];
+        refs[b] = ref;
+    }
+}
@@ -0,0 +1,171 @@
+package markov;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Finds the most likely continuations of a sequence. After each step only the
+ * <em>beamWidth</em> most likely candidates are kept. Probabilities are
+ * accumulated as logarithms to avoid underflow on long continuations.
+ * <p>
+ * Successors are visited in the order of the sorted index of each state, so a
+ * beam stops expanding as soon as its remaining successors cannot beat the
+ * current candidates. When many beams are expanded, they may be split across
+ * the common fork-join pool. The result does not depend on whether the search
+ * ran in parallel.
+ */
+public class BeamSearch<T> {
+
+    private static final int PARALLEL_THRESHOLD = 64;
+    private static final int CHUNK_SIZE = 32;
+
+    private final MarkovChain<T> chain;
+    private final int beamWidth;
+    private final boolean parallel;
+
+    /**
+     * Constructs a sequential beam search over the specified chain.
+     * 
+     * @param chain
+     *            the Markov chain to search
+     * @param beamWidth
+     *            the number of candidates kept after each step
+     * @throws IllegalArgumentException
+     *             if beamWidth < 1
+     */
+    public BeamSearch(MarkovChain<T> chain, int beamWidth) {
+        this(chain, beamWidth, false);
+    }
+
+    /**
+     * Constructs a beam search over the specified chain.
+     * 
+     * @param chain
+     *            the Markov chain to search
+     * @param beamWidth
+     *            the number of candidates kept after each step
+     * @param parallel
+     *            true if wide beams should be expanded in parallel
+     * @throws IllegalArgumentException
+     *             if beamWidth < 1
+     */
+    public BeamSearch(MarkovChain<T> chain, int beamWidth, boolean parallel) {
+        if (beamWidth < 1) {
+            throw new IllegalArgumentException("Beam width must be positive");
+        }
+        this.chain = chain;
+        this.beamWidth = beamWidth;
+        this.parallel = parallel;
+    }
+
+    /**
+     * Returns the most likely continuations of the specified length.
+     * 
+     * @param start
+     *            the starting TokenSequence
+     * @param length
+     *            the number of elements in each continuation
+     * @return at most beamWidth continuations, most likely first, or an empty
+     *         list if the sequence is unknown
+     * @throws IllegalArgumentException
+     *             if length < 0
+     */
+    public List<Continuation<T>> search(TokenSequence<T> start, int length) {
+        if (length < 0) {
+            throw new IllegalArgumentException("Length may not be negative");
+        }
+        if (chain.get(start) == null) {
+            return Collections.emptyList();
+        }
+        List<TokenSequence<T>> states = Collections.singletonList(start);
+        double[] scores = { 0 };
+        // For every step, the beam each candidate extends and the token it
+        // appends
+        int[][] parents = new int[length][];
+        Object[][] tokens = new Object[length][];
+
+        for (int step = 0; step < length; step++) {
+            BeamHeap heap = expand(states, scores);
+            heap.sortDescending();
+            int size = heap.size();
+            List<TokenSequence<T>> nextStates = new ArrayList<>(size);
+            double[] nextScores = new double[size];
+            parents[step] = new int[size];
+            tokens[step] = new Object[size];
+            for (int i = 0; i < size; i++) {
+                long ref = heap.ref(i);
+                int beam = (int) (ref >>> 32);
+                int rank = (int) ref;
+                T token = chain.get(states.get(beam))
+                        .getSuccessorIndex()
+                        .token(rank);
+                parents[step][i] = beam;
+                tokens[step][i] = token;
+                nextScores[i] = heap.score(i);
+                nextStates.add(states.get(beam)
+                        .getNext(token));
+            }
+            states = nextStates;
+            scores = nextScores;
+        }
+        return collect(scores, parents, tokens);
+    }
+
+    private BeamHeap expand(List<TokenSequence<T>> states, double[] scores) {
+        int beams = states.size();
+        if (!parallel || beams < PARALLEL_THRESHOLD) {
+            return expand(states, scores, 0, beams);
+        }
+        int chunks = (beams + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        return IntStream.range(0, chunks)
+                .parallel()
+                .mapToObj(chunk -> expand(states, scores, chunk * CHUNK_SIZE,
+                        Math.min(beams, (chunk + 1) * CHUNK_SIZE)))
+                .reduce((a, b) -> {
+                    a.addAll(b);
+                    return a;
+                })
+                .get();
+    }
+
+    private BeamHeap expand(List<TokenSequence<T>> states, double[] scores, int from, int to) {
+        BeamHeap heap = new BeamHeap(beamWidth);
+        for (int beam = from; beam < to; beam++) {
+            ProbabilityMapping<T> mapping = chain.get(states.get(beam));
+            if (mapping == null) {
+                continue;
+            }
+            SuccessorIndex<T> index = mapping.getSuccessorIndex();
+            double logTotal = Math.log(index.total());
+            int candidates = Math.min(index.size(), beamWidth);
+            for (int rank = 0; rank < candidates; rank++) {
+                double score = scores[beam] + Math.log(index.count(rank)) - logTotal;
+                if (!heap.accepts(score)) {
+                    // Successors are sorted, the rest of this beam is worse
+                    break;
+                }
+                heap.offer(score, ((long) beam << 32) | rank);
+            }
+        }
+        return heap;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Continuation<T>> collect(double[] scores, int[][] parents, Object[][] tokens) {
+        int length = parents.length;
+        List<Continuation<T>> result = new ArrayList<>(scores.length);
+        for (int i = 0; i < scores.length; i++) {
+            Object[] path = new Object[length];
+            int beam = i;
+            for (int step = length - 1; step >= 0; step--) {
+                path[step] = tokens[step][beam];
+                beam = parents[step][beam];
+            }
+            result.add(new Continuation<>(Arrays.asList((T[]) path), scores[i]));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,253 @@
+package markov;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.PriorityQueue;
+import java.util.stream.Collector;
+import java.util.stream.Stream;
+
+/**
+ * Compares the states of two Markov chains of the same order, for instance
+ * yesterday's and today's model, to detect drift. The states are walked in
+ * parallel directly on the two chains, without copying them, so neither chain
+ * may be modified during a comparison. Frozen chains are the natural fit.
+ * <p>
+ * The divergences of a state are computed over the union of its successors in
+ * both chains. The Kullback-Leibler divergence of the chain after from the
+ * chain before adds a pseudo-count to every successor, as it is infinite for
+ * successors unseen before. The Jensen-Shannon divergence is always finite and
+ * computed on the exact counts. Instances are immutable.
+ */
+public class ChainComparison<T> {
+
+    private static final double DEFAULT_PSEUDO_COUNT = 0.5;
+    private static final double LN_2 = Math.log(2);
+
+    private static final Comparator<StateDivergence<?>> BY_CHANGE = Comparator
+            .comparingDouble((StateDivergence<?> d) -> d.getJsDivergence())
+            .thenComparingLong(StateDivergence::getAfterCount);
+
+    private final MarkovChain<T> before;
+    private final MarkovChain<T> after;
+    private final double pseudoCount;
+
+    /**
+     * Constructs a new comparison of the specified chains.
+     * 
+     * @param before
+     *            the earlier chain
+     * @param after
+     *            the later chain
+     * @throws IllegalArgumentException
+     *             if the chains do not have the same order
+     */
+    public ChainComparison(MarkovChain<T> before, MarkovChain<T> after) {
+        this(before, after, DEFAULT_PSEUDO_COUNT);
+    }
+
+    private ChainComparison(MarkovChain<T> before, MarkovChain<T> after, double pseudoCount) {
+        if (before.getOrder() != after.getOrder()) {
+            throw new IllegalArgumentException("All Markov chains must be of the same order");
+        }
+        this.before = before;
+        this.after = after;
+        this.pseudoCount = pseudoCount;
+    }
+
+    /**
+     * Returns a copy of this comparison adding the specified pseudo-count to
+     * every successor when computing the Kullback-Leibler divergence. The
+     * default is 0.5.
+     * 
+     * @param pseudoCount
+     *            the count added to every successor
+     * @return a copy of this comparison
+     * @throws IllegalArgumentException
+     *             if pseudoCount <= 0
+     */
+    public ChainComparison<T> withSmoothing(double pseudoCount) {
+        if (!(pseudoCount > 0)) {
+            throw new IllegalArgumentException("The pseudo-count must be positive");
+        }
+        return new ChainComparison<>(before, after, pseudoCount);
+    }
+
+    /**
+     * Returns a lazy, parallel, stream of the divergences of every state
+     * present in both chains.
+     * 
+     * @return a stream of divergences, in no particular order
+     */
+    public Stream<StateDivergence<T>> divergences() {
+        Map<TokenSequence<T>, ProbabilityMapping<T>> other = before.states();
+        return after.states()
+                .entrySet()
+                .parallelStream()
+                .filter(e -> other.containsKey(e.getKey()))
+                .map(e -> diverge(e.getKey(), other.get(e.getKey()), e.getValue()));
+    }
+
+    /**
+     * Returns a lazy, parallel, stream of the states only present in the chain
+     * after.
+     * 
+     * @return a stream of added states, in no particular order
+     */
+    public Stream<TokenSequence<T>> addedStates() {
+        return difference(after, before).map(Entry::getKey);
+    }
+
+    /**
+     * Returns a lazy, parallel, stream of the states only present in the chain
+     * before.
+     * 
+     * @return a stream of removed states, in no particular order
+     */
+    public Stream<TokenSequence<T>> removedStates() {
+        return difference(before, after).map(Entry::getKey);
+    }
+
+    private static <T> Stream<Entry<TokenSequence<T>, ProbabilityMapping<T>>> difference(MarkovChain<T> a,
+            MarkovChain<T> b) {
+        Map<TokenSequence<T>, ProbabilityMapping<T>> other = b.states();
+        return a.states()
+                .entrySet()
+                .parallelStream()
+                .filter(e -> !other.containsKey(e.getKey()));
+    }
+
+    /**
+     * Returns the at most <em>n</em> common states whose successors changed
+     * the most, by Jensen-Shannon divergence. Every thread only keeps its own
+     * <em>n</em> candidates, so the divergences of all states are never held
+     * at once.
+     * 
+     * @param n
+     *            the maximum number of states to return
+     * @return the most changed states, most changed first
+     * @throws IllegalArgumentException
+     *             if n < 0
+     */
+    public List<StateDivergence<T>> mostChanged(int n) {
+        if (n < 0) {
+            throw new IllegalArgumentException("n may not be negative");
+        }
+        return divergences().collect(topN(n));
+    }
+
+    private static <T> Collector<StateDivergence<T>, ?, List<StateDivergence<T>>> topN(int n) {
+        return Collector.of(() -> new PriorityQueue<StateDivergence<T>>(BY_CHANGE), (heap, divergence) -> {
+            heap.offer(divergence);
+            if (heap.size() > n) {
+                heap.poll();
+            }
+        }, (a, b) -> {
+            for (StateDivergence<T> divergence : b) {
+                a.offer(divergence);
+                if (a.size() > n) {
+                    a.poll();
+                }
+            }
+            return a;
+        }, heap -> {
+            List<StateDivergence<T>> list = new ArrayList<>(heap);
+            list.sort(Collections.reverseOrder(BY_CHANGE));
+            return list;
+        });
+    }
+
+    /**
+     * Compares the two chains in a single parallel pass over each.
+     * 
+     * @return the summary of the comparison
+     */
+    public Drift compare() {
+        double[] sums = divergences().collect(() -> new double[4], (acc, d) -> {
+            acc[0]++;
+            acc[1] += d.getAfterCount();
+            acc[2] += d.getAfterCount() * d.getKlDivergence();
+            acc[3] += d.getAfterCount() * d.getJsDivergence();
+        }, (a, b) -> {
+            for (int i = 0; i < a.length; i++) {
+                a[i] += b[i];
+            }
+        });
+        long[] added = mass(difference(after, before));
+        long[] removed = mass(difference(before, after));
+        double weight = sums[1];
+        return new Drift((long) sums[0], added[0], removed[0], weight == 0 ? 0 : sums[2] / weight,
+                weight == 0 ? 0 : sums[3] / weight, fraction(added[1], totalMass(after)),
+                fraction(removed[1], totalMass(before)));
+    }
+
+    // The number of states and their transitions
+    private static <T> long[] mass(Stream<Entry<TokenSequence<T>, ProbabilityMapping<T>>> states) {
+        return states.collect(() -> new long[2], (acc, e) -> {
+            acc[0]++;
+            acc[1] += e.getValue()
+                    .getTotalValues();
+        }, (a, b) -> {
+            a[0] += b[0];
+            a[1] += b[1];
+        });
+    }
+
+    private static <T> long totalMass(MarkovChain<T> chain) {
+        return chain.states()
+                .values()
+                .parallelStream()
+                .mapToLong(ProbabilityMapping::getTotalValues)
+                .sum();
+    }
+
+    private static double fraction(long part, long total) {
+        return total == 0 ? 0 : (double) part / total;
+    }
+
+    private StateDivergence<T> diverge(TokenSequence<T> state, ProbabilityMapping<T> p, ProbabilityMapping<T> q) {
+        Map<T, Long> pCounts = p.counts();
+        Map<T, Long> qCounts = q.counts();
+        double pTotal = p.getTotalValues();
+        double qTotal = q.getTotalValues();
+        int union = pCounts.size();
+        for (T token : qCounts.keySet()) {
+            if (!pCounts.containsKey(token)) {
+                union++;
+            }
+        }
+        double pSmoothedTotal = pTotal + pseudoCount * union;
+        double qSmoothedTotal = qTotal + pseudoCount * union;
+        double kl = 0;
+        double js = 0;
+        for (Entry<T, Long> entry : pCounts.entrySet()) {
+            long pCount = entry.getValue();
+            long qCount = qCounts.getOrDefault(entry.getKey(), 0L);
+            double ps = (pCount + pseudoCount) / pSmoothedTotal;
+            double qs = (qCount + pseudoCount) / qSmoothedTotal;
+            kl += qs * Math.log(qs / ps);
+            double pi = pCount / pTotal;
+            double qi = qCount / qTotal;
+            double mi = (pi + qi) / 2;
+            js += pi * Math.log(pi / mi) / 2;
+            if (qi > 0) {
+                js += qi * Math.log(qi / mi) / 2;
+            }
+        }
+        for (Entry<T, Long> entry : qCounts.entrySet()) {
+            if (pCounts.containsKey(entry.getKey())) {
+                continue;
+            }
+            long qCount = entry.getValue();
+            double ps = pseudoCount / pSmoothedTotal;
+            double qs = (qCount + pseudoCount) / qSmoothedTotal;
+            kl += qs * Math.log(qs / ps);
+            // Half of the mixture, as the successor is unseen before
+            js += qCount / qTotal * LN_2 / 2;
+        }
+        return new StateDivergence<>(state, kl, js, p.getTotalValues(), q.getTotalValues());
+    }
+}
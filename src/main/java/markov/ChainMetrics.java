@@ -0,0 +1,130 @@
+package markov;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import util.LatencyRecorder;
+
+/**
+ * Process wide metrics of all Markov chains, enabled by starting the JVM with
+ * {@code -Dmarkov.metrics=true}. The flag is a constant, so when it is off the
+ * JIT compiler removes the instrumentation from the hot paths entirely. When
+ * on, training counts ingested tokens and created states, generation counts
+ * tokens and times every state lookup and draw, and merging and freezing emit
+ * Flight Recorder events, which show up in any recording that enables the
+ * Markov category.
+ */
+public final class ChainMetrics {
+
+    /**
+     * True if metrics are collected, read once from the system property
+     * markov.metrics.
+     */
+    public static final boolean ENABLED = Boolean.getBoolean("markov.metrics");
+
+    private static final LongAdder tokensIngested = new LongAdder();
+    private static final LongAdder statesCreated = new LongAdder();
+    private static final LongAdder tokensGenerated = new LongAdder();
+    private static final LatencyRecorder lookupLatency = new LatencyRecorder();
+    private static final LatencyRecorder samplingLatency = new LatencyRecorder();
+
+    private ChainMetrics() {
+    }
+
+    /**
+     * Returns the number of tokens trained on.
+     * 
+     * @return the number of ingested tokens
+     */
+    public static long getTokensIngested() {
+        return tokensIngested.sum();
+    }
+
+    /**
+     * Returns the number of states added to mutable chains by training.
+     * 
+     * @return the number of created states
+     */
+    public static long getStatesCreated() {
+        return statesCreated.sum();
+    }
+
+    /**
+     * Returns the number of tokens drawn, by walks, streams and single draws.
+     * 
+     * @return the number of generated tokens
+     */
+    public static long getTokensGenerated() {
+        return tokensGenerated.sum();
+    }
+
+    /**
+     * Returns the latencies of looking up the successors of a state.
+     * 
+     * @return the lookup latencies
+     */
+    public static LatencyRecorder getLookupLatency() {
+        return lookupLatency;
+    }
+
+    /**
+     * Returns the latencies of drawing a successor, once looked up.
+     * 
+     * @return the sampling latencies
+     */
+    public static LatencyRecorder getSamplingLatency() {
+        return samplingLatency;
+    }
+
+    /**
+     * Forgets all collected metrics.
+     */
+    public static void reset() {
+        tokensIngested.reset();
+        statesCreated.reset();
+        tokensGenerated.reset();
+        lookupLatency.reset();
+        samplingLatency.reset();
+    }
+
+    static void recordIngested(long tokens, long states) {
+        tokensIngested.add(tokens);
+        statesCreated.add(states);
+    }
+
+    static void recordLookup(long nanos) {
+        lookupLatency.record(nanos);
+    }
+
+    static void recordSample(long nanos) {
+        tokensGenerated.increment();
+        samplingLatency.record(nanos);
+    }
+
+    @Name("markov.Merge")
+    @Label("Markov Chain Merge")
+    @Description("Merging chains into a new chain, or a delta into a snapshot")
+    @Category("Markov")
+    static final class MergeEvent extends Event {
+
+        @Label("Chains")
+        int chains;
+
+        @Label("States")
+        long states;
+    }
+
+    @Name("markov.Freeze")
+    @Label("Markov Chain Freeze")
+    @Description("Freezing a chain, sorting the successors and building the state filter")
+    @Category("Markov")
+    static final class FreezeEvent extends Event {
+
+        @Label("States")
+        long states;
+    }
+}
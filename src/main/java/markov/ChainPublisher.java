@@ -0,0 +1,207 @@
+package markov;
+
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import markov.util.DefaultRandomGenerator;
+import markov.util.RandomGenerator;
+
+/**
+ * Publishes random walks through a Markov chain to reactive subscribers. Every
+ * subscription is an independent walk. Elements are only generated when
+ * requested, in batches on the shared executor, so no thread is held by a
+ * subscription while it waits for demand. A long running walk yields the
+ * executor between batches to let other subscriptions progress.
+ */
+public class ChainPublisher<T> implements Flow.Publisher<T> {
+
+    private static final int BATCH_SIZE = 256;
+
+    private final MarkovChain<T> chain;
+    private final TokenSequence<T> start;
+    private final Supplier<? extends RandomGenerator> generators;
+    private final long limit;
+    private final Executor executor;
+
+    /**
+     * Constructs a publisher of infinite walks starting with random elements.
+     * 
+     * @param chain
+     *            the Markov chain to walk
+     * @param executor
+     *            the executor generating the elements
+     */
+    public ChainPublisher(MarkovChain<T> chain, Executor executor) {
+        this(chain, null, DefaultRandomGenerator::new, Long.MAX_VALUE, executor);
+    }
+
+    /**
+     * Constructs a publisher of walks. Every subscription gets a generator of
+     * its own from the specified supplier.
+     * 
+     * @param chain
+     *            the Markov chain to walk
+     * @param start
+     *            the starting TokenSequence, or null for a random element
+     * @param generators
+     *            supplies the random generator of each subscription
+     * @param limit
+     *            the number of elements after which a walk completes,
+     *            including the starting elements, Long.MAX_VALUE for infinite
+     *            walks
+     * @param executor
+     *            the executor generating the elements
+     * @throws IllegalArgumentException
+     *             if limit < 0
+     */
+    public ChainPublisher(MarkovChain<T> chain, TokenSequence<T> start, Supplier<? extends RandomGenerator> generators,
+            long limit, Executor executor) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("Limit may not be negative");
+        }
+        this.chain = Objects.requireNonNull(chain);
+        this.start = start;
+        this.generators = Objects.requireNonNull(generators);
+        this.limit = limit;
+        this.executor = Objects.requireNonNull(executor);
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super T> subscriber) {
+        Objects.requireNonNull(subscriber);
+        WalkSubscription subscription = new WalkSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        if (limit == 0) {
+            // Completes without demand, through the drain like every signal
+            subscription.schedule();
+        }
+    }
+
+    /**
+     * Signals the subscriber from a single drain at a time only, so that the
+     * signals are serialized. Requests and errors are recorded and followed by
+     * a drain request, the drain turns them into signals.
+     */
+    private class WalkSubscription implements Flow.Subscription {
+
+        private final Flow.Subscriber<? super T> subscriber;
+        private final AtomicLong requested = new AtomicLong();
+        // Number of drain requests, only the thread raising it from zero drains
+        private final AtomicInteger pending = new AtomicInteger();
+        // Set once cancelled or terminated, only a successful CAS may signal
+        // onComplete or onError
+        private final AtomicBoolean done = new AtomicBoolean();
+        private final AtomicReference<Throwable> error = new AtomicReference<>();
+        private Iterator<T> walk;
+        private long emitted;
+
+        WalkSubscription(Flow.Subscriber<? super T> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (done.get()) {
+                return;
+            }
+            if (n <= 0) {
+                error.compareAndSet(null, new IllegalArgumentException("Non-positive request: " + n));
+            } else {
+                requested.getAndAccumulate(n, (current, added) -> {
+                    long sum = current + added;
+                    return sum < 0 ? Long.MAX_VALUE : sum;
+                });
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            done.set(true);
+        }
+
+        void schedule() {
+            if (pending.getAndIncrement() == 0) {
+                execute();
+            }
+        }
+
+        private void execute() {
+            try {
+                executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                // No drain runs and pending stays raised, so no other thread
+                // signals and this one may
+                fail(e);
+            }
+        }
+
+        private void fail(Throwable e) {
+            if (done.compareAndSet(false, true)) {
+                subscriber.onError(e);
+            }
+        }
+
+        private void drain() {
+            int missed = 1;
+            while (true) {
+                if (done.get()) {
+                    return;
+                }
+                Throwable failure = error.get();
+                if (failure != null) {
+                    fail(failure);
+                    return;
+                }
+                if (emitted == limit) {
+                    if (done.compareAndSet(false, true)) {
+                        subscriber.onComplete();
+                    }
+                    return;
+                }
+                long demand = requested.get();
+                long batch = 0;
+                try {
+                    if (walk == null) {
+                        RandomGenerator gen = generators.get();
+                        walk = (start == null ? chain.stream(gen) : chain.stream(start, gen)).iterator();
+                    }
+                    while (batch != demand && batch < BATCH_SIZE && emitted < limit && !done.get()
+                            && error.get() == null) {
+                        subscriber.onNext(walk.next());
+                        batch++;
+                        emitted++;
+                    }
+                } catch (RuntimeException e) {
+                    fail(e);
+                    return;
+                }
+                if (demand != Long.MAX_VALUE) {
+                    demand = requested.addAndGet(-batch);
+                }
+                if (emitted == limit || error.get() != null) {
+                    // Signalled at the top of the loop
+                    continue;
+                }
+                if (batch == BATCH_SIZE && demand > 0) {
+                    // Let other subscriptions use the executor, this one keeps
+                    // its pending count and resumes later
+                    execute();
+                    return;
+                }
+                missed = pending.addAndGet(-missed);
+                if (missed == 0) {
+                    return;
+                }
+            }
+        }
+    }
+}
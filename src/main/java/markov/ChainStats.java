@@ -0,0 +1,235 @@
+package markov;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * The size and structure of a {@link MarkovChain}, computed in a single pass
+ * over its states. Byte counts are estimates for a 64 bit JVM with compressed
+ * references. They do not include the tokens themselves, which are usually
+ * shared between states and chains.
+ */
+public final class ChainStats {
+
+    private static final long OBJECT_HEADER = 12;
+    private static final long ARRAY_HEADER = 16;
+    private static final long REFERENCE = 4;
+    // HashMap and LinkedHashMap nodes, and a boxed count
+    private static final long HASH_NODE = 32;
+    private static final long LINKED_HASH_NODE = 40;
+    private static final long HASH_MAP = 48;
+    private static final long LINKED_HASH_MAP = 56;
+    private static final long BOXED_LONG = 16;
+    // Counts up to this value are boxed from the cache of Long.valueOf
+    private static final long LONG_CACHE_HIGH = 127;
+
+    private final long states;
+    private final long transitions;
+    private final long totalCount;
+    private final int maxDegree;
+    private final long[] degreeHistogram;
+    private final long tableBytes;
+    private final long sequenceBytes;
+    private final long mappingBytes;
+    private final long indexBytes;
+    private final long filterBytes;
+
+    private ChainStats(long states, long transitions, long totalCount, int maxDegree, long[] degreeHistogram,
+            long tableBytes, long sequenceBytes, long mappingBytes, long indexBytes, long filterBytes) {
+        this.states = states;
+        this.transitions = transitions;
+        this.totalCount = totalCount;
+        this.maxDegree = maxDegree;
+        this.degreeHistogram = degreeHistogram;
+        this.tableBytes = tableBytes;
+        this.sequenceBytes = sequenceBytes;
+        this.mappingBytes = mappingBytes;
+        this.indexBytes = indexBytes;
+        this.filterBytes = filterBytes;
+    }
+
+    /**
+     * Computes the statistics of the specified states.
+     */
+    static <T> ChainStats of(Map<TokenSequence<T>, ProbabilityMapping<T>> matrix, long filterBytes) {
+        long transitions = 0;
+        long totalCount = 0;
+        int maxDegree = 0;
+        long[] histogram = new long[Integer.SIZE];
+        long sequenceBytes = 0;
+        long mappingBytes = 0;
+        long indexBytes = 0;
+        for (Entry<TokenSequence<T>, ProbabilityMapping<T>> entry : matrix.entrySet()) {
+            ProbabilityMapping<T> mapping = entry.getValue();
+            Map<T, Long> counts = mapping.counts();
+            int degree = counts.size();
+            transitions += degree;
+            totalCount += mapping.getTotalValues();
+            maxDegree = Math.max(maxDegree, degree);
+            histogram[bucketOf(degree)]++;
+            sequenceBytes += align(OBJECT_HEADER + REFERENCE + Integer.BYTES)
+                    + array(REFERENCE, entry.getKey()
+                            .size());
+            mappingBytes += align(OBJECT_HEADER + 2 * REFERENCE + Long.BYTES) + LINKED_HASH_MAP
+                    + array(REFERENCE, capacityOf(degree)) + degree * LINKED_HASH_NODE;
+            for (Long count : counts.values()) {
+                if (count > LONG_CACHE_HIGH) {
+                    mappingBytes += BOXED_LONG;
+                }
+            }
+            if (mapping.isIndexed()) {
+                // The index, its token, count and cumulative arrays and the
+                // list view of the tokens
+                indexBytes += align(OBJECT_HEADER + 4 * REFERENCE) + array(REFERENCE, degree)
+                        + 2 * array(Long.BYTES, degree) + 40;
+            }
+        }
+        long tableBytes = HASH_MAP + array(REFERENCE, capacityOf(matrix.size())) + matrix.size() * HASH_NODE;
+        int buckets = maxDegree == 0 ? 0 : bucketOf(maxDegree) + 1;
+        return new ChainStats(matrix.size(), transitions, totalCount, maxDegree, Arrays.copyOf(histogram, buckets),
+                tableBytes, sequenceBytes, mappingBytes, indexBytes, filterBytes);
+    }
+
+    private static int bucketOf(int degree) {
+        return 31 - Integer.numberOfLeadingZeros(Math.max(1, degree));
+    }
+
+    // The table size of a hash map holding the specified number of entries
+    private static long capacityOf(long size) {
+        if (size == 0) {
+            return 0;
+        }
+        long needed = (long) Math.ceil(size / 0.75);
+        return Math.max(16, Long.highestOneBit(needed - 1) << 1);
+    }
+
+    private static long array(long elementBytes, long length) {
+        return align(ARRAY_HEADER + elementBytes * length);
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+
+    /**
+     * Returns the number of states.
+     * 
+     * @return the number of states
+     */
+    public long getStates() {
+        return states;
+    }
+
+    /**
+     * Returns the number of distinct transitions, the sum of the degrees of
+     * all states.
+     * 
+     * @return the number of transitions
+     */
+    public long getTransitions() {
+        return transitions;
+    }
+
+    /**
+     * Returns the sum of the counts of all transitions.
+     * 
+     * @return the total count mass
+     */
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    /**
+     * Returns the largest number of successors of a state.
+     * 
+     * @return the maximum degree, or 0 if there are no states
+     */
+    public int getMaxDegree() {
+        return maxDegree;
+    }
+
+    /**
+     * Returns the mean number of successors of a state.
+     * 
+     * @return the mean degree, or 0 if there are no states
+     */
+    public double getMeanDegree() {
+        return states == 0 ? 0 : (double) transitions / states;
+    }
+
+    /**
+     * Returns the distribution of the number of successors of the states.
+     * Element <em>i</em> is the number of states with at least 2<sup>i</sup>
+     * and less than 2<sup>i+1</sup> successors. The last element holds the
+     * state of maximum degree.
+     * 
+     * @return a copy of the degree histogram
+     */
+    public long[] getDegreeHistogram() {
+        return degreeHistogram.clone();
+    }
+
+    /**
+     * Returns the estimated size of the hash table holding the states.
+     * 
+     * @return the estimated size of the table in bytes
+     */
+    public long getTableBytes() {
+        return tableBytes;
+    }
+
+    /**
+     * Returns the estimated size of the token sequences of the states.
+     * 
+     * @return the estimated size of the sequences in bytes
+     */
+    public long getSequenceBytes() {
+        return sequenceBytes;
+    }
+
+    /**
+     * Returns the estimated size of the successor counts of the states.
+     * 
+     * @return the estimated size of the counts in bytes
+     */
+    public long getMappingBytes() {
+        return mappingBytes;
+    }
+
+    /**
+     * Returns the estimated size of the sorted successor indices currently
+     * built, see {@link MarkovChain#topK(TokenSequence, int)}.
+     * 
+     * @return the estimated size of the indices in bytes
+     */
+    public long getIndexBytes() {
+        return indexBytes;
+    }
+
+    /**
+     * Returns the size of the filter over the states of a frozen chain.
+     * 
+     * @return the size of the filter in bytes, 0 for a mutable chain
+     */
+    public long getFilterBytes() {
+        return filterBytes;
+    }
+
+    /**
+     * Returns the estimated size of the whole chain, the sum of all
+     * components.
+     * 
+     * @return the estimated size in bytes
+     */
+    public long getEstimatedBytes() {
+        return tableBytes + sequenceBytes + mappingBytes + indexBytes + filterBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "ChainStats[states=" + states + ", transitions=" + transitions + ", totalCount=" + totalCount
+                + ", maxDegree=" + maxDegree + ", degreeHistogram=" + Arrays.toString(degreeHistogram)
+                + ", estimatedBytes=" + getEstimatedBytes() + "]";
+    }
+}
@@ -0,0 +1,186 @@
+package markov;
+
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import markov.util.DefaultRandomGenerator;
+import markov.util.RandomGenerator;
+
+/**
+ * A Markov chain which can be trained while it is being read from. Readers
+ * always work on an immutable snapshot and never block. Writers build the next
+ * snapshot on the side, sharing every state they did not touch with the
+ * current one, and publish it atomically. A walk keeps using the snapshot that
+ * was current when it started.
+ * <p>
+ * Only the states are shared, the table holding them is copied on every
+ * publish. Merging a delta therefore costs time and memory linear in the
+ * number of states of the chain, however small the delta is, so many small
+ * deltas are better merged into one before they are published.
+ */
+public class ConcurrentMarkovChain<T> {
+
+    private final int order;
+    private final Object writeLock = new Object();
+    private volatile MarkovChain<T> snapshot;
+
+    /**
+     * Constructs a new, empty, concurrent Markov chain of the specified order.
+     * 
+     * @param order
+     *            the order of the Markov chain
+     * @throws IllegalArgumentException
+     *             if the specified order < 1
+     */
+    public ConcurrentMarkovChain(int order) {
+        this(new MarkovChain<>(order));
+    }
+
+    /**
+     * Constructs a new concurrent Markov chain, initially publishing a frozen
+     * version of the specified chain.
+     * 
+     * @param initial
+     *            the chain to be published first
+     */
+    public ConcurrentMarkovChain(MarkovChain<T> initial) {
+        this.order = initial.getOrder();
+        this.snapshot = initial.freeze();
+    }
+
+    /**
+     * Trains on the specified source and publishes the result, see
+     * {@link MarkovChain#add(Stream)}. Readers are not affected until the new
+     * snapshot is published. Concurrent writers are applied one at a time.
+     * 
+     * @param source
+     *            the source of the input data.
+     */
+    public void add(Stream<T> source) {
+        MarkovChain<T> delta = new MarkovChain<>(order);
+        delta.add(source);
+        merge(delta);
+    }
+
+    /**
+     * Merges the specified chain into the current snapshot and publishes the
+     * result. This copies the table of the snapshot, see the class
+     * documentation.
+     * 
+     * @param delta
+     *            the chain to be merged
+     * @throws IllegalArgumentException
+     *             if the chains do not have the same order
+     */
+    public void merge(MarkovChain<T> delta) {
+        synchronized (writeLock) {
+            snapshot = snapshot.plus(delta);
+        }
+    }
+
+    /**
+     * Replaces the current snapshot with a frozen version of the specified
+     * chain, for instance after a complete retraining.
+     * 
+     * @param chain
+     *            the chain to be published
+     * @throws IllegalArgumentException
+     *             if the chains do not have the same order
+     */
+    public void publish(MarkovChain<T> chain) {
+        if (chain.getOrder() != order) {
+            throw new IllegalArgumentException("All Markov chains must be of the same order");
+        }
+        MarkovChain<T> frozen = chain.freeze();
+        synchronized (writeLock) {
+            snapshot = frozen;
+        }
+    }
+
+    /**
+     * Returns the currently published snapshot. The snapshot is frozen and
+     * never changes.
+     * 
+     * @return the currently published snapshot
+     */
+    public MarkovChain<T> snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Returns an infinite stream representing a random walk through the
+     * current snapshot. The stream starts with a random element.
+     * 
+     * @return an infinite stream
+     */
+    public Stream<T> stream() {
+        return stream(new DefaultRandomGenerator());
+    }
+
+    /**
+     * Returns an infinite stream representing a random walk through the
+     * current snapshot, using the specified random generator. The stream
+     * starts with a random element.
+     * 
+     * @param gen
+     *            the random generator to use
+     * @return an infinite stream
+     */
+    public Stream<T> stream(RandomGenerator gen) {
+        return snapshot.stream(gen);
+    }
+
+    /**
+     * Returns an infinite stream representing a random walk through the
+     * current snapshot, using the specified random generator. The stream
+     * starts with the specified TokenSequence.
+     * 
+     * @param start
+     *            the starting TokenSequence
+     * @param gen
+     *            the random generator to use
+     * @return an infinite stream
+     */
+    public Stream<T> stream(TokenSequence<T> start, RandomGenerator gen) {
+        return snapshot.stream(start, gen);
+    }
+
+    /**
+     * Returns the next element of the current snapshot, given the specified
+     * starting sequence and random generator.
+     * 
+     * @param start
+     *            the starting TokenSequence
+     * @param gen
+     *            the random generator to use
+     * @return the next element
+     */
+    public T getNextRandomly(TokenSequence<T> start, RandomGenerator gen) {
+        return snapshot.getNextRandomly(start, gen);
+    }
+
+    /**
+     * Returns the next element of the current snapshot, given the specified
+     * starting sequence and random generator, or an empty Optional if the
+     * sequence is unknown, see {@link MarkovChain#tryNextRandomly}.
+     * 
+     * @param start
+     *            the starting TokenSequence
+     * @param gen
+     *            the random generator to use
+     * @return the next element, or an empty Optional if the sequence is
+     *         unknown
+     */
+    public Optional<T> tryNextRandomly(TokenSequence<T> start, RandomGenerator gen) {
+        return snapshot.tryNextRandomly(start, gen);
+    }
+
+    /**
+     * Returns the order of the Markov chain.
+     * 
+     * @return the order of the Markov chain.
+     */
+    public int getOrder() {
+        return order;
+    }
+}
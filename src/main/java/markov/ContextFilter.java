@@ -0,0 +1,117 @@
+package markov;
+
+import java.util.Collection;
+
+/**
+ * A blocked Bloom filter over the states of a frozen chain, rejecting most
+ * unknown states without touching the hash table. Each state sets
+ * {@value #PROBES} bits within a single 512 bit block, a cache line, chosen by
+ * a 64 bit hash of its tokens. With {@value #BITS_PER_STATE} bits per state
+ * roughly one unknown state in a hundred passes the filter. Instances are
+ * immutable.
+ */
+final class ContextFilter {
+
+    private static final int BITS_PER_STATE = 10;
+    private static final int PROBES = 7;
+    // Words per block, 8 longs make up 512 bits
+    private static final int BLOCK_WORDS = 8;
+    // The largest number of blocks, 1 GiB worth of longs
+    private static final int MAX_BLOCKS = 1 << 24;
+
+    private final long[] bits;
+    private final int blockMask;
+
+    ContextFilter(Collection<? extends TokenSequence<?>> states) {
+        long wanted = Math.max(1, (long) states.size() * BITS_PER_STATE / (BLOCK_WORDS * Long.SIZE));
+        int blocks = Integer.highestOneBit((int) Math.min(wanted, MAX_BLOCKS));
+        if (blocks < wanted && blocks < MAX_BLOCKS) {
+            blocks <<= 1;
+        }
+        this.bits = new long[blocks * BLOCK_WORDS];
+        this.blockMask = blocks - 1;
+        addAll(states);
+    }
+
+    private ContextFilter(ContextFilter filter) {
+        this.bits = filter.bits.clone();
+        this.blockMask = filter.blockMask;
+    }
+
+    /**
+     * Returns a filter over the states of this one and the specified ones, or
+     * null if this filter is too small for the specified total number of
+     * states. A Bloom filter only ever gains bits, so the bits of this one are
+     * copied rather than computed again.
+     */
+    ContextFilter plus(Collection<? extends TokenSequence<?>> added, int states) {
+        long capacity = (long) bits.length * Long.SIZE / BITS_PER_STATE;
+        if (states > capacity && blockMask + 1 < MAX_BLOCKS) {
+            return null;
+        }
+        ContextFilter filter = new ContextFilter(this);
+        filter.addAll(added);
+        return filter;
+    }
+
+    private void addAll(Collection<? extends TokenSequence<?>> states) {
+        for (TokenSequence<?> state : states) {
+            long hash = hash(state);
+            int block = block(hash);
+            int probes = (int) (hash >>> 32);
+            for (int i = 0; i < PROBES; i++) {
+                int bit = probes & 511;
+                bits[block + (bit >>> 6)] |= 1L << bit;
+                probes = Integer.rotateRight(probes, 9) + 0x9e3779b9;
+            }
+        }
+    }
+
+    /**
+     * Returns false if the state is definitely unknown, true if it might be
+     * known.
+     */
+    boolean mightContain(TokenSequence<?> state) {
+        long hash = hash(state);
+        int block = block(hash);
+        int probes = (int) (hash >>> 32);
+        for (int i = 0; i < PROBES; i++) {
+            int bit = probes & 511;
+            if ((bits[block + (bit >>> 6)] & 1L << bit) == 0) {
+                return false;
+            }
+            probes = Integer.rotateRight(probes, 9) + 0x9e3779b9;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the size of the filter in bytes.
+     */
+    long sizeInBytes() {
+        return (long) bits.length * Long.BYTES;
+    }
+
+    private int block(long hash) {
+        return ((int) hash & blockMask) * BLOCK_WORDS;
+    }
+
+    // The hash code of a sequence collides for many short sequences of small
+    // integers, so the tokens are hashed into 64 bits one by one instead
+    private static long hash(TokenSequence<?> state) {
+        long hash = state.size();
+        for (int i = 0; i < state.size(); i++) {
+            hash = mix(hash + state.get(i)
+                    .hashCode());
+        }
+        return hash;
+    }
+
+    // The finalizer of SplitMix64
+    private static long mix(long z) {
+        z += 0x9e3779b97f4a7c15L;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,48 @@
+package markov;
+
+import java.util.Collections;
+import java.util.List;
+
+public final class Continuation<T> {
+
+    private final List<T> tokens;
+    private final double logProbability;
+
+    Continuation(List<T> tokens, double logProbability) {
+        this.tokens = Collections.unmodifiableList(tokens);
+        this.logProbability = logProbability;
+    }
+
+    /**
+     * Returns the tokens of this continuation, not including the sequence it
+     * continues.
+     * 
+     * @return an unmodifiable list of tokens
+     */
+    public List<T> getTokens() {
+        return tokens;
+    }
+
+    /**
+     * Returns the natural logarithm of the probability of this continuation.
+     * 
+     * @return the log-probability of this continuation
+     */
+    public double getLogProbability() {
+        return logProbability;
+    }
+
+    /**
+     * Returns the probability of this continuation.
+     * 
+     * @return the probability of this continuation
+     */
+    public double getProbability() {
+        return Math.exp(logProbability);
+    }
+
+    @Override
+    public String toString() {
+        return tokens + " (" + logProbability + ")";
+    }
+}
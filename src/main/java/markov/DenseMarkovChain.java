@@ -0,0 +1,316 @@
+package markov;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import markov.util.DefaultRandomGenerator;
+import markov.util.RandomGenerator;
+
+/**
+ * An immutable, dense, version of a {@link MarkovChain}, for small
+ * vocabularies. Every state is a row of a transition matrix with one column
+ * per distinct token, stored as cumulative probabilities in a single flat
+ * array. The state reached by each transition is resolved up front, so a walk
+ * is nothing but array indexing. A token is drawn by counting the cumulative
+ * probabilities not exceeding a random fraction, which is a branch-free loop
+ * over the row that the JIT compiler can vectorize. The matrix holds
+ * <em>states</em> &times; <em>tokens</em> entries, regardless of how sparse
+ * the chain is.
+ */
+public class DenseMarkovChain<T> {
+
+    // The largest number of entries in a matrix, 1 GiB worth of doubles
+    static final int MAX_MATRIX_SIZE = 1 << 27;
+
+    private final int order;
+    private final List<TokenSequence<T>> states;
+    private final Map<TokenSequence<T>, Integer> stateIndex;
+    private final Object[] tokens;
+    private final int columns;
+    // Row r holds the cumulative probabilities of every token following state
+    // r, reaching exactly 1 at the last token with a positive probability
+    private final double[] cumulative;
+    // The state reached from state r by token c, or -1 if it is unknown or c
+    // never follows r
+    private final int[] transitions;
+
+    private DenseMarkovChain(int order, List<TokenSequence<T>> states, Map<TokenSequence<T>, Integer> stateIndex,
+            Object[] tokens, double[] cumulative, int[] transitions) {
+        this.order = order;
+        this.states = states;
+        this.stateIndex = stateIndex;
+        this.tokens = tokens;
+        this.columns = tokens.length;
+        this.cumulative = cumulative;
+        this.transitions = transitions;
+    }
+
+    /**
+     * Builds a dense version of the specified chain. Later changes to the chain
+     * are not reflected in the dense version.
+     * 
+     * @param chain
+     *            the chain to be converted
+     * @return a dense version of the specified chain
+     * @throws IllegalArgumentException
+     *             if the matrix would exceed 2<sup>27</sup> entries
+     */
+    public static <T> DenseMarkovChain<T> of(MarkovChain<T> chain) {
+        Map<TokenSequence<T>, ProbabilityMapping<T>> matrix = chain.getMatrix();
+        List<TokenSequence<T>> states = new ArrayList<>(matrix.keySet());
+        Map<T, Integer> tokenIndex = new LinkedHashMap<>();
+        for (ProbabilityMapping<T> mapping : matrix.values()) {
+            for (T token : mapping.getMapping()
+                    .keySet()) {
+                tokenIndex.putIfAbsent(token, tokenIndex.size());
+            }
+        }
+        int columns = tokenIndex.size();
+        if ((long) states.size() * columns > MAX_MATRIX_SIZE) {
+            throw new IllegalArgumentException(
+                    states.size() + " states and " + columns + " tokens are too many for a dense matrix");
+        }
+        Map<TokenSequence<T>, Integer> stateIndex = new HashMap<>();
+        for (int i = 0; i < states.size(); i++) {
+            stateIndex.put(states.get(i), i);
+        }
+        double[] cumulative = new double[states.size() * columns];
+        int[] transitions = new int[states.size() * columns];
+        Arrays.fill(transitions, -1);
+        for (int row = 0; row < states.size(); row++) {
+            TokenSequence<T> state = states.get(row);
+            int base = row * columns;
+            for (Entry<T, Long> entry : matrix.get(state)
+                    .getMapping()
+                    .entrySet()) {
+                int column = tokenIndex.get(entry.getKey());
+                cumulative[base + column] = entry.getValue();
+                transitions[base + column] = stateIndex.getOrDefault(state.getNext(entry.getKey()), -1);
+            }
+            toCumulative(cumulative, base, columns);
+        }
+        return new DenseMarkovChain<>(chain.getOrder(), states, stateIndex, tokenIndex.keySet()
+                .toArray(), cumulative, transitions);
+    }
+
+    /**
+     * Turns the weights of a row into cumulative probabilities. The entries
+     * from the last column with a positive weight onwards are exactly 1, so
+     * that every fraction below 1 maps to a column with a positive weight,
+     * even when the normalized sum is rounded down.
+     */
+    private static void toCumulative(double[] matrix, int from, int length) {
+        double sum = 0;
+        int last = from;
+        for (int i = from; i < from + length; i++) {
+            if (matrix[i] > 0) {
+                last = i;
+            }
+            sum += matrix[i];
+            matrix[i] = sum;
+        }
+        normalize(matrix, from, length, sum);
+        Arrays.fill(matrix, last, from + length, 1);
+    }
+
+    // Kept free of branches and dependencies between iterations, so that it is
+    // vectorized
+    private static void normalize(double[] matrix, int from, int length, double sum) {
+        double scale = 1 / sum;
+        for (int i = from; i < from + length; i++) {
+            matrix[i] *= scale;
+        }
+    }
+
+    /**
+     * Returns the column of the token drawn by the specified fraction, which is
+     * the number of cumulative probabilities of the row not exceeding it.
+     */
+    int sample(int row, double fraction) {
+        int base = row * columns;
+        int column = 0;
+        for (int i = base; i < base + columns; i++) {
+            column += cumulative[i] <= fraction ? 1 : 0;
+        }
+        return column;
+    }
+
+    /**
+     * Returns the next element, given the specified starting sequence and
+     * random generator.
+     * 
+     * @param start
+     *            the starting TokenSequence
+     * @param gen
+     *            the random generator to use
+     * @return the next element
+     * @throws IllegalArgumentException
+     *             if the sequence is unknown
+     */
+    @SuppressWarnings("unchecked")
+    public T getNextRandomly(TokenSequence<T> start, RandomGenerator gen) {
+        return (T) tokens[sample(rowOf(start), gen.nextDouble())];
+    }
+
+    /**
+     * Returns the probability of the specified element following the
+     * specified sequence.
+     * 
+     * @param start
+     *            the preceding TokenSequence
+     * @param next
+     *            the following element
+     * @return the probability of the transition, 0 if any of the two is unknown
+     */
+    public double getProbability(TokenSequence<T> start, T next) {
+        Integer row = stateIndex.get(start);
+        if (row == null) {
+            return 0;
+        }
+        for (int column = 0; column < columns; column++) {
+            if (tokens[column].equals(next)) {
+                return getProbability(row, column);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the probabilities of every token following the specified
+     * sequence, in the order of {@link #getTokens()}.
+     * 
+     * @param start
+     *            the preceding TokenSequence
+     * @return a new array of probabilities
+     * @throws IllegalArgumentException
+     *             if the sequence is unknown
+     */
+    public double[] getProbabilities(TokenSequence<T> start) {
+        int row = rowOf(start);
+        double[] probabilities = new double[columns];
+        for (int column = 0; column < columns; column++) {
+            probabilities[column] = getProbability(row, column);
+        }
+        return probabilities;
+    }
+
+    private double getProbability(int row, int column) {
+        int index = row * columns + column;
+        return column == 0 ? cumulative[index] : cumulative[index] - cumulative[index - 1];
+    }
+
+    /**
+     * Returns an infinite stream representing a random walk through the
+     * transition matrix. The stream starts with a random element.
+     * 
+     * @return an infinite stream
+     */
+    public Stream<T> stream() {
+        return stream(new DefaultRandomGenerator());
+    }
+
+    /**
+     * Returns an infinite stream representing a random walk through the
+     * transition matrix, using the specified random generator. The stream
+     * starts with a random element.
+     * 
+     * @param gen
+     *            the random generator to use
+     * @return an infinite stream
+     */
+    public Stream<T> stream(RandomGenerator gen) {
+        return stream(states.get(gen.nextInt(states.size())), gen);
+    }
+
+    /**
+     * Returns an infinite stream representing a random walk through the
+     * transition matrix, using the specified random generator. The stream
+     * starts with the specified TokenSequence.
+     * 
+     * @param start
+     *            the starting TokenSequence
+     * @param gen
+     *            the random generator to use
+     * @return an infinite stream
+     * @throws IllegalArgumentException
+     *             if the sequence is unknown
+     */
+    public Stream<T> stream(TokenSequence<T> start, RandomGenerator gen) {
+        Stream<T> head = start.getTokens()
+                .stream();
+        Stream<T> tail = Stream.generate(new RandomSupplier(rowOf(start), gen));
+        return Stream.concat(head, tail);
+    }
+
+    /**
+     * Returns the states of this chain, in the order of the rows of the
+     * matrix.
+     * 
+     * @return an unmodifiable list of states
+     */
+    public List<TokenSequence<T>> getStates() {
+        return Collections.unmodifiableList(states);
+    }
+
+    /**
+     * Returns the tokens of this chain, in the order of the columns of the
+     * matrix.
+     * 
+     * @return an unmodifiable list of tokens
+     */
+    @SuppressWarnings("unchecked")
+    public List<T> getTokens() {
+        List<T> list = new ArrayList<>(columns);
+        for (Object token : tokens) {
+            list.add((T) token);
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    /**
+     * Returns the order of the Markov chain.
+     * 
+     * @return the order of the Markov chain.
+     */
+    public int getOrder() {
+        return order;
+    }
+
+    private int rowOf(TokenSequence<T> state) {
+        Integer row = stateIndex.get(state);
+        if (row == null) {
+            throw new IllegalArgumentException("Unknown state " + state);
+        }
+        return row;
+    }
+
+    private class RandomSupplier implements Supplier<T> {
+
+        private int row;
+        private final RandomGenerator gen;
+
+        RandomSupplier(int row, RandomGenerator gen) {
+            this.row = row;
+            this.gen = gen;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T get() {
+            if (row < 0) {
+                throw new IllegalStateException("The walk reached a state without successors");
+            }
+            int column = sample(row, gen.nextDouble());
+            row = transitions[row * columns + column];
+            return (T) tokens[column];
+        }
+    }
+}
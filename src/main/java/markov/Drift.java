@@ -0,0 +1,99 @@
+package markov;
+
+/**
+ * The summary of a {@link ChainComparison}.
+ */
+public final class Drift {
+
+    private final long commonStates;
+    private final long addedStates;
+    private final long removedStates;
+    private final double klDivergence;
+    private final double jsDivergence;
+    private final double addedMass;
+    private final double removedMass;
+
+    Drift(long commonStates, long addedStates, long removedStates, double klDivergence, double jsDivergence,
+            double addedMass, double removedMass) {
+        this.commonStates = commonStates;
+        this.addedStates = addedStates;
+        this.removedStates = removedStates;
+        this.klDivergence = klDivergence;
+        this.jsDivergence = jsDivergence;
+        this.addedMass = addedMass;
+        this.removedMass = removedMass;
+    }
+
+    /**
+     * Returns the number of states present in both chains.
+     * 
+     * @return the number of common states
+     */
+    public long getCommonStates() {
+        return commonStates;
+    }
+
+    /**
+     * Returns the number of states only present in the chain after.
+     * 
+     * @return the number of added states
+     */
+    public long getAddedStates() {
+        return addedStates;
+    }
+
+    /**
+     * Returns the number of states only present in the chain before.
+     * 
+     * @return the number of removed states
+     */
+    public long getRemovedStates() {
+        return removedStates;
+    }
+
+    /**
+     * Returns the Kullback-Leibler divergence of the common states, weighted
+     * by how many transitions each has in the chain after.
+     * 
+     * @return the weighted Kullback-Leibler divergence, in nats
+     */
+    public double getKlDivergence() {
+        return klDivergence;
+    }
+
+    /**
+     * Returns the Jensen-Shannon divergence of the common states, weighted by
+     * how many transitions each has in the chain after.
+     * 
+     * @return the weighted Jensen-Shannon divergence, in nats
+     */
+    public double getJsDivergence() {
+        return jsDivergence;
+    }
+
+    /**
+     * Returns the fraction of the transitions of the chain after which are
+     * from added states.
+     * 
+     * @return the fraction of transitions from added states
+     */
+    public double getAddedMass() {
+        return addedMass;
+    }
+
+    /**
+     * Returns the fraction of the transitions of the chain before which are
+     * from removed states.
+     * 
+     * @return the fraction of transitions from removed states
+     */
+    public double getRemovedMass() {
+        return removedMass;
+    }
+
+    @Override
+    public String toString() {
+        return "common=" + commonStates + " added=" + addedStates + " removed=" + removedStates + " KL="
+                + klDivergence + " JS=" + jsDivergence;
+    }
+}
@@ -0,0 +1,563 @@
+package markov;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * A Markov chain whose training survives crashes. Every call to
+ * {@link #add(Stream)} appends the resulting count deltas to a write-ahead
+ * journal before applying them, and returns once they are on disk. Concurrent
+ * writers share a single write and force of the journal, a group commit.
+ * <p>
+ * The directory holds checkpoints, which are {@link ModelArchive} files, and
+ * journal segments. Checkpoint <em>n</em> holds everything journaled in the
+ * segments before segment <em>n</em>. Opening the directory loads the latest
+ * checkpoint and replays the later segments, discarding a record torn by a
+ * crash. Once the journal outgrows a threshold, a background compaction starts
+ * a new segment, writes a checkpoint of the chain at that point and deletes
+ * what it supersedes. A failed compaction leaves the journal intact, it is
+ * retried by the next add and reported by
+ * {@link #getLastCompactionFailure()}.
+ */
+public class JournaledMarkovChain<T> implements Closeable {
+
+    private static final long DEFAULT_COMPACTION_THRESHOLD = 64L << 20;
+    private static final String CHECKPOINT_PREFIX = "checkpoint-";
+    private static final String CHECKPOINT_SUFFIX = ".mka";
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    // Length and checksum of a record
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private final Path directory;
+    private final int order;
+    private final TokenCodec<T> codec;
+    private final long compactionThreshold;
+    private final MarkovChain<T> chain;
+
+    // Adders share the read lock, starting a new segment takes the write lock,
+    // so that no delta is both checkpointed and left in a later segment
+    private final ReadWriteLock segmentLock = new ReentrantReadWriteLock();
+    private final Object commitLock = new Object();
+    private final ExecutorService compactor;
+    private final AtomicBoolean compacting = new AtomicBoolean();
+    private volatile IOException lastCompactionFailure;
+    // Checkpoints are written one at a time
+    private final Object checkpointLock = new Object();
+
+    // Guarded by commitLock
+    private FileChannel segment;
+    private long segmentSequence;
+    private long journalSize;
+    private List<byte[]> pending = new ArrayList<>();
+    private long appended;
+    private long durable;
+    private boolean flushing;
+    private IOException failure;
+
+    private JournaledMarkovChain(Path directory, int order, TokenCodec<T> codec, long compactionThreshold,
+            MarkovChain<T> chain, long segmentSequence, long journalSize) throws IOException {
+        this.directory = directory;
+        this.order = order;
+        this.codec = codec;
+        this.compactionThreshold = compactionThreshold;
+        this.chain = chain;
+        this.segmentSequence = segmentSequence;
+        this.journalSize = journalSize;
+        this.segment = openSegment(segmentSequence);
+        this.compactor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "journal-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Opens the journaled chain in the specified directory, creating it if
+     * needed, and recovers its contents.
+     * 
+     * @param directory
+     *            the directory of the checkpoints and the journal
+     * @param order
+     *            the order of the Markov chain
+     * @param codec
+     *            the codec of the tokens
+     * @return the recovered chain
+     * @throws IOException
+     *             if the chain could not be recovered
+     * @throws IllegalArgumentException
+     *             if the directory holds a chain of another order
+     */
+    public static <T> JournaledMarkovChain<T> open(Path directory, int order, TokenCodec<T> codec)
+            throws IOException {
+        return open(directory, order, codec, DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    /**
+     * Opens the journaled chain in the specified directory, creating it if
+     * needed, and recovers its contents. A compaction starts whenever the
+     * journal grows past the specified number of bytes.
+     * 
+     * @param directory
+     *            the directory of the checkpoints and the journal
+     * @param order
+     *            the order of the Markov chain
+     * @param codec
+     *            the codec of the tokens
+     * @param compactionThreshold
+     *            the journal size in bytes starting a compaction
+     * @return the recovered chain
+     * @throws IOException
+     *             if the chain could not be recovered
+     * @throws IllegalArgumentException
+     *             if the directory holds a chain of another order
+     */
+    public static <T> JournaledMarkovChain<T> open(Path directory, int order, TokenCodec<T> codec,
+            long compactionThreshold) throws IOException {
+        Files.createDirectories(directory);
+        TreeMap<Long, Path> checkpoints = list(directory, CHECKPOINT_PREFIX, CHECKPOINT_SUFFIX);
+        TreeMap<Long, Path> segments = list(directory, SEGMENT_PREFIX, SEGMENT_SUFFIX);
+        MarkovChain<T> chain;
+        long first = 0;
+        if (checkpoints.isEmpty()) {
+            chain = new MarkovChain<>(order);
+        } else {
+            first = checkpoints.lastKey();
+            chain = ModelArchive.read(checkpoints.lastEntry()
+                    .getValue(), codec);
+            if (chain.getOrder() != order) {
+                throw new IllegalArgumentException("The journaled chain is of order " + chain.getOrder());
+            }
+        }
+        long last = first;
+        long journalSize = 0;
+        for (Entry<Long, Path> entry : segments.tailMap(first, true)
+                .entrySet()) {
+            boolean lastSegment = entry.getKey()
+                    .equals(segments.lastKey());
+            journalSize += replay(entry.getValue(), chain, order, codec, lastSegment);
+            last = entry.getKey();
+        }
+        return new JournaledMarkovChain<>(directory, order, codec, compactionThreshold, chain, last + 1,
+                journalSize);
+    }
+
+    private static TreeMap<Long, Path> list(Path directory, String prefix, String suffix) throws IOException {
+        TreeMap<Long, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, prefix + "*" + suffix)) {
+            for (Path path : stream) {
+                String name = path.getFileName()
+                        .toString();
+                try {
+                    files.put(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())), path);
+                } catch (NumberFormatException e) {
+                    // Not one of ours
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Applies the records of the segment to the chain and returns the size of
+     * the segment, after discarding a torn record.
+     */
+    private static <T> long replay(Path path, MarkovChain<T> chain, int order, TokenCodec<T> codec,
+            boolean lastSegment) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            long position = 0;
+            ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+            while (position < size) {
+                header.clear();
+                channel.read(header, position);
+                header.flip();
+                byte[] payload = null;
+                if (header.remaining() == RECORD_HEADER_SIZE) {
+                    int length = header.getInt();
+                    int checksum = header.getInt();
+                    if (length >= 0 && position + RECORD_HEADER_SIZE + length <= size) {
+                        ByteBuffer buffer = ByteBuffer.allocate(length);
+                        channel.read(buffer, position + RECORD_HEADER_SIZE);
+                        payload = buffer.array();
+                        if (checksum(payload) != checksum) {
+                            payload = null;
+                        }
+                    }
+                }
+                if (payload == null) {
+                    if (!lastSegment) {
+                        throw new IOException("Corrupt journal segment " + path);
+                    }
+                    // A record torn by a crash, which was never acknowledged
+                    channel.truncate(position);
+                    return position;
+                }
+                chain.addAll(decode(payload, order, codec));
+                position += RECORD_HEADER_SIZE + payload.length;
+            }
+            return size;
+        }
+    }
+
+    /**
+     * Trains on the specified source and journals the result, see
+     * {@link MarkovChain#add(Stream)}. Returns once the counts are durable.
+     * 
+     * @param source
+     *            the source of the input data.
+     * @throws UncheckedIOException
+     *             if the journal could not be written, in which case the
+     *             counts are not applied
+     */
+    public void add(Stream<T> source) {
+        MarkovChain<T> delta = new MarkovChain<>(order);
+        delta.add(source);
+        byte[] record;
+        try {
+            record = encode(delta);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        segmentLock.readLock()
+                .lock();
+        try {
+            commit(record);
+            synchronized (chain) {
+                chain.addAll(delta);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            segmentLock.readLock()
+                    .unlock();
+        }
+        if (journalSize() > compactionThreshold && compacting.compareAndSet(false, true)) {
+            compactor.execute(() -> {
+                try {
+                    checkpoint();
+                    lastCompactionFailure = null;
+                } catch (IOException e) {
+                    // The journal is intact, the next compaction will retry
+                    lastCompactionFailure = e;
+                } finally {
+                    compacting.set(false);
+                }
+            });
+        }
+    }
+
+    /**
+     * Appends the record to the journal and returns once it is durable. The
+     * first waiting writer writes and forces everything pending, the others
+     * wait for it.
+     */
+    private void commit(byte[] record) throws IOException {
+        long sequence;
+        synchronized (commitLock) {
+            checkFailure();
+            pending.add(record);
+            sequence = ++appended;
+        }
+        while (true) {
+            List<byte[]> batch;
+            long batchSequence;
+            synchronized (commitLock) {
+                while (flushing && durable < sequence) {
+                    waitForCommit();
+                }
+                if (durable >= sequence) {
+                    return;
+                }
+                checkFailure();
+                flushing = true;
+                batch = pending;
+                pending = new ArrayList<>();
+                batchSequence = appended;
+            }
+            IOException error = null;
+            try {
+                write(batch);
+            } catch (IOException e) {
+                error = e;
+            }
+            synchronized (commitLock) {
+                flushing = false;
+                if (error == null) {
+                    durable = batchSequence;
+                } else {
+                    failure = error;
+                }
+                commitLock.notifyAll();
+            }
+            if (error != null) {
+                throw error;
+            }
+        }
+    }
+
+    private void write(List<byte[]> batch) throws IOException {
+        int size = 0;
+        for (byte[] record : batch) {
+            size += RECORD_HEADER_SIZE + record.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (byte[] record : batch) {
+            buffer.putInt(record.length);
+            buffer.putInt(checksum(record));
+            buffer.put(record);
+        }
+        buffer.flip();
+        // Only the flushing writer touches the segment
+        while (buffer.hasRemaining()) {
+            segment.write(buffer);
+        }
+        segment.force(false);
+        synchronized (commitLock) {
+            journalSize += size;
+        }
+    }
+
+    private void waitForCommit() throws IOException {
+        try {
+            commitLock.wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread()
+                    .interrupt();
+            throw new IOException("Interrupted while waiting for the journal", e);
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException("The journal failed earlier", failure);
+        }
+    }
+
+    /**
+     * Starts a new journal segment, writes a checkpoint of everything
+     * journaled before it and deletes the checkpoints and segments it
+     * supersedes. Training continues while the checkpoint is written.
+     * 
+     * @throws IOException
+     *             if the checkpoint could not be written, in which case the
+     *             journal is left intact
+     */
+    public void checkpoint() throws IOException {
+        synchronized (checkpointLock) {
+            long sequence;
+            // The size of the segments the checkpoint supersedes
+            long superseded;
+            MarkovChain<T> snapshot;
+            segmentLock.writeLock()
+                    .lock();
+            try {
+                synchronized (commitLock) {
+                    checkFailure();
+                    segment.close();
+                    sequence = ++segmentSequence;
+                    segment = openSegment(sequence);
+                    superseded = journalSize;
+                }
+                synchronized (chain) {
+                    // States are replaced rather than modified when added to,
+                    // so a shallow copy is a consistent snapshot
+                    snapshot = MarkovChain.of(order, new HashMap<>(chain.states()));
+                }
+            } finally {
+                segmentLock.writeLock()
+                        .unlock();
+            }
+            Path temporary = directory.resolve(CHECKPOINT_PREFIX + sequence + ".tmp");
+            ModelArchive.write(snapshot, codec, temporary);
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            Files.move(temporary, directory.resolve(CHECKPOINT_PREFIX + sequence + CHECKPOINT_SUFFIX),
+                    StandardCopyOption.ATOMIC_MOVE);
+            syncDirectory();
+            // Until now the superseded segments were still needed for recovery
+            synchronized (commitLock) {
+                journalSize -= superseded;
+            }
+            for (Path old : list(directory, CHECKPOINT_PREFIX, CHECKPOINT_SUFFIX).headMap(sequence)
+                    .values()) {
+                Files.deleteIfExists(old);
+            }
+            for (Path old : list(directory, SEGMENT_PREFIX, SEGMENT_SUFFIX).headMap(sequence)
+                    .values()) {
+                Files.deleteIfExists(old);
+            }
+        }
+    }
+
+    // Makes the rename of a checkpoint durable
+    private void syncDirectory() throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(directory, StandardOpenOption.READ);
+        } catch (IOException e) {
+            // Some platforms, such as Windows, cannot open directories
+            return;
+        }
+        try (FileChannel dir = channel) {
+            dir.force(true);
+        }
+    }
+
+    /**
+     * Returns the failure of the latest background compaction, or null if it
+     * succeeded or none has run yet. A failed compaction leaves the journal
+     * intact and is retried once the journal grows further.
+     * 
+     * @return the failure of the latest background compaction, or null
+     */
+    public IOException getLastCompactionFailure() {
+        return lastCompactionFailure;
+    }
+
+    private FileChannel openSegment(long sequence) throws IOException {
+        return FileChannel.open(directory.resolve(SEGMENT_PREFIX + sequence + SEGMENT_SUFFIX),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Returns a frozen snapshot of the chain.
+     * 
+     * @return a frozen snapshot of the chain
+     */
+    public MarkovChain<T> snapshot() {
+        synchronized (chain) {
+            return chain.freeze();
+        }
+    }
+
+    /**
+     * Returns the number of bytes journaled since the last checkpoint,
+     * including the segments replayed when the chain was opened.
+     * 
+     * @return the size of the journal in bytes
+     */
+    public long journalSize() {
+        synchronized (commitLock) {
+            return journalSize;
+        }
+    }
+
+    /**
+     * Returns the order of the Markov chain.
+     * 
+     * @return the order of the Markov chain.
+     */
+    public int getOrder() {
+        return order;
+    }
+
+    /**
+     * Waits for a running compaction and closes the journal. Everything added
+     * is already durable.
+     * 
+     * @throws IOException
+     *             if the journal could not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread()
+                    .interrupt();
+        }
+        segmentLock.writeLock()
+                .lock();
+        try {
+            synchronized (commitLock) {
+                segment.close();
+            }
+        } finally {
+            segmentLock.writeLock()
+                    .unlock();
+        }
+    }
+
+    private byte[] encode(MarkovChain<T> delta) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        Map<TokenSequence<T>, ProbabilityMapping<T>> states = delta.states();
+        Varints.write(out, states.size());
+        for (Entry<TokenSequence<T>, ProbabilityMapping<T>> entry : states.entrySet()) {
+            TokenSequence<T> state = entry.getKey();
+            Varints.write(out, state.size());
+            for (int i = 0; i < state.size(); i++) {
+                codec.write(out, state.get(i));
+            }
+            Map<T, Long> counts = entry.getValue()
+                    .counts();
+            Varints.write(out, counts.size());
+            for (Entry<T, Long> count : counts.entrySet()) {
+                codec.write(out, count.getKey());
+                Varints.write(out, count.getValue());
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static <T> MarkovChain<T> decode(byte[] record, int order, TokenCodec<T> codec) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        int states = Varints.readInt(in);
+        Map<TokenSequence<T>, ProbabilityMapping<T>> matrix = new HashMap<>(states * 2);
+        try {
+            for (int s = 0; s < states; s++) {
+                int size = Varints.readInt(in);
+                List<T> tokens = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    tokens.add(codec.read(in));
+                }
+                ProbabilityMapping<T> mapping = new ProbabilityMapping<>();
+                int successors = Varints.readInt(in);
+                for (int i = 0; i < successors; i++) {
+                    mapping.add(codec.read(in), Varints.read(in));
+                }
+                matrix.put(new TokenSequence<>(tokens), mapping);
+            }
+        } catch (EOFException e) {
+            throw new IOException("Truncated journal record", e);
+        }
+        return MarkovChain.of(order, matrix);
+    }
+
+    private static int checksum(byte[] record) {
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        return (int) crc.getValue();
+    }
+}
@@ -9,18 +9,32 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.function.BiConsumer;
 import java.util.function.Supplier;
+import java.util.stream.Collector;
 import java.util.stream.Collectors;
+import java.util.stream.LongStream;
 import java.util.stream.Stream;
 
 import markov.util.DefaultRandomGenerator;
 import markov.util.RandomGenerator;
-import util.WindowedStream;
+import markov.util.SplitMix64RandomGenerator;
+import markov.util.XoroshiroRandomGenerator;
 
 public class MarkovChain<T> {
 
     private final int order;
     private final Map<TokenSequence<T>, ProbabilityMapping<T>> matrix;
+    private final boolean frozen;
+    // Rejects most unknown states of frozen chains without a table lookup,
+    // null for mutable chains
+    private final ContextFilter filter;
+    // The states in iteration order, for picking random states in constant
+    // time. Discarded whenever states are added
+    private volatile Object[] keys;
 
     /**
      * Constructs a new Markov chain of the specified order.
@@ -31,15 +45,25 @@ public class MarkovChain<T> {
      *             if the specified order < 1
      */
     public MarkovChain(int order) {
-        this(order, new HashMap<>());
+        this(order, new HashMap<>(), null);
     }
 
-    private MarkovChain(int order, Map<TokenSequence<T>, ProbabilityMapping<T>> matrix) {
+    // Frozen if and only if a filter is given
+    private MarkovChain(int order, Map<TokenSequence<T>, ProbabilityMapping<T>> matrix, ContextFilter filter) {
         if (order < 1) {
             throw new IllegalArgumentException("The order of the markov chain must be positive");
         }
         this.order = order;
         this.matrix = matrix;
+        this.frozen = filter != null;
+        this.filter = filter;
+    }
+
+    /**
+     * Returns a new, mutable, chain consisting of the specified states.
+     */
+    static <T> MarkovChain<T> of(int order, Map<TokenSequence<T>, ProbabilityMapping<T>> matrix) {
+        return new MarkovChain<>(order, matrix, null);
     }
 
     /**
@@ -47,33 +71,187 @@ public class MarkovChain<T> {
      * considered a token. The stream is also considered to be
      * <em>circular</em>, which means that the last element is considered to
      * precede the first element. This property guarantees that an infinite
-     * stream can be created. Note that the stream must be held in memory when
-     * building the matrix.
+     * stream can be created. The source is consumed in a single pass, only the
+     * first <em>order</em> elements are held on to for the wrap-around.
+     * <p>
+     * Walks generated from a given seed are reproducible for chains built by
+     * the same calls to this method.
      * 
      * @param source
      *            the source of the input data.
+     * @throws UnsupportedOperationException
+     *             if this chain is frozen
      */
     public void add(Stream<T> source) {
-        List<List<T>> slidingWindows = WindowedStream.windowed(source.sequential(), order)
-                .collect(Collectors.toList());
-        // Imagine the input text as circular. We must therefore add new lists
-        // to the slidingWindows to simulate this
-        for (int i = 1; i < order; i++) {
-            List<T> lastList = slidingWindows.get(slidingWindows.size() - 1);
-            List<T> firstList = slidingWindows.get(0);
-            List<T> list = new ArrayList<>(lastList);
-            list.remove(0);
-            list.add(firstList.get(i - 1));
-            slidingWindows.add(list);
+        checkNotFrozen();
+        Map<TokenSequence<T>, ProbabilityMapping<T>> table = new HashMap<>();
+        addCircular(table, source);
+        mergeTable(table);
+    }
+
+    /**
+     * Builds a transition matrix based on the specified documents, each of
+     * which is treated as a separate circular source, see {@link #add(Stream)}.
+     * Documents are ingested in parallel into partial tables which are then
+     * combined, so this scales with the number of cores when there are many
+     * documents. The tokens of a single document are read sequentially.
+     * 
+     * @param documents
+     *            the documents of the input data
+     * @throws UnsupportedOperationException
+     *             if this chain is frozen
+     */
+    public void addDocuments(Stream<? extends Stream<T>> documents) {
+        checkNotFrozen();
+        mergeTable(documents.parallel()
+                .collect(tableCollector(this::addCircular)));
+    }
+
+    /**
+     * Builds a transition matrix based on the specified documents, which are
+     * <em>not</em> treated as circular. Instead, each document is preceded by
+     * <em>order</em> start tokens and followed by an end token, after which
+     * the start tokens follow again. A walk thus emits the end token and the
+     * start tokens between generated documents, and every document begins in
+     * the state consisting of start tokens only. Empty documents are ignored.
+     * Documents are ingested in parallel, see {@link #addDocuments(Stream)}.
+     * 
+     * @param documents
+     *            the documents of the input data
+     * @param start
+     *            the token marking the beginning of a document
+     * @param end
+     *            the token marking the end of a document
+     * @throws UnsupportedOperationException
+     *             if this chain is frozen
+     */
+    public void addDocuments(Stream<? extends Stream<T>> documents, T start, T end) {
+        checkNotFrozen();
+        mergeTable(documents.parallel()
+                .collect(tableCollector((table, document) -> addDelimited(table, document, start, end))));
+    }
+
+    /**
+     * Adds the counts of the specified chain to this chain. The states of the
+     * other chain may end up shared with this one, so it must not be modified
+     * afterwards.
+     */
+    void addAll(MarkovChain<T> other) {
+        checkNotFrozen();
+        mergeTable(other.matrix);
+    }
+
+    private void checkNotFrozen() {
+        if (frozen) {
+            throw new UnsupportedOperationException("A frozen Markov chain cannot be modified");
+        }
+    }
+
+    private void addCircular(Map<TokenSequence<T>, ProbabilityMapping<T>> table, Stream<T> source) {
+        List<T> head = new ArrayList<>(order);
+        TokenSequence<T> state = null;
+        Iterator<T> iterator = source.sequential()
+                .iterator();
+        long tokens = 0;
+        while (iterator.hasNext()) {
+            T next = iterator.next();
+            tokens++;
+            if (state == null) {
+                head.add(next);
+                if (head.size() == order) {
+                    state = new TokenSequence<>(head);
+                }
+            } else {
+                state = addTransition(table, state, next);
+            }
+        }
+        if (state == null) {
+            // Fewer tokens than the order, wrap around as many times as needed
+            int size = head.size();
+            for (int i = 0; i < size; i++) {
+                List<T> window = new ArrayList<>(order);
+                for (int j = 0; j < order; j++) {
+                    window.add(head.get((i + j) % size));
+                }
+                addTransition(table, new TokenSequence<>(window), head.get((i + order) % size));
+            }
+        } else {
+            for (T next : head) {
+                state = addTransition(table, state, next);
+            }
+        }
+        if (ChainMetrics.ENABLED) {
+            ChainMetrics.recordIngested(tokens, 0);
+        }
+    }
+
+    private void addDelimited(Map<TokenSequence<T>, ProbabilityMapping<T>> table, Stream<T> document, T start,
+            T end) {
+        TokenSequence<T> initial = new TokenSequence<>(Collections.nCopies(order, start));
+        TokenSequence<T> state = initial;
+        Iterator<T> iterator = document.sequential()
+                .iterator();
+        if (!iterator.hasNext()) {
+            return;
+        }
+        long tokens = 0;
+        while (iterator.hasNext()) {
+            state = addTransition(table, state, iterator.next());
+            tokens++;
+        }
+        if (ChainMetrics.ENABLED) {
+            ChainMetrics.recordIngested(tokens, 0);
+        }
+        state = addTransition(table, state, end);
+        while (!state.equals(initial)) {
+            state = addTransition(table, state, start);
+        }
+    }
+
+    private static <T> TokenSequence<T> addTransition(Map<TokenSequence<T>, ProbabilityMapping<T>> table,
+            TokenSequence<T> state, T next) {
+        table.computeIfAbsent(state, k -> new ProbabilityMapping<>())
+                .add(next);
+        return state.getNext(next);
+    }
+
+    // Collects documents into tables private to the collecting thread, which
+    // are then combined pairwise
+    private static <T> Collector<Stream<T>, ?, Map<TokenSequence<T>, ProbabilityMapping<T>>> tableCollector(
+            BiConsumer<Map<TokenSequence<T>, ProbabilityMapping<T>>, Stream<T>> accumulator) {
+        return Collector.of(HashMap::new, accumulator, MarkovChain::combineTables);
+    }
+
+    private static <T> Map<TokenSequence<T>, ProbabilityMapping<T>> combineTables(
+            Map<TokenSequence<T>, ProbabilityMapping<T>> a, Map<TokenSequence<T>, ProbabilityMapping<T>> b) {
+        if (a.size() < b.size()) {
+            return combineTables(b, a);
+        }
+        // The mappings of partial tables are not shared, so they can be
+        // modified in place
+        for (Entry<TokenSequence<T>, ProbabilityMapping<T>> entry : b.entrySet()) {
+            ProbabilityMapping<T> target = a.putIfAbsent(entry.getKey(), entry.getValue());
+            if (target != null) {
+                for (Entry<T, Long> count : entry.getValue()
+                        .getMapping()
+                        .entrySet()) {
+                    target.add(count.getKey(), count.getValue());
+                }
+            }
         }
-        for (int i = 0; i < slidingWindows.size(); i++) {
-            List<T> window = slidingWindows.get(i);
-            List<T> nextWindow = slidingWindows.get((i + 1) % slidingWindows.size());
-            T followingValue = nextWindow.get(nextWindow.size() - 1);
+        return a;
+    }
 
-            ProbabilityMapping<T> mapping = new ProbabilityMapping<>();
-            mapping.add(followingValue);
-            matrix.merge(new TokenSequence<>(window), mapping, ProbabilityMapping::merge);
+    // Mappings may be shared with frozen chains, touched states are therefore
+    // replaced rather than modified
+    private void mergeTable(Map<TokenSequence<T>, ProbabilityMapping<T>> table) {
+        int before = matrix.size();
+        for (Entry<TokenSequence<T>, ProbabilityMapping<T>> entry : table.entrySet()) {
+            matrix.merge(entry.getKey(), entry.getValue(), ProbabilityMapping::merge);
+        }
+        keys = null;
+        if (ChainMetrics.ENABLED) {
+            ChainMetrics.recordIngested(0, matrix.size() - before);
         }
     }
 
@@ -137,6 +315,10 @@ public class MarkovChain<T> {
         if (chains.size() != weights.size()) {
             throw new IllegalArgumentException("The length of the input arguments must match");
         }
+        ChainMetrics.MergeEvent event = ChainMetrics.ENABLED ? new ChainMetrics.MergeEvent() : null;
+        if (event != null) {
+            event.begin();
+        }
         long uniqueOrders = chains.stream()
                 .mapToInt(MarkovChain::getOrder)
                 .distinct()
@@ -174,10 +356,171 @@ public class MarkovChain<T> {
             }
         }
 
-        MarkovChain<T> mergedChain = new MarkovChain<>(order, mergedMap);
+        MarkovChain<T> mergedChain = new MarkovChain<>(order, mergedMap, null);
+        if (event != null) {
+            event.chains = chains.size();
+            event.states = mergedMap.size();
+            event.commit();
+        }
         return mergedChain;
     }
 
+    /**
+     * Returns an immutable version of this Markov chain. Adding to the frozen
+     * chain throws an exception, while adding to this chain afterwards does
+     * not affect the frozen one. The states are shared between the two, which
+     * makes freezing cheap. The successors of every state are sorted as part
+     * of freezing, see {@link #topK(TokenSequence, int)}, and a Bloom filter
+     * over the states is built, which lets lookups of unknown sequences fail
+     * fast, see {@link #tryNextRandomly(TokenSequence)}. Freezing a frozen
+     * chain returns the same chain.
+     * 
+     * @return an immutable version of this Markov chain
+     */
+    public MarkovChain<T> freeze() {
+        if (frozen) {
+            return this;
+        }
+        return freeze(new HashMap<>(matrix));
+    }
+
+    /**
+     * Returns a frozen version of this chain which shares its states, for
+     * chains nothing else holds on to, such as those just read from an
+     * archive. This chain must not be added to afterwards.
+     */
+    MarkovChain<T> freezeInPlace() {
+        if (frozen) {
+            return this;
+        }
+        return freeze(matrix);
+    }
+
+    private MarkovChain<T> freeze(Map<TokenSequence<T>, ProbabilityMapping<T>> states) {
+        ChainMetrics.FreezeEvent event = ChainMetrics.ENABLED ? new ChainMetrics.FreezeEvent() : null;
+        if (event != null) {
+            event.begin();
+        }
+        indexAll(states.values());
+        MarkovChain<T> frozenChain = new MarkovChain<>(order, states, new ContextFilter(states.keySet()));
+        if (event != null) {
+            event.states = states.size();
+            event.commit();
+        }
+        return frozenChain;
+    }
+
+    /**
+     * Returns a dense version of this Markov chain, which is considerably
+     * faster to walk for small vocabularies, see {@link DenseMarkovChain}.
+     * Adding to this chain afterwards does not affect the dense one.
+     * 
+     * @return a dense version of this Markov chain
+     * @throws IllegalArgumentException
+     *             if the chain has too many states and tokens for a dense
+     *             matrix
+     */
+    public DenseMarkovChain<T> toDense() {
+        return DenseMarkovChain.of(this);
+    }
+
+    /**
+     * Returns a compact version of this Markov chain for serving, with 8 or 16
+     * bit weights, see {@link QuantizedMarkovChain}. Adding to this chain
+     * afterwards does not affect the quantized one.
+     * 
+     * @param precision
+     *            the number of bits of each weight
+     * @return a quantized version of this Markov chain
+     */
+    public QuantizedMarkovChain<T> quantize(QuantizedMarkovChain.Precision precision) {
+        return QuantizedMarkovChain.of(this, precision);
+    }
+
+    /**
+     * Returns the transition matrix of this Markov chain, for computing
+     * stationary and multi-step distributions, see {@link TransitionMatrix}.
+     * Adding to this chain afterwards does not affect the matrix.
+     * 
+     * @return the transition matrix of this Markov chain
+     */
+    public TransitionMatrix<T> transitionMatrix() {
+        return TransitionMatrix.of(this);
+    }
+
+    /**
+     * Compares this chain with a later version of it, see
+     * {@link ChainComparison}.
+     * 
+     * @param after
+     *            the later version of this chain
+     * @return the comparison of this chain and the later one
+     * @throws IllegalArgumentException
+     *             if the chains do not have the same order
+     */
+    public ChainComparison<T> compareWith(MarkovChain<T> after) {
+        return new ChainComparison<>(this, after);
+    }
+
+    /**
+     * Returns the size and structure of this chain, computed in a single pass
+     * over the states without copying them.
+     * 
+     * @return the statistics of this chain
+     */
+    public ChainStats stats() {
+        return ChainStats.of(matrix, filter == null ? 0 : filter.sizeInBytes());
+    }
+
+    /**
+     * Returns true if this Markov chain is immutable.
+     * 
+     * @return true if this Markov chain is immutable
+     */
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    /**
+     * Returns a new frozen chain consisting of this chain and the specified
+     * delta. States not present in the delta are shared with this chain, the
+     * rest are merged into new states, leaving this chain untouched. The table
+     * of states is copied, which takes time linear in the size of this chain.
+     * The Bloom filter of this chain is extended by the states of the delta,
+     * it is only built again once the chain outgrows it.
+     */
+    MarkovChain<T> plus(MarkovChain<T> delta) {
+        if (delta.order != order) {
+            throw new IllegalArgumentException("All Markov chains must be of the same order");
+        }
+        ChainMetrics.MergeEvent event = ChainMetrics.ENABLED ? new ChainMetrics.MergeEvent() : null;
+        if (event != null) {
+            event.begin();
+        }
+        Map<TokenSequence<T>, ProbabilityMapping<T>> next = new HashMap<>(matrix);
+        for (Entry<TokenSequence<T>, ProbabilityMapping<T>> entry : delta.matrix.entrySet()) {
+            ProbabilityMapping<T> merged = next.merge(entry.getKey(), entry.getValue(), ProbabilityMapping::merge);
+            merged.getSuccessorIndex();
+        }
+        ContextFilter nextFilter = filter == null ? null : filter.plus(delta.matrix.keySet(), next.size());
+        if (nextFilter == null) {
+            nextFilter = new ContextFilter(next.keySet());
+        }
+        MarkovChain<T> snapshot = new MarkovChain<>(order, next, nextFilter);
+        if (event != null) {
+            event.chains = 2;
+            event.states = next.size();
+            event.commit();
+        }
+        return snapshot;
+    }
+
+    private static <T> void indexAll(Collection<ProbabilityMapping<T>> mappings) {
+        for (ProbabilityMapping<T> mapping : mappings) {
+            mapping.getSuccessorIndex();
+        }
+    }
+
     /**
      * Returns an infinite stream representing a random walk through the
      * transition matrix. The stream starts with a random element.
@@ -225,12 +568,128 @@ public class MarkovChain<T> {
      * @return an infinite stream
      */
     public Stream<T> stream(TokenSequence<T> start, RandomGenerator gen) {
+        return stream(start, gen, Sampler.standard());
+    }
+
+    /**
+     * Returns an infinite stream representing a random walk through the
+     * transition matrix, using the specified random generator and sampler. The
+     * stream starts with a random element.
+     * 
+     * @param gen
+     *            the random generator to use
+     * @param sampler
+     *            the sampler controlling how each element is drawn
+     * @return an infinite stream
+     */
+    public Stream<T> stream(RandomGenerator gen, Sampler sampler) {
+        return stream(getRandomKey(gen), gen, sampler);
+    }
+
+    /**
+     * Returns an infinite stream representing a random walk through the
+     * transition matrix, using the specified random generator and sampler. The
+     * stream starts with the specified TokenSequence.
+     * 
+     * @param start
+     *            the starting TokenSequence
+     * @param gen
+     *            the random generator to use
+     * @param sampler
+     *            the sampler controlling how each element is drawn
+     * @return an infinite stream
+     */
+    public Stream<T> stream(TokenSequence<T> start, RandomGenerator gen, Sampler sampler) {
         Stream<T> head = Stream.of(start.getTokens())
                 .flatMap(List::stream);
-        Stream<T> tail = Stream.generate(new RandomSupplier(start, gen));
+        Stream<T> tail = Stream.generate(new RandomSupplier(start, gen, sampler));
         return Stream.concat(head, tail);
     }
 
+    /**
+     * Generates the specified number of independent random walks in parallel,
+     * each starting with a random element. Walk <em>i</em> draws from its own
+     * {@link XoroshiroRandomGenerator}, seeded with the <em>i</em>th value of a
+     * {@link SplitMix64RandomGenerator} seeded with the specified seed. The
+     * walks are therefore identical regardless of how many threads generate
+     * them, or in which order.
+     * <p>
+     * The returned stream is parallel and ordered. Terminal operations such as
+     * {@code collect} or {@code forEachOrdered} see the walks in order.
+     * 
+     * @param count
+     *            the number of walks
+     * @param length
+     *            the number of elements in each walk, including the starting
+     *            elements
+     * @param seed
+     *            the master seed
+     * @return a parallel stream of walks
+     * @throws IllegalArgumentException
+     *             if count < 0 or length < 0
+     */
+    public Stream<List<T>> walks(long count, int length, long seed) {
+        return walks(count, length, seed, Sampler.standard());
+    }
+
+    /**
+     * Same as {@link #walks(long, int, long)}, drawing each element with the
+     * specified sampler.
+     * 
+     * @param count
+     *            the number of walks
+     * @param length
+     *            the number of elements in each walk, including the starting
+     *            elements
+     * @param seed
+     *            the master seed
+     * @param sampler
+     *            the sampler controlling how each element is drawn
+     * @return a parallel stream of walks
+     * @throws IllegalArgumentException
+     *             if count < 0 or length < 0
+     */
+    public Stream<List<T>> walks(long count, int length, long seed, Sampler sampler) {
+        if (count < 0 || length < 0) {
+            throw new IllegalArgumentException("Count and length may not be negative");
+        }
+        return LongStream.range(0, count)
+                .parallel()
+                .mapToObj(i -> walk(length, new XoroshiroRandomGenerator(walkSeed(seed, i)), sampler));
+    }
+
+    private List<T> walk(int length, RandomGenerator gen, Sampler sampler) {
+        List<T> walk = new ArrayList<>(length);
+        TokenSequence<T> sequence = getRandomKey(gen);
+        for (int i = 0; i < sequence.size() && walk.size() < length; i++) {
+            walk.add(sequence.get(i));
+        }
+        while (walk.size() < length) {
+            T next = getNextRandomly(sequence, gen, sampler);
+            walk.add(next);
+            sequence = sequence.getNext(next);
+        }
+        return walk;
+    }
+
+    // The index:th value of a SplitMix64 sequence seeded with the seed
+    private static long walkSeed(long seed, long index) {
+        return SplitMix64RandomGenerator.mix64(seed + (index + 1) * 0x9e3779b97f4a7c15L);
+    }
+
+    /**
+     * Returns a publisher of infinite random walks, each starting with a random
+     * element. Elements are generated on demand on the specified executor, see
+     * {@link ChainPublisher}.
+     * 
+     * @param executor
+     *            the executor generating the elements
+     * @return a publisher of random walks
+     */
+    public Flow.Publisher<T> publisher(Executor executor) {
+        return new ChainPublisher<>(this, executor);
+    }
+
     /**
      * Returns the next element, given the specified starting sequence.
      * 
@@ -253,19 +712,201 @@ public class MarkovChain<T> {
      * @return the next element
      */
     public T getNextRandomly(TokenSequence<T> start, RandomGenerator gen) {
+        if (ChainMetrics.ENABLED) {
+            return instrumentedNext(start, gen, Sampler.standard());
+        }
         return matrix.get(start)
                 .getNextRandomly(gen);
     }
 
+    /**
+     * Returns the next element, given the specified starting sequence, random
+     * generator and sampler.
+     * 
+     * @param start
+     *            the starting TokenSequence
+     * @param gen
+     *            the random generator to use
+     * @param sampler
+     *            the sampler controlling how the element is drawn
+     * @return the next element
+     */
+    public T getNextRandomly(TokenSequence<T> start, RandomGenerator gen, Sampler sampler) {
+        if (ChainMetrics.ENABLED) {
+            return instrumentedNext(start, gen, sampler);
+        }
+        return sampler.sample(matrix.get(start), gen);
+    }
+
+    private T instrumentedNext(TokenSequence<T> start, RandomGenerator gen, Sampler sampler) {
+        ProbabilityMapping<T> mapping = get(start);
+        long begin = System.nanoTime();
+        T next = sampler.sample(mapping, gen);
+        ChainMetrics.recordSample(System.nanoTime() - begin);
+        return next;
+    }
+
+    /**
+     * Returns the next element, given the specified starting sequence, or an
+     * empty Optional if the sequence is unknown. Unlike
+     * {@link #getNextRandomly(TokenSequence)} this does not throw on unknown
+     * sequences, and frozen chains reject most of them without a table lookup.
+     * 
+     * @param start
+     *            the starting TokenSequence
+     * @return the next element, or an empty Optional if the sequence is
+     *         unknown
+     */
+    public Optional<T> tryNextRandomly(TokenSequence<T> start) {
+        return tryNextRandomly(start, new DefaultRandomGenerator());
+    }
+
+    /**
+     * Returns the next element, given the specified starting sequence and
+     * random generator, or an empty Optional if the sequence is unknown, see
+     * {@link #tryNextRandomly(TokenSequence)}.
+     * 
+     * @param start
+     *            the starting TokenSequence
+     * @param gen
+     *            the random generator to use
+     * @return the next element, or an empty Optional if the sequence is
+     *         unknown
+     */
+    public Optional<T> tryNextRandomly(TokenSequence<T> start, RandomGenerator gen) {
+        ProbabilityMapping<T> mapping = get(start);
+        if (mapping == null) {
+            return Optional.empty();
+        }
+        if (ChainMetrics.ENABLED) {
+            long begin = System.nanoTime();
+            T next = mapping.getNextRandomly(gen);
+            ChainMetrics.recordSample(System.nanoTime() - begin);
+            return Optional.of(next);
+        }
+        return Optional.of(mapping.getNextRandomly(gen));
+    }
+
+    /**
+     * Returns true if the specified sequence is a state of this chain.
+     * 
+     * @param state
+     *            the sequence to look up
+     * @return true if the sequence is a state of this chain
+     */
+    public boolean contains(TokenSequence<T> state) {
+        return get(state) != null;
+    }
+
+    /**
+     * Returns the most likely continuations of the specified sequence, see
+     * {@link BeamSearch}.
+     * 
+     * @param start
+     *            the starting TokenSequence
+     * @param length
+     *            the number of elements in each continuation
+     * @param beamWidth
+     *            the number of candidates kept after each step
+     * @return at most beamWidth continuations, most likely first, or an empty
+     *         list if the sequence is unknown
+     * @throws IllegalArgumentException
+     *             if length < 0 or beamWidth < 1
+     */
+    public List<Continuation<T>> beamSearch(TokenSequence<T> start, int length, int beamWidth) {
+        return new BeamSearch<>(this, beamWidth).search(start, length);
+    }
+
+    /**
+     * Scores the specified tokens in a single streaming pass, penalizing
+     * transitions unknown to this chain. See {@link Scorer} for more options.
+     * 
+     * @param source
+     *            the tokens to be scored
+     * @return the log-probability and perplexity of the tokens
+     */
+    public Score score(Stream<T> source) {
+        return new Scorer<>(this).score(source);
+    }
+
+    ProbabilityMapping<T> get(TokenSequence<T> state) {
+        if (ChainMetrics.ENABLED) {
+            long begin = System.nanoTime();
+            ProbabilityMapping<T> mapping = lookup(state);
+            ChainMetrics.recordLookup(System.nanoTime() - begin);
+            return mapping;
+        }
+        return lookup(state);
+    }
+
+    private ProbabilityMapping<T> lookup(TokenSequence<T> state) {
+        if (filter != null && !filter.mightContain(state)) {
+            return null;
+        }
+        return matrix.get(state);
+    }
+
+    /**
+     * Returns a read-only view of the states, for iterating without copying,
+     * unlike {@link #getMatrix()}. The view of a mutable chain reflects later
+     * changes to it.
+     * 
+     * @return a read-only view of the states
+     */
+    public Map<TokenSequence<T>, ProbabilityMapping<T>> states() {
+        return Collections.unmodifiableMap(matrix);
+    }
+
+    /**
+     * Returns a state drawn uniformly at random. This is the state
+     * {@link #stream(RandomGenerator)} starts with, given a generator in the
+     * same state.
+     * 
+     * @param gen
+     *            the random generator to use
+     * @return a random state
+     */
+    public TokenSequence<T> getRandomState(RandomGenerator gen) {
+        return getRandomKey(gen);
+    }
+
+    @SuppressWarnings("unchecked")
     private TokenSequence<T> getRandomKey(RandomGenerator gen) {
-        int index = gen.nextInt(matrix.size());
-        Iterator<Entry<TokenSequence<T>, ProbabilityMapping<T>>> iter = matrix.entrySet()
-                .iterator();
-        for (int i = 0; i < index; i++) {
-            iter.next();
+        Object[] current = keys;
+        if (current == null) {
+            current = matrix.keySet()
+                    .toArray();
+            keys = current;
+        }
+        int index = gen.nextInt(current.length);
+        return (TokenSequence<T>) current[index];
+    }
+
+    /**
+     * Returns the at most <em>k</em> most likely elements to follow the
+     * specified sequence, most likely first. The successors of every state are
+     * kept sorted, so this is a constant time operation for frozen chains, as
+     * well as for states of mutable chains not modified since they were last
+     * queried.
+     * 
+     * @param start
+     *            the preceding TokenSequence
+     * @param k
+     *            the maximum number of elements to return
+     * @return an unmodifiable list of at most k elements, empty if the
+     *         sequence is unknown
+     * @throws IllegalArgumentException
+     *             if k < 0
+     */
+    public List<T> topK(TokenSequence<T> start, int k) {
+        if (k < 0) {
+            throw new IllegalArgumentException("k may not be negative");
+        }
+        ProbabilityMapping<T> mapping = get(start);
+        if (mapping == null) {
+            return Collections.emptyList();
         }
-        return iter.next()
-                .getKey();
+        return mapping.topK(k);
     }
 
     /**
@@ -304,15 +945,17 @@ public class MarkovChain<T> {
 
         private TokenSequence<T> sequence;
         private RandomGenerator gen;
+        private Sampler sampler;
 
-        public RandomSupplier(TokenSequence<T> sequence, RandomGenerator gen) {
+        public RandomSupplier(TokenSequence<T> sequence, RandomGenerator gen, Sampler sampler) {
             this.sequence = sequence;
             this.gen = gen;
+            this.sampler = sampler;
         }
 
         @Override
         public T get() {
-            T next = getNextRandomly(sequence, gen);
+            T next = getNextRandomly(sequence, gen, sampler);
             sequence = sequence.getNext(next);
             return next;
         }
@@ -0,0 +1,568 @@
+package markov;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A compact file format for Markov chains. Every distinct token is written
+ * once, in a dictionary, and referred to by an id. Ids are assigned by
+ * descending frequency, so that common tokens get the shortest varints. The
+ * states are sorted by their ids and written in blocks, each Deflated on its
+ * own. Within a block, a state is written as the length of the prefix it
+ * shares with the previous state followed by the remaining ids, the first of
+ * which is delta-coded. The successors of a state are sorted by id, their ids
+ * delta-coded, and written with their counts.
+ * <p>
+ * Blocks are independent of each other, so they are decompressed in parallel
+ * when a whole chain is read, and a single block can be read on its own, see
+ * {@link Reader}. An index of the blocks, including the first state of each,
+ * follows the last block.
+ * <p>
+ * Both writing and reading stream the blocks, so only a few blocks are ever
+ * held in encoded form at a time.
+ */
+public final class ModelArchive {
+
+    private static final int MAGIC = 0x4d4b5641;
+    private static final int VERSION = 1;
+    private static final int STATES_PER_BLOCK = 4096;
+    // Magic and offset of the index
+    private static final int FOOTER_SIZE = 12;
+
+    private ModelArchive() {
+    }
+
+    /**
+     * Writes the specified chain to the specified file, replacing it if it
+     * exists.
+     * 
+     * @param chain
+     *            the chain to write
+     * @param codec
+     *            the codec of the tokens
+     * @param path
+     *            the file to write to
+     * @throws IOException
+     *             if the chain could not be written
+     */
+    public static <T> void write(MarkovChain<T> chain, TokenCodec<T> codec, Path path) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(path))) {
+            write(chain, codec, out);
+        }
+    }
+
+    /**
+     * Writes the specified chain to the specified stream, which is not closed.
+     * The chain may not be modified while it is written.
+     * 
+     * @param chain
+     *            the chain to write
+     * @param codec
+     *            the codec of the tokens
+     * @param out
+     *            the stream to write to
+     * @throws IOException
+     *             if the chain could not be written
+     */
+    public static <T> void write(MarkovChain<T> chain, TokenCodec<T> codec, OutputStream out) throws IOException {
+        Map<TokenSequence<T>, ProbabilityMapping<T>> states = chain.states();
+        Map<T, Integer> ids = assignIds(states);
+        int order = chain.getOrder();
+
+        // Sort the states by their ids
+        List<TokenSequence<T>> sequences = new ArrayList<>(states.keySet());
+        int[][] keys = new int[sequences.size()][];
+        Integer[] sorted = new Integer[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = idsOf(sequences.get(i), ids);
+            sorted[i] = i;
+        }
+        Arrays.sort(sorted, (a, b) -> Arrays.compare(keys[a], keys[b]));
+
+        CountingOutputStream counting = new CountingOutputStream(out);
+        DataOutputStream data = new DataOutputStream(counting);
+        data.writeInt(MAGIC);
+        data.writeByte(VERSION);
+        Varints.write(data, order);
+        writeDictionary(data, ids, codec);
+
+        ByteArrayOutputStream index = new ByteArrayOutputStream();
+        DataOutputStream indexData = new DataOutputStream(index);
+        int blocks = (keys.length + STATES_PER_BLOCK - 1) / STATES_PER_BLOCK;
+        Varints.write(indexData, blocks);
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        for (int from = 0; from < keys.length; from += STATES_PER_BLOCK) {
+            int to = Math.min(from + STATES_PER_BLOCK, keys.length);
+            block.reset();
+            Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+            try (DataOutputStream blockData = new DataOutputStream(new DeflaterOutputStream(block, deflater))) {
+                int[] previous = null;
+                for (int i = from; i < to; i++) {
+                    int state = sorted[i];
+                    writeState(blockData, keys[state], previous, states.get(sequences.get(state)), ids);
+                    previous = keys[state];
+                }
+            } finally {
+                deflater.end();
+            }
+            long offset = counting.count;
+            Varints.write(data, block.size());
+            Varints.write(data, to - from);
+            block.writeTo(data);
+
+            Varints.write(indexData, offset);
+            for (int id : keys[sorted[from]]) {
+                Varints.write(indexData, id);
+            }
+        }
+        // No more blocks
+        Varints.write(data, 0);
+        long indexOffset = counting.count;
+        index.writeTo(data);
+        data.writeLong(indexOffset);
+        data.writeInt(MAGIC);
+        data.flush();
+    }
+
+    private static <T> Map<T, Integer> assignIds(Map<TokenSequence<T>, ProbabilityMapping<T>> states) {
+        Map<T, Long> frequencies = new HashMap<>();
+        for (Entry<TokenSequence<T>, ProbabilityMapping<T>> entry : states.entrySet()) {
+            TokenSequence<T> state = entry.getKey();
+            for (int i = 0; i < state.size(); i++) {
+                frequencies.merge(state.get(i), 0L, Long::sum);
+            }
+            for (Entry<T, Long> successor : entry.getValue()
+                    .counts()
+                    .entrySet()) {
+                frequencies.merge(successor.getKey(), successor.getValue(), Long::sum);
+            }
+        }
+        List<Entry<T, Long>> byFrequency = new ArrayList<>(frequencies.entrySet());
+        byFrequency.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        Map<T, Integer> ids = new HashMap<>();
+        for (Entry<T, Long> entry : byFrequency) {
+            ids.put(entry.getKey(), ids.size());
+        }
+        return ids;
+    }
+
+    private static <T> int[] idsOf(TokenSequence<T> sequence, Map<T, Integer> ids) {
+        int[] key = new int[sequence.size()];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = ids.get(sequence.get(i));
+        }
+        return key;
+    }
+
+    private static <T> void writeDictionary(DataOutputStream out, Map<T, Integer> ids, TokenCodec<T> codec)
+            throws IOException {
+        Object[] tokens = new Object[ids.size()];
+        for (Entry<T, Integer> entry : ids.entrySet()) {
+            tokens[entry.getValue()] = entry.getKey();
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try (DataOutputStream dictionary = new DataOutputStream(new DeflaterOutputStream(bytes, deflater))) {
+            Varints.write(dictionary, tokens.length);
+            for (Object token : tokens) {
+                @SuppressWarnings("unchecked")
+                T t = (T) token;
+                codec.write(dictionary, t);
+            }
+        } finally {
+            deflater.end();
+        }
+        Varints.write(out, bytes.size());
+        bytes.writeTo(out);
+    }
+
+    private static <T> void writeState(DataOutputStream out, int[] key, int[] previous, ProbabilityMapping<T> mapping,
+            Map<T, Integer> ids) throws IOException {
+        int shared = 0;
+        if (previous != null) {
+            while (shared < key.length && key[shared] == previous[shared]) {
+                shared++;
+            }
+        }
+        Varints.write(out, shared);
+        for (int i = shared; i < key.length; i++) {
+            // Sorted, so the first differing id is larger than the previous
+            boolean delta = previous != null && i == shared;
+            Varints.write(out, delta ? key[i] - previous[i] : key[i]);
+        }
+        Map<T, Long> counts = mapping.counts();
+        int[] successors = new int[counts.size()];
+        long[] values = new long[counts.size()];
+        int n = 0;
+        for (Entry<T, Long> entry : counts.entrySet()) {
+            successors[n] = ids.get(entry.getKey());
+            values[n] = entry.getValue();
+            n++;
+        }
+        Integer[] sorted = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            sorted[i] = i;
+        }
+        Arrays.sort(sorted, (a, b) -> Integer.compare(successors[a], successors[b]));
+        Varints.write(out, n);
+        int previousId = 0;
+        for (int i : sorted) {
+            Varints.write(out, successors[i] - previousId);
+            Varints.write(out, values[i]);
+            previousId = successors[i];
+        }
+    }
+
+    /**
+     * Reads a chain from the specified file.
+     * 
+     * @param path
+     *            the file to read from
+     * @param codec
+     *            the codec of the tokens
+     * @return the chain read
+     * @throws IOException
+     *             if the chain could not be read
+     */
+    public static <T> MarkovChain<T> read(Path path, TokenCodec<T> codec) throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(path))) {
+            return read(in, codec);
+        }
+    }
+
+    /**
+     * Reads a chain from the specified stream, which is read up to the index
+     * and not closed. The blocks are decompressed in parallel on the common
+     * fork-join pool, while the following blocks are read.
+     * 
+     * @param in
+     *            the stream to read from
+     * @param codec
+     *            the codec of the tokens
+     * @return the chain read
+     * @throws IOException
+     *             if the chain could not be read
+     */
+    public static <T> MarkovChain<T> read(InputStream in, TokenCodec<T> codec) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        int order = readHeader(data);
+        Object[] tokens = readDictionary(data, codec);
+        Map<TokenSequence<T>, ProbabilityMapping<T>> matrix = new HashMap<>();
+        Deque<CompletableFuture<Map<TokenSequence<T>, ProbabilityMapping<T>>>> pending = new ArrayDeque<>();
+        int maxPending = ForkJoinPool.getCommonPoolParallelism() + 1;
+        while (true) {
+            int length = Varints.readInt(data);
+            if (length == 0) {
+                break;
+            }
+            int states = Varints.readInt(data);
+            byte[] block = new byte[length];
+            data.readFully(block);
+            pending.add(CompletableFuture.supplyAsync(() -> decodeBlock(block, states, order, tokens)));
+            if (pending.size() > maxPending) {
+                matrix.putAll(join(pending.poll()));
+            }
+        }
+        while (!pending.isEmpty()) {
+            matrix.putAll(join(pending.poll()));
+        }
+        return MarkovChain.of(order, matrix);
+    }
+
+    private static <V> V join(CompletableFuture<V> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) e.getCause()).getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static int readHeader(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a model archive");
+        }
+        int version = in.readUnsignedByte();
+        if (version != VERSION) {
+            throw new IOException("Unsupported archive version " + version);
+        }
+        return Varints.readInt(in);
+    }
+
+    private static <T> Object[] readDictionary(DataInputStream in, TokenCodec<T> codec) throws IOException {
+        byte[] bytes = new byte[Varints.readInt(in)];
+        in.readFully(bytes);
+        try (DataInputStream dictionary = new DataInputStream(
+                new InflaterInputStream(new ByteArrayInputStream(bytes)))) {
+            Object[] tokens = new Object[Varints.readInt(dictionary)];
+            for (int i = 0; i < tokens.length; i++) {
+                tokens[i] = codec.read(dictionary);
+            }
+            return tokens;
+        }
+    }
+
+    private static <T> Map<TokenSequence<T>, ProbabilityMapping<T>> decodeBlock(byte[] block, int states, int order,
+            Object[] tokens) {
+        Map<TokenSequence<T>, ProbabilityMapping<T>> decoded = new HashMap<>(states * 2);
+        try (DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(block)))) {
+            int[] previous = new int[order];
+            for (int s = 0; s < states; s++) {
+                int[] key = readKey(in, previous, s == 0);
+                List<T> sequence = new ArrayList<>(order);
+                for (int id : key) {
+                    sequence.add(token(tokens, id));
+                }
+                ProbabilityMapping<T> mapping = new ProbabilityMapping<>();
+                int successors = Varints.readInt(in);
+                int id = 0;
+                for (int i = 0; i < successors; i++) {
+                    id += Varints.readInt(in);
+                    mapping.add(token(tokens, id), Varints.read(in));
+                }
+                decoded.put(new TokenSequence<>(sequence), mapping);
+                previous = key;
+            }
+        } catch (EOFException e) {
+            throw new UncheckedIOException(new IOException("Truncated block", e));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return decoded;
+    }
+
+    private static int[] readKey(DataInputStream in, int[] previous, boolean first) throws IOException {
+        int shared = Varints.readInt(in);
+        if (shared > previous.length) {
+            throw new IOException("Corrupt state prefix");
+        }
+        int[] key = new int[previous.length];
+        System.arraycopy(previous, 0, key, 0, shared);
+        for (int i = shared; i < key.length; i++) {
+            int value = Varints.readInt(in);
+            key[i] = !first && i == shared ? previous[i] + value : value;
+        }
+        return key;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T token(Object[] tokens, int id) throws IOException {
+        if (id < 0 || id >= tokens.length) {
+            throw new IOException("Unknown token id " + id);
+        }
+        return (T) tokens[id];
+    }
+
+    /**
+     * Opens the specified archive for reading single blocks and states, without
+     * reading the whole chain.
+     * 
+     * @param path
+     *            the archive to open
+     * @param codec
+     *            the codec of the tokens
+     * @return a reader of the archive
+     * @throws IOException
+     *             if the archive could not be opened
+     */
+    public static <T> Reader<T> open(Path path, TokenCodec<T> codec) throws IOException {
+        return new Reader<>(path, codec);
+    }
+
+    /**
+     * Reads single blocks and states of an archive file. Only the dictionary
+     * and the block index are held in memory. Readers are not thread safe.
+     */
+    public static final class Reader<T> implements Closeable {
+
+        private final FileChannel channel;
+        private final int order;
+        private final Object[] tokens;
+        private final Map<T, Integer> ids = new HashMap<>();
+        private final long[] offsets;
+        private final int[][] firstKeys;
+
+        private Reader(Path path, TokenCodec<T> codec) throws IOException {
+            this.channel = FileChannel.open(path, StandardOpenOption.READ);
+            try {
+                long size = channel.size();
+                ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+                channel.read(footer, size - FOOTER_SIZE);
+                footer.flip();
+                long indexOffset = footer.getLong();
+                if (footer.getInt() != MAGIC) {
+                    throw new IOException("Not a model archive");
+                }
+                DataInputStream header = stream(0);
+                this.order = readHeader(header);
+                this.tokens = readDictionary(header, codec);
+                for (int i = 0; i < tokens.length; i++) {
+                    @SuppressWarnings("unchecked")
+                    T token = (T) tokens[i];
+                    ids.put(token, i);
+                }
+                DataInputStream index = stream(indexOffset);
+                int blocks = Varints.readInt(index);
+                this.offsets = new long[blocks];
+                this.firstKeys = new int[blocks][];
+                for (int b = 0; b < blocks; b++) {
+                    offsets[b] = Varints.read(index);
+                    firstKeys[b] = new int[order];
+                    for (int i = 0; i < order; i++) {
+                        firstKeys[b][i] = Varints.readInt(index);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        private DataInputStream stream(long position) throws IOException {
+            return new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel.position(position))));
+        }
+
+        /**
+         * Returns the number of blocks of the archive.
+         * 
+         * @return the number of blocks
+         */
+        public int getBlockCount() {
+            return offsets.length;
+        }
+
+        /**
+         * Returns the order of the archived chain.
+         * 
+         * @return the order of the archived chain
+         */
+        public int getOrder() {
+            return order;
+        }
+
+        /**
+         * Reads the states of the specified block.
+         * 
+         * @param block
+         *            the index of the block
+         * @return the states of the block
+         * @throws IOException
+         *             if the block could not be read
+         * @throws IndexOutOfBoundsException
+         *             if there is no such block
+         */
+        public Map<TokenSequence<T>, ProbabilityMapping<T>> readBlock(int block) throws IOException {
+            DataInputStream in = stream(offsets[block]);
+            byte[] bytes = new byte[Varints.readInt(in)];
+            int states = Varints.readInt(in);
+            in.readFully(bytes);
+            try {
+                return decodeBlock(bytes, states, order, tokens);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+
+        /**
+         * Returns the successors of the specified state, reading only the
+         * block which may contain it.
+         * 
+         * @param state
+         *            the state
+         * @return the successors of the state, or null if it is not archived
+         * @throws IOException
+         *             if the block could not be read
+         */
+        public ProbabilityMapping<T> get(TokenSequence<T> state) throws IOException {
+            if (state.size() != order) {
+                return null;
+            }
+            int[] key = new int[order];
+            for (int i = 0; i < order; i++) {
+                Integer id = ids.get(state.get(i));
+                if (id == null) {
+                    return null;
+                }
+                key[i] = id;
+            }
+            // The last block whose first state is not after the state
+            int low = 0;
+            int high = firstKeys.length - 1;
+            int block = -1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (Arrays.compare(firstKeys[mid], key) <= 0) {
+                    block = mid;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return block < 0 ? null : readBlock(block).get(state);
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    private static class CountingOutputStream extends OutputStream {
+
+        private final OutputStream out;
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package markov;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.LongAdder;
+
+import util.LatencyRecorder;
+
+/**
+ * Serves many chains from one JVM under a memory budget. Models are
+ * {@link ModelArchive} files named <em>id</em>.mka in a directory, loaded and
+ * frozen on first use. Concurrent requests for a model that is being loaded
+ * wait for the same load. Once the estimated footprint of the loaded models,
+ * see {@link ChainStats#getEstimatedBytes()}, exceeds the budget, the least
+ * recently used ones are dropped, to be loaded again when next requested.
+ * Chains already handed out stay usable.
+ */
+public class ModelRegistry<T> {
+
+    private final Path directory;
+    private final TokenCodec<T> codec;
+    private final long budget;
+    // Access ordered, guarded by itself
+    private final LinkedHashMap<String, Model<T>> models = new LinkedHashMap<>(16, 0.75f, true);
+    private long usedBytes;
+    private long evictions;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LatencyRecorder loadLatency = new LatencyRecorder();
+
+    /**
+     * Constructs a new registry of the models in the specified directory.
+     * 
+     * @param directory
+     *            the directory of the model files
+     * @param codec
+     *            the codec of the tokens
+     * @param budget
+     *            the estimated number of bytes the loaded models may take up
+     * @throws IllegalArgumentException
+     *             if budget < 0
+     */
+    public ModelRegistry(Path directory, TokenCodec<T> codec, long budget) {
+        if (budget < 0) {
+            throw new IllegalArgumentException("The memory budget may not be negative");
+        }
+        this.directory = directory;
+        this.codec = codec;
+        this.budget = budget;
+    }
+
+    /**
+     * Returns the frozen chain of the specified model, loading it if needed.
+     * A model larger than the whole budget is still loaded, at the expense of
+     * all others.
+     * 
+     * @param id
+     *            the id of the model
+     * @return the frozen chain of the model
+     * @throws IllegalArgumentException
+     *             if the id does not name a file in the directory
+     * @throws UncheckedIOException
+     *             if the model could not be loaded
+     */
+    public MarkovChain<T> get(String id) {
+        Path path = pathOf(id);
+        Model<T> model;
+        boolean load = false;
+        synchronized (models) {
+            model = models.get(id);
+            if (model == null) {
+                model = new Model<>();
+                models.put(id, model);
+                load = true;
+            }
+        }
+        if (!load) {
+            hits.increment();
+            try {
+                return model.chain.join();
+            } catch (CompletionException e) {
+                throw unwrap(e);
+            }
+        }
+        misses.increment();
+        return load(id, path, model);
+    }
+
+    private MarkovChain<T> load(String id, Path path, Model<T> model) {
+        long start = System.nanoTime();
+        MarkovChain<T> chain;
+        try {
+            // Nothing else holds on to the chain read, so its states need not
+            // be copied
+            chain = ModelArchive.read(path, codec)
+                    .freezeInPlace();
+        } catch (IOException | RuntimeException e) {
+            synchronized (models) {
+                models.remove(id, model);
+            }
+            RuntimeException failure = e instanceof IOException ? new UncheckedIOException((IOException) e)
+                    : (RuntimeException) e;
+            model.chain.completeExceptionally(failure);
+            throw failure;
+        }
+        loadLatency.record(System.nanoTime() - start);
+        long bytes = chain.stats()
+                .getEstimatedBytes();
+        synchronized (models) {
+            // Unless it was evicted explicitly in the meantime
+            if (models.get(id) == model) {
+                model.bytes = bytes;
+                usedBytes += bytes;
+                evict(model);
+            }
+        }
+        model.chain.complete(chain);
+        return chain;
+    }
+
+    // Drops the least recently used loaded models, other than the specified
+    // one, until the budget is met
+    private void evict(Model<T> keep) {
+        Iterator<Model<T>> iterator = models.values()
+                .iterator();
+        while (usedBytes > budget && iterator.hasNext()) {
+            Model<T> model = iterator.next();
+            if (model != keep && model.bytes > 0) {
+                iterator.remove();
+                usedBytes -= model.bytes;
+                evictions++;
+            }
+        }
+    }
+
+    /**
+     * Drops the specified model, so that it is loaded again when next
+     * requested, for instance because its file was replaced.
+     * 
+     * @param id
+     *            the id of the model
+     * @return true if the model was loaded or being loaded
+     */
+    public boolean evict(String id) {
+        synchronized (models) {
+            Model<T> model = models.remove(id);
+            if (model == null) {
+                return false;
+            }
+            usedBytes -= model.bytes;
+            return true;
+        }
+    }
+
+    /**
+     * Returns true if the specified model is loaded or being loaded.
+     * 
+     * @param id
+     *            the id of the model
+     * @return true if the model is loaded or being loaded
+     */
+    public boolean isLoaded(String id) {
+        synchronized (models) {
+            return models.containsKey(id);
+        }
+    }
+
+    /**
+     * Returns the estimated number of bytes taken up by the loaded models.
+     * 
+     * @return the estimated footprint of the loaded models
+     */
+    public long getUsedBytes() {
+        synchronized (models) {
+            return usedBytes;
+        }
+    }
+
+    /**
+     * Returns the memory budget in bytes.
+     * 
+     * @return the memory budget in bytes
+     */
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Returns the number of requests served by a loaded model or by a load
+     * already in progress.
+     * 
+     * @return the number of hits
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of requests which had to load their model.
+     * 
+     * @return the number of misses
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the fraction of requests which did not have to load their model.
+     * 
+     * @return the hit rate, or 0 if nothing has been requested
+     */
+    public double getHitRate() {
+        long hitCount = hits.sum();
+        long total = hitCount + misses.sum();
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    /**
+     * Returns the number of models dropped to meet the budget.
+     * 
+     * @return the number of evictions
+     */
+    public long getEvictionCount() {
+        synchronized (models) {
+            return evictions;
+        }
+    }
+
+    /**
+     * Returns the latencies of successful loads, from reading the file until
+     * the chain is frozen.
+     * 
+     * @return the load latencies
+     */
+    public LatencyRecorder getLoadLatency() {
+        return loadLatency;
+    }
+
+    private Path pathOf(String id) {
+        // Absolute, since a relative directory such as "." may normalize to
+        // a path without a parent
+        Path path = directory.resolve(id + ".mka")
+                .toAbsolutePath()
+                .normalize();
+        if (!directory.toAbsolutePath()
+                .normalize()
+                .equals(path.getParent())) {
+            throw new IllegalArgumentException("Not a model id: " + id);
+        }
+        return path;
+    }
+
+    private static RuntimeException unwrap(CompletionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) {
+            return (RuntimeException) cause;
+        }
+        return e;
+    }
+
+    private static final class Model<T> {
+
+        private final CompletableFuture<MarkovChain<T>> chain = new CompletableFuture<>();
+        // Zero until loaded, guarded by the map of models
+        private long bytes;
+    }
+}
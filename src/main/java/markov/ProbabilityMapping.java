@@ -1,6 +1,9 @@
 package markov;
 
+import java.io.Serializable;
+import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
@@ -10,9 +13,13 @@ import java.util.stream.Stream;
 
 import markov.util.RandomGenerator;
 
-public class ProbabilityMapping<T> {
+public class ProbabilityMapping<T> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
     private final Map<T, Long> counter;
     private long totalValues;
+    private transient volatile SuccessorIndex<T> index;
 
     /**
      * Constructs a new, empty, ProbabilityMapping
@@ -37,6 +44,7 @@ public class ProbabilityMapping<T> {
         if (quantity < 0) {
             throw new IllegalArgumentException("Cannot add a negative amount of items");
         }
+        index = null;
         if (quantity == 0) {
             counter.remove(item);
             return;
@@ -104,6 +112,7 @@ public class ProbabilityMapping<T> {
         if (quantity < 0) {
             throw new IllegalArgumentException("Cannot add a negative amount of items");
         }
+        index = null;
         counter.merge(item, quantity, Long::sum);
         totalValues += quantity;
     }
@@ -150,6 +159,32 @@ public class ProbabilityMapping<T> {
         return getNextByIndex(gen.nextLong(totalValues));
     }
 
+    /**
+     * Returns the element found at the specified fraction of the cumulative
+     * distribution of this mapping. Feeding this method uniformly distributed
+     * fractions yields the same weighted selection as
+     * {@link #getNextRandomly(RandomGenerator)}, which allows the random draw to
+     * be made somewhere else than where the mapping is stored.
+     * 
+     * @param fraction
+     *            a value between 0 (inclusive) and 1 (exclusive)
+     * @throws IllegalStateException
+     *             if the map is empty
+     * @throws IllegalArgumentException
+     *             if the fraction is not between 0 (inclusive) and 1
+     *             (exclusive)
+     * @return the element at the specified fraction
+     */
+    public T getNextByFraction(double fraction) {
+        if (totalValues == 0) {
+            throw new IllegalStateException("Values must be added to the map before one can be chosen");
+        }
+        if (!(fraction >= 0 && fraction < 1)) {
+            throw new IllegalArgumentException("Fraction must be in [0, 1): " + fraction);
+        }
+        return getNextByIndex(Math.min(totalValues - 1, (long) (fraction * totalValues)));
+    }
+
     private T getNextByIndex(long index) { // 0 based (of course)
         if (index >= totalValues || index < 0) {
             throw new IndexOutOfBoundsException("Out of bounds: Index = " + index + ", size = " + totalValues);
@@ -164,6 +199,53 @@ public class ProbabilityMapping<T> {
         // Should never happen. Bounds checked earlier
     }
 
+    /**
+     * Returns the at most <em>k</em> items with the highest quantities, in
+     * descending order of quantity. The order of items with equal quantities
+     * is unspecified. The returned list is an unmodifiable view which is not
+     * affected by later changes to this mapping.
+     * 
+     * @param k
+     *            the maximum number of items to return
+     * @throws IllegalArgumentException
+     *             if k < 0
+     * @return the at most k items with the highest quantities
+     */
+    public List<T> topK(int k) {
+        if (k < 0) {
+            throw new IllegalArgumentException("k may not be negative");
+        }
+        return getSuccessorIndex().topK(k);
+    }
+
+    /**
+     * Returns the items of this mapping sorted by descending quantity. The
+     * index is built on first use after a modification and kept until the
+     * next one.
+     */
+    SuccessorIndex<T> getSuccessorIndex() {
+        SuccessorIndex<T> current = index;
+        if (current == null) {
+            current = new SuccessorIndex<>(counter);
+            index = current;
+        }
+        return current;
+    }
+
+    /**
+     * Returns true if the successor index is currently built.
+     */
+    boolean isIndexed() {
+        return index != null;
+    }
+
+    /**
+     * Returns a read-only view of the counts, for iterating without copying.
+     */
+    Map<T, Long> counts() {
+        return Collections.unmodifiableMap(counter);
+    }
+
     /**
      * Returns a copy of the internal representation. Changes in the copy will
      * not reflect in the original, and vice versa.
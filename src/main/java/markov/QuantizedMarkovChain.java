@@ -0,0 +1,425 @@
+package markov;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.PriorityQueue;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import markov.util.DefaultRandomGenerator;
+import markov.util.RandomGenerator;
+
+/**
+ * An immutable, compact version of a {@link MarkovChain} for serving. The
+ * successors of a state are stored as token ids and cumulative weights of 8 or
+ * 16 bits, instead of boxed 64-bit counts. The weights of a state sum to at
+ * most 255 or 65535, its scale, and are apportioned from the exact counts by
+ * largest remainder. States with a total count within the scale are stored
+ * exactly. Every successor keeps a weight of at least 1 as long as the state
+ * has fewer successors than the scale, otherwise the least likely successors
+ * are dropped.
+ * <p>
+ * The total variation distance between the quantized and the exact
+ * successors of every state is measured while quantizing, see
+ * {@link #getMaxError()} and {@link #getMeanError()}.
+ */
+public class QuantizedMarkovChain<T> {
+
+    /**
+     * The number of bits of each weight.
+     */
+    public enum Precision {
+        /**
+         * Weights of 8 bits, summing to at most 255 per state.
+         */
+        BYTE(8),
+        /**
+         * Weights of 16 bits, summing to at most 65535 per state.
+         */
+        SHORT(16);
+
+        private final int scale;
+
+        Precision(int bits) {
+            this.scale = (1 << bits) - 1;
+        }
+
+        /**
+         * Returns the largest sum of the weights of a state.
+         * 
+         * @return the largest sum of the weights of a state
+         */
+        public int getScale() {
+            return scale;
+        }
+    }
+
+    private final int order;
+    private final Precision precision;
+    private final Object[] tokens;
+    private final Map<TokenSequence<T>, Integer> stateIndex;
+    private final List<TokenSequence<T>> states;
+    // The successors of state s are at offsets[s] to offsets[s + 1] - 1
+    private final int[] offsets;
+    private final int[] successors;
+    // Unsigned cumulative weights, only one of which is used
+    private final byte[] byteWeights;
+    private final short[] shortWeights;
+    private final double maxError;
+    private final double meanError;
+
+    private QuantizedMarkovChain(Builder<T> builder) {
+        this.order = builder.order;
+        this.precision = builder.precision;
+        this.tokens = builder.tokenIndex.keySet()
+                .toArray();
+        this.stateIndex = builder.stateIndex;
+        this.states = builder.states;
+        this.offsets = builder.offsets;
+        this.successors = builder.successors;
+        this.byteWeights = builder.byteWeights;
+        this.shortWeights = builder.shortWeights;
+        this.maxError = builder.maxError;
+        this.meanError = builder.errorSum / Math.max(builder.massSum, 1);
+    }
+
+    /**
+     * Quantizes the specified chain. Later changes to the chain are not
+     * reflected in the quantized version.
+     * 
+     * @param chain
+     *            the chain to be quantized
+     * @param precision
+     *            the number of bits of each weight
+     * @return a quantized version of the chain
+     */
+    public static <T> QuantizedMarkovChain<T> of(MarkovChain<T> chain, Precision precision) {
+        return new QuantizedMarkovChain<>(new Builder<>(chain, precision));
+    }
+
+    /**
+     * Returns the next element, given the specified starting sequence and
+     * random generator.
+     * 
+     * @param start
+     *            the starting TokenSequence
+     * @param gen
+     *            the random generator to use
+     * @return the next element
+     * @throws IllegalArgumentException
+     *             if the sequence is unknown
+     */
+    public T getNextRandomly(TokenSequence<T> start, RandomGenerator gen) {
+        return next(rowOf(start), gen);
+    }
+
+    @SuppressWarnings("unchecked")
+    private T next(int row, RandomGenerator gen) {
+        int from = offsets[row];
+        int to = offsets[row + 1];
+        int value = gen.nextInt(weight(to - 1));
+        // The first successor whose cumulative weight exceeds the value
+        int low = from;
+        int high = to - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (weight(mid) > value) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return (T) tokens[successors[low]];
+    }
+
+    private int weight(int index) {
+        return byteWeights != null ? byteWeights[index] & 0xff : shortWeights[index] & 0xffff;
+    }
+
+    /**
+     * Returns the quantized probability of the specified element following the
+     * specified sequence.
+     * 
+     * @param start
+     *            the preceding TokenSequence
+     * @param next
+     *            the following element
+     * @return the quantized probability, 0 if any of the two is unknown
+     */
+    public double getProbability(TokenSequence<T> start, T next) {
+        Integer row = stateIndex.get(start);
+        if (row == null) {
+            return 0;
+        }
+        int from = offsets[row];
+        int to = offsets[row + 1];
+        for (int i = from; i < to; i++) {
+            if (tokens[successors[i]].equals(next)) {
+                int previous = i == from ? 0 : weight(i - 1);
+                return (double) (weight(i) - previous) / weight(to - 1);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Returns an infinite stream representing a random walk, using the
+     * specified random generator. The stream starts with a random element.
+     * 
+     * @param gen
+     *            the random generator to use
+     * @return an infinite stream
+     */
+    public Stream<T> stream(RandomGenerator gen) {
+        return stream(states.get(gen.nextInt(states.size())), gen);
+    }
+
+    /**
+     * Returns an infinite stream representing a random walk, using the
+     * specified random generator. The stream starts with the specified
+     * TokenSequence.
+     * 
+     * @param start
+     *            the starting TokenSequence
+     * @param gen
+     *            the random generator to use
+     * @return an infinite stream
+     * @throws IllegalArgumentException
+     *             if the sequence is unknown
+     */
+    public Stream<T> stream(TokenSequence<T> start, RandomGenerator gen) {
+        rowOf(start);
+        Stream<T> head = start.getTokens()
+                .stream();
+        Stream<T> tail = Stream.generate(new RandomSupplier(start, gen));
+        return Stream.concat(head, tail);
+    }
+
+    /**
+     * Returns an infinite stream representing a random walk. The stream
+     * starts with a random element.
+     * 
+     * @return an infinite stream
+     */
+    public Stream<T> stream() {
+        return stream(new DefaultRandomGenerator());
+    }
+
+    /**
+     * Returns the largest total variation distance between the quantized and
+     * the exact successors of any state. This bounds how much the probability
+     * of any event concerning a single transition differs from the exact chain.
+     * 
+     * @return the largest total variation distance of any state
+     */
+    public double getMaxError() {
+        return maxError;
+    }
+
+    /**
+     * Returns the total variation distance between the quantized and the
+     * exact successors of the states, weighted by how many transitions each
+     * state has.
+     * 
+     * @return the weighted mean total variation distance
+     */
+    public double getMeanError() {
+        return meanError;
+    }
+
+    /**
+     * Returns the number of bytes taken by the successors and their weights.
+     * 
+     * @return the size of the transition payload in bytes
+     */
+    public long getPayloadBytes() {
+        long weights = byteWeights != null ? byteWeights.length : 2L * shortWeights.length;
+        return 4L * successors.length + weights + 4L * offsets.length;
+    }
+
+    /**
+     * Returns the precision of the weights.
+     * 
+     * @return the precision of the weights
+     */
+    public Precision getPrecision() {
+        return precision;
+    }
+
+    /**
+     * Returns the order of the Markov chain.
+     * 
+     * @return the order of the Markov chain.
+     */
+    public int getOrder() {
+        return order;
+    }
+
+    private int rowOf(TokenSequence<T> state) {
+        Integer row = stateIndex.get(state);
+        if (row == null) {
+            throw new IllegalArgumentException("Unknown state " + state);
+        }
+        return row;
+    }
+
+    private class RandomSupplier implements Supplier<T> {
+
+        private TokenSequence<T> sequence;
+        private final RandomGenerator gen;
+
+        RandomSupplier(TokenSequence<T> sequence, RandomGenerator gen) {
+            this.sequence = sequence;
+            this.gen = gen;
+        }
+
+        @Override
+        public T get() {
+            T next = QuantizedMarkovChain.this.getNextRandomly(sequence, gen);
+            sequence = sequence.getNext(next);
+            return next;
+        }
+    }
+
+    private static class Builder<T> {
+
+        private final int order;
+        private final Precision precision;
+        private final Map<T, Integer> tokenIndex = new LinkedHashMap<>();
+        private final Map<TokenSequence<T>, Integer> stateIndex = new HashMap<>();
+        private final List<TokenSequence<T>> states = new ArrayList<>();
+        private final int[] offsets;
+        private int[] successors;
+        private byte[] byteWeights;
+        private short[] shortWeights;
+        private double maxError;
+        private double errorSum;
+        private double massSum;
+
+        Builder(MarkovChain<T> chain, Precision precision) {
+            this.order = chain.getOrder();
+            this.precision = precision;
+            Map<TokenSequence<T>, ProbabilityMapping<T>> matrix = chain.states();
+            int edges = 0;
+            for (ProbabilityMapping<T> mapping : matrix.values()) {
+                edges += mapping.counts()
+                        .size();
+            }
+            this.offsets = new int[matrix.size() + 1];
+            this.successors = new int[edges];
+            int[] weights = new int[edges];
+            int edge = 0;
+            for (Entry<TokenSequence<T>, ProbabilityMapping<T>> entry : matrix.entrySet()) {
+                int row = states.size();
+                states.add(entry.getKey());
+                stateIndex.put(entry.getKey(), row);
+                int quantized = quantize(entry.getValue(), edge, weights);
+                edge += quantized;
+                offsets[row + 1] = edge;
+            }
+            // Dropped successors leave the arrays longer than needed
+            successors = Arrays.copyOf(successors, edge);
+            if (precision == Precision.BYTE) {
+                byteWeights = new byte[edge];
+                for (int i = 0; i < edge; i++) {
+                    byteWeights[i] = (byte) weights[i];
+                }
+            } else {
+                shortWeights = new short[edge];
+                for (int i = 0; i < edge; i++) {
+                    shortWeights[i] = (short) weights[i];
+                }
+            }
+        }
+
+        /**
+         * Writes the successors and cumulative weights of the mapping from the
+         * specified position, measures the error and returns the number of
+         * successors kept.
+         */
+        private int quantize(ProbabilityMapping<T> mapping, int from, int[] cumulative) {
+            Map<T, Long> counts = mapping.counts();
+            int k = counts.size();
+            long total = mapping.getTotalValues();
+            int scale = (int) Math.min(total, precision.getScale());
+            Object[] keys = counts.keySet()
+                    .toArray();
+            long[] exact = new long[k];
+            int[] quantized = new int[k];
+            double[] remainders = new double[k];
+            int assigned = 0;
+            for (int i = 0; i < k; i++) {
+                exact[i] = counts.get(keys[i]);
+                double share = (double) exact[i] * scale / total;
+                quantized[i] = (int) share;
+                remainders[i] = share - quantized[i];
+                assigned += quantized[i];
+            }
+            // Largest remainder
+            Integer[] byRemainder = new Integer[k];
+            for (int i = 0; i < k; i++) {
+                byRemainder[i] = i;
+            }
+            Arrays.sort(byRemainder, (a, b) -> Double.compare(remainders[b], remainders[a]));
+            for (int i = 0; assigned < scale; i++) {
+                quantized[byRemainder[i]]++;
+                assigned++;
+            }
+            // Keep every successor if possible, taking from the heaviest
+            if (k <= scale) {
+                keepAll(quantized);
+            }
+            double error = 0;
+            int kept = 0;
+            int sum = 0;
+            for (int i = 0; i < k; i++) {
+                error += Math.abs((double) quantized[i] / scale - (double) exact[i] / total);
+                if (quantized[i] == 0) {
+                    continue;
+                }
+                @SuppressWarnings("unchecked")
+                T token = (T) keys[i];
+                Integer id = tokenIndex.get(token);
+                if (id == null) {
+                    id = tokenIndex.size();
+                    tokenIndex.put(token, id);
+                }
+                sum += quantized[i];
+                successors[from + kept] = id;
+                cumulative[from + kept] = sum;
+                kept++;
+            }
+            error /= 2;
+            maxError = Math.max(maxError, error);
+            errorSum += error * total;
+            massSum += total;
+            return kept;
+        }
+
+        private static void keepAll(int[] weights) {
+            int missing = 0;
+            PriorityQueue<Integer> heaviest = new PriorityQueue<>((a, b) -> Integer.compare(weights[b], weights[a]));
+            for (int i = 0; i < weights.length; i++) {
+                if (weights[i] == 0) {
+                    weights[i] = 1;
+                    missing++;
+                } else if (weights[i] > 1) {
+                    heaviest.add(i);
+                }
+            }
+            while (missing > 0) {
+                int i = heaviest.poll();
+                weights[i]--;
+                missing--;
+                if (weights[i] > 1) {
+                    heaviest.add(i);
+                }
+            }
+        }
+    }
+}
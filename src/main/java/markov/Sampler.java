@@ -0,0 +1,175 @@
+package markov;
+
+import markov.util.RandomGenerator;
+
+/**
+ * Controls how the next element is drawn from the successors of a state.
+ * Probabilities are first reweighted by the temperature, then truncated to the
+ * top-k most likely successors and finally to the smallest set of successors
+ * whose combined probability reaches top-p. The successors of every state are
+ * kept sorted, so truncation is a binary search and no sorting takes place
+ * while sampling.
+ * <p>
+ * Instances are immutable. The default sampler draws from the unaltered
+ * distribution, exactly like {@link ProbabilityMapping#getNextRandomly}.
+ */
+public final class Sampler {
+
+    private static final Sampler DEFAULT = new Sampler(1, Integer.MAX_VALUE, 1);
+
+    private final double temperature;
+    private final int topK;
+    private final double topP;
+
+    private Sampler(double temperature, int topK, double topP) {
+        this.temperature = temperature;
+        this.topK = topK;
+        this.topP = topP;
+    }
+
+    /**
+     * Returns a sampler which draws from the unaltered distribution.
+     * 
+     * @return a sampler which draws from the unaltered distribution
+     */
+    public static Sampler standard() {
+        return DEFAULT;
+    }
+
+    /**
+     * Returns a copy of this sampler using the specified temperature. A
+     * temperature below 1 favors likely elements, a temperature above 1
+     * flattens the distribution.
+     * 
+     * @param temperature
+     *            the temperature to use
+     * @return a copy of this sampler using the specified temperature
+     * @throws IllegalArgumentException
+     *             if the temperature is not positive and finite
+     */
+    public Sampler withTemperature(double temperature) {
+        if (!(temperature > 0) || Double.isInfinite(temperature)) {
+            throw new IllegalArgumentException("Temperature must be positive and finite: " + temperature);
+        }
+        return new Sampler(temperature, topK, topP);
+    }
+
+    /**
+     * Returns a copy of this sampler which only draws from the <em>k</em>
+     * most likely elements.
+     * 
+     * @param k
+     *            the number of elements to draw from
+     * @return a copy of this sampler using the specified truncation
+     * @throws IllegalArgumentException
+     *             if k < 1
+     */
+    public Sampler withTopK(int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be positive");
+        }
+        return new Sampler(temperature, k, topP);
+    }
+
+    /**
+     * Returns a copy of this sampler which only draws from the smallest set of
+     * most likely elements whose combined probability is at least <em>p</em>,
+     * also known as nucleus sampling.
+     * 
+     * @param p
+     *            the probability mass to draw from
+     * @return a copy of this sampler using the specified truncation
+     * @throws IllegalArgumentException
+     *             if p is not in (0, 1]
+     */
+    public Sampler withTopP(double p) {
+        if (!(p > 0 && p <= 1)) {
+            throw new IllegalArgumentException("p must be in (0, 1]: " + p);
+        }
+        return new Sampler(temperature, topK, p);
+    }
+
+    /**
+     * Returns the temperature of this sampler.
+     * 
+     * @return the temperature of this sampler
+     */
+    public double getTemperature() {
+        return temperature;
+    }
+
+    /**
+     * Returns the maximum number of elements drawn from, Integer.MAX_VALUE if
+     * unlimited.
+     * 
+     * @return the maximum number of elements drawn from
+     */
+    public int getTopK() {
+        return topK;
+    }
+
+    /**
+     * Returns the probability mass drawn from.
+     * 
+     * @return the probability mass drawn from
+     */
+    public double getTopP() {
+        return topP;
+    }
+
+    /**
+     * Draws an element from the specified mapping.
+     * 
+     * @param mapping
+     *            the mapping to draw from
+     * @param gen
+     *            the random generator to use
+     * @throws IllegalStateException
+     *             if the map is empty
+     * @return the drawn element
+     */
+    public <T> T sample(ProbabilityMapping<T> mapping, RandomGenerator gen) {
+        if (temperature == 1 && topK == Integer.MAX_VALUE && topP == 1) {
+            return mapping.getNextRandomly(gen);
+        }
+        SuccessorIndex<T> index = mapping.getSuccessorIndex();
+        int limit = Math.min(index.size(), topK);
+        if (limit == 0) {
+            throw new IllegalStateException("Values must be added to the map before one can be chosen");
+        }
+        if (temperature == 1) {
+            if (topP < 1) {
+                long threshold = (long) Math.ceil(topP * index.cumulative(limit - 1));
+                limit = Math.min(limit, index.search(threshold - 1, limit) + 1);
+            }
+            long value = gen.nextLong(index.cumulative(limit - 1));
+            return index.token(index.search(value, limit));
+        }
+        double[] weights = index.tempered(temperature);
+        if (topP < 1) {
+            double threshold = topP * weights[limit - 1];
+            limit = Math.min(limit, firstAtLeast(weights, threshold, limit) + 1);
+        }
+        double value = gen.nextDouble() * weights[limit - 1];
+        return index.token(Math.min(limit - 1, SuccessorIndex.search(weights, value, limit)));
+    }
+
+    private static int firstAtLeast(double[] weights, double threshold, int limit) {
+        int low = 0;
+        int high = limit;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (weights[mid] >= threshold) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    @Override
+    public String toString() {
+        return "Sampler[temperature=" + temperature + ", topK=" + topK + ", topP=" + topP + "]";
+    }
+}
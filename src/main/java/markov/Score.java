@@ -0,0 +1,89 @@
+package markov;
+
+public final class Score {
+
+    private final double logProbability;
+    private final long transitions;
+    private final long unseenContexts;
+    private final long unseenTransitions;
+
+    Score(double logProbability, long transitions, long unseenContexts, long unseenTransitions) {
+        this.logProbability = logProbability;
+        this.transitions = transitions;
+        this.unseenContexts = unseenContexts;
+        this.unseenTransitions = unseenTransitions;
+    }
+
+    /**
+     * Returns the natural logarithm of the probability of all scored
+     * transitions.
+     * 
+     * @return the total log-probability
+     */
+    public double getLogProbability() {
+        return logProbability;
+    }
+
+    /**
+     * Returns the number of scored transitions, including penalized but not
+     * skipped ones.
+     * 
+     * @return the number of scored transitions
+     */
+    public long getTransitions() {
+        return transitions;
+    }
+
+    /**
+     * Returns the number of transitions whose preceding sequence was not part
+     * of the chain.
+     * 
+     * @return the number of transitions with an unseen context
+     */
+    public long getUnseenContexts() {
+        return unseenContexts;
+    }
+
+    /**
+     * Returns the number of transitions whose preceding sequence was part of
+     * the chain, but never followed by the scored token.
+     * 
+     * @return the number of unseen transitions
+     */
+    public long getUnseenTransitions() {
+        return unseenTransitions;
+    }
+
+    /**
+     * Returns the perplexity, the inverse of the geometric mean of the
+     * probabilities of the scored transitions. Lower is more likely.
+     * 
+     * @return the perplexity, or NaN if no transitions were scored
+     */
+    public double getPerplexity() {
+        if (transitions == 0) {
+            return Double.NaN;
+        }
+        return Math.exp(-logProbability / transitions);
+    }
+
+    /**
+     * Returns the score of the concatenation of the transitions scored by this
+     * and the specified score.
+     * 
+     * @param other
+     *            the score to be combined with this
+     * @return the combined score
+     */
+    public Score combine(Score other) {
+        return new Score(logProbability + other.logProbability, transitions + other.transitions,
+                unseenContexts + other.unseenContexts, unseenTransitions + other.unseenTransitions);
+    }
+
+    @Override
+    public String toString() {
+        return "Score[logProbability=" + logProbability + ", perplexity=" + getPerplexity() + ", transitions="
+                + transitions + ", unseenContexts=" + unseenContexts + ", unseenTransitions=" + unseenTransitions
+                + "]";
+    }
+}
@@ -0,0 +1,213 @@
+package markov;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Computes how likely a sequence of tokens is according to a Markov chain.
+ * Every token preceded by at least <em>order</em> tokens is scored by the
+ * probability of it following them. Unlike training, the input is not
+ * considered circular.
+ * <p>
+ * Instances are immutable and may be shared between threads.
+ */
+public final class Scorer<T> {
+
+    /**
+     * How to score a transition the chain knows nothing about.
+     */
+    public enum Unseen {
+        /**
+         * The transition is left out of the score.
+         */
+        SKIP,
+        /**
+         * The transition is scored with the penalty of the scorer.
+         */
+        PENALIZE,
+        /**
+         * Scoring fails with an IllegalArgumentException.
+         */
+        FAIL
+    }
+
+    private static final double DEFAULT_PENALTY = Math.log(1e-6);
+    private static final int MIN_CHUNK_SIZE = 1 << 16;
+
+    private final MarkovChain<T> chain;
+    private final Unseen unseenContext;
+    private final Unseen unseenTransition;
+    private final double penalty;
+
+    /**
+     * Constructs a scorer over the specified chain. Unseen contexts and
+     * transitions are penalized with a log-probability of log(1e-6).
+     * 
+     * @param chain
+     *            the chain to score with
+     */
+    public Scorer(MarkovChain<T> chain) {
+        this(chain, Unseen.PENALIZE, Unseen.PENALIZE, DEFAULT_PENALTY);
+    }
+
+    private Scorer(MarkovChain<T> chain, Unseen unseenContext, Unseen unseenTransition, double penalty) {
+        this.chain = chain;
+        this.unseenContext = unseenContext;
+        this.unseenTransition = unseenTransition;
+        this.penalty = penalty;
+    }
+
+    /**
+     * Returns a copy of this scorer handling tokens preceded by an unknown
+     * sequence as specified.
+     * 
+     * @param unseen
+     *            how to handle unknown sequences
+     * @return a copy of this scorer
+     */
+    public Scorer<T> withUnseenContext(Unseen unseen) {
+        return new Scorer<>(chain, unseen, unseenTransition, penalty);
+    }
+
+    /**
+     * Returns a copy of this scorer handling known sequences followed by an
+     * unknown token as specified.
+     * 
+     * @param unseen
+     *            how to handle unknown transitions
+     * @return a copy of this scorer
+     */
+    public Scorer<T> withUnseenTransition(Unseen unseen) {
+        return new Scorer<>(chain, unseenContext, unseen, penalty);
+    }
+
+    /**
+     * Returns a copy of this scorer using the specified log-probability for
+     * penalized transitions.
+     * 
+     * @param logProbability
+     *            the log-probability of a penalized transition
+     * @return a copy of this scorer
+     * @throws IllegalArgumentException
+     *             if the log-probability is positive or NaN
+     */
+    public Scorer<T> withPenalty(double logProbability) {
+        if (!(logProbability <= 0)) {
+            throw new IllegalArgumentException("A log-probability may not be positive: " + logProbability);
+        }
+        return new Scorer<>(chain, unseenContext, unseenTransition, logProbability);
+    }
+
+    /**
+     * Scores the specified tokens in a single pass, without holding more than
+     * <em>order</em> tokens at a time.
+     * 
+     * @param source
+     *            the tokens to be scored
+     * @return the score of the tokens
+     * @throws IllegalArgumentException
+     *             if an unseen context or transition is found and the scorer
+     *             is configured to fail on it
+     */
+    public Score score(Stream<T> source) {
+        Accumulator accumulator = new Accumulator();
+        source.sequential()
+                .spliterator()
+                .forEachRemaining(accumulator);
+        return accumulator.toScore();
+    }
+
+    /**
+     * Scores the specified tokens in parallel. The tokens are split in chunks
+     * at window boundaries, each chunk looking back <em>order</em> tokens into
+     * the previous one, so the score equals that of {@link #score(Stream)} up
+     * to floating point rounding.
+     * 
+     * @param tokens
+     *            the tokens to be scored
+     * @return the score of the tokens
+     * @throws IllegalArgumentException
+     *             if an unseen context or transition is found and the scorer
+     *             is configured to fail on it
+     */
+    public Score scoreParallel(List<T> tokens) {
+        List<T> source = tokens instanceof RandomAccess ? tokens : new ArrayList<>(tokens);
+        int order = chain.getOrder();
+        int transitions = Math.max(0, source.size() - order);
+        int chunks = Math.max(1, Math.min(transitions / MIN_CHUNK_SIZE,
+                Runtime.getRuntime()
+                        .availableProcessors() * 4));
+        int chunkSize = (transitions + chunks - 1) / chunks;
+        return IntStream.range(0, chunks)
+                .parallel()
+                .mapToObj(chunk -> {
+                    int from = chunk * chunkSize;
+                    int to = Math.min(source.size(), Math.min(transitions, from + chunkSize) + order);
+                    Accumulator accumulator = new Accumulator();
+                    for (int i = from; i < to; i++) {
+                        accumulator.accept(source.get(i));
+                    }
+                    return accumulator.toScore();
+                })
+                .reduce(Score::combine)
+                .get();
+    }
+
+    private class Accumulator implements Consumer<T> {
+
+        private final int order = chain.getOrder();
+        private final List<T> head = new ArrayList<>(order);
+        private TokenSequence<T> context;
+        private double logProbability;
+        private long transitions;
+        private long unseenContexts;
+        private long unseenTransitions;
+
+        @Override
+        public void accept(T token) {
+            if (context == null) {
+                head.add(token);
+                if (head.size() == order) {
+                    context = new TokenSequence<>(head);
+                }
+                return;
+            }
+            ProbabilityMapping<T> mapping = chain.get(context);
+            if (mapping == null) {
+                unseenContexts++;
+                unseen(unseenContext, "Unseen context: " + context);
+            } else {
+                Long count = mapping.get(token);
+                if (count == null) {
+                    unseenTransitions++;
+                    unseen(unseenTransition, "Unseen transition: " + context + " -> " + token);
+                } else {
+                    logProbability += Math.log((double) count / mapping.getTotalValues());
+                    transitions++;
+                }
+            }
+            context = context.getNext(token);
+        }
+
+        private void unseen(Unseen handling, String message) {
+            switch (handling) {
+            case PENALIZE:
+                logProbability += penalty;
+                transitions++;
+                break;
+            case FAIL:
+                throw new IllegalArgumentException(message);
+            default:
+                break;
+            }
+        }
+
+        Score toScore() {
+            return new Score(logProbability, transitions, unseenContexts, unseenTransitions);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package markov;
+
+/**
+ * How much the successors of a single state differ between two chains, see
+ * {@link ChainComparison}.
+ */
+public final class StateDivergence<T> {
+
+    private final TokenSequence<T> state;
+    private final double klDivergence;
+    private final double jsDivergence;
+    private final long beforeCount;
+    private final long afterCount;
+
+    StateDivergence(TokenSequence<T> state, double klDivergence, double jsDivergence, long beforeCount,
+            long afterCount) {
+        this.state = state;
+        this.klDivergence = klDivergence;
+        this.jsDivergence = jsDivergence;
+        this.beforeCount = beforeCount;
+        this.afterCount = afterCount;
+    }
+
+    /**
+     * Returns the compared state.
+     * 
+     * @return the compared state
+     */
+    public TokenSequence<T> getState() {
+        return state;
+    }
+
+    /**
+     * Returns the Kullback-Leibler divergence of the successors after from the
+     * successors before, in nats, computed on smoothed counts.
+     * 
+     * @return the Kullback-Leibler divergence
+     */
+    public double getKlDivergence() {
+        return klDivergence;
+    }
+
+    /**
+     * Returns the Jensen-Shannon divergence between the successors before and
+     * after, in nats. It lies between 0 and ln 2.
+     * 
+     * @return the Jensen-Shannon divergence
+     */
+    public double getJsDivergence() {
+        return jsDivergence;
+    }
+
+    /**
+     * Returns the number of transitions from this state in the chain before.
+     * 
+     * @return the number of transitions before
+     */
+    public long getBeforeCount() {
+        return beforeCount;
+    }
+
+    /**
+     * Returns the number of transitions from this state in the chain after.
+     * 
+     * @return the number of transitions after
+     */
+    public long getAfterCount() {
+        return afterCount;
+    }
+
+    @Override
+    public String toString() {
+        return state + " KL=" + klDivergence + " JS=" + jsDivergence;
+    }
+}
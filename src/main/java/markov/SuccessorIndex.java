@@ -0,0 +1,142 @@
+package markov;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * The successors of a single state, sorted by descending count. The order of
+ * successors with equal counts is unspecified. Instances are immutable and
+ * built on demand by {@link ProbabilityMapping}, which discards its index
+ * whenever it is modified.
+ */
+final class SuccessorIndex<T> {
+
+    private final Object[] tokens;
+    private final long[] counts;
+    private final long[] cumulative;
+    private final List<T> ranked;
+    private volatile Tempered tempered;
+
+    @SuppressWarnings("unchecked")
+    SuccessorIndex(Map<T, Long> counter) {
+        List<Entry<T, Long>> entries = new ArrayList<>(counter.entrySet());
+        entries.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        this.tokens = new Object[entries.size()];
+        this.counts = new long[entries.size()];
+        this.cumulative = new long[entries.size()];
+        long sum = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            tokens[i] = entries.get(i)
+                    .getKey();
+            counts[i] = entries.get(i)
+                    .getValue();
+            sum += counts[i];
+            cumulative[i] = sum;
+        }
+        this.ranked = Collections.unmodifiableList(Arrays.asList((T[]) tokens));
+    }
+
+    int size() {
+        return tokens.length;
+    }
+
+    @SuppressWarnings("unchecked")
+    T token(int rank) {
+        return (T) tokens[rank];
+    }
+
+    long count(int rank) {
+        return counts[rank];
+    }
+
+    /**
+     * Returns the sum of the counts of the successors ranked 0 up to and
+     * including the specified rank.
+     */
+    long cumulative(int rank) {
+        return cumulative[rank];
+    }
+
+    long total() {
+        return cumulative.length == 0 ? 0 : cumulative[cumulative.length - 1];
+    }
+
+    /**
+     * Returns the rank of the first successor whose cumulative count exceeds
+     * the specified value, searching only the specified number of top ranks.
+     * Returns limit if there is no such successor.
+     */
+    int search(long value, int limit) {
+        int low = 0;
+        int high = limit;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (cumulative[mid] > value) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the cumulative weights of the successors after reweighting their
+     * probabilities with the specified temperature. The weights of the most
+     * recently used temperature are cached.
+     */
+    double[] tempered(double temperature) {
+        Tempered current = tempered;
+        if (current == null || current.temperature != temperature) {
+            current = new Tempered(temperature, counts);
+            tempered = current;
+        }
+        return current.cumulative;
+    }
+
+    /**
+     * Same as {@link #search(long, int)}, but for tempered weights.
+     */
+    static int search(double[] weights, double value, int limit) {
+        int low = 0;
+        int high = limit;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (weights[mid] > value) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the at most k most frequent successors, as an unmodifiable view.
+     */
+    List<T> topK(int k) {
+        return ranked.subList(0, Math.min(k, tokens.length));
+    }
+
+    private static final class Tempered {
+
+        private final double temperature;
+        private final double[] cumulative;
+
+        Tempered(double temperature, long[] counts) {
+            this.temperature = temperature;
+            this.cumulative = new double[counts.length];
+            // Scaled by the largest count so that low temperatures do not
+            // overflow
+            double sum = 0;
+            for (int i = 0; i < counts.length; i++) {
+                sum += Math.pow((double) counts[i] / counts[0], 1 / temperature);
+                cumulative[i] = sum;
+            }
+        }
+    }
+}
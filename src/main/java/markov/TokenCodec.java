@@ -0,0 +1,81 @@
+package markov;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes and reads tokens of a {@link ModelArchive}. Every distinct token is
+ * written once, in the dictionary of the archive.
+ */
+public interface TokenCodec<T> {
+
+    /**
+     * Writes the specified token.
+     * 
+     * @param out
+     *            the output to write to
+     * @param token
+     *            the token to write
+     * @throws IOException
+     *             if the token could not be written
+     */
+    void write(DataOutput out, T token) throws IOException;
+
+    /**
+     * Reads a token written by {@link #write(DataOutput, Object)}.
+     * 
+     * @param in
+     *            the input to read from
+     * @return the token read
+     * @throws IOException
+     *             if the token could not be read
+     */
+    T read(DataInput in) throws IOException;
+
+    /**
+     * Returns a codec of strings, writing the length and the UTF-8 bytes of
+     * each string.
+     * 
+     * @return a codec of strings
+     */
+    static TokenCodec<String> strings() {
+        return new TokenCodec<String>() {
+
+            @Override
+            public void write(DataOutput out, String token) throws IOException {
+                byte[] bytes = token.getBytes(StandardCharsets.UTF_8);
+                Varints.write(out, bytes.length);
+                out.write(bytes);
+            }
+
+            @Override
+            public String read(DataInput in) throws IOException {
+                byte[] bytes = new byte[Varints.readInt(in)];
+                in.readFully(bytes);
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+        };
+    }
+
+    /**
+     * Returns a codec of integers, writing each as a zig-zag encoded varint.
+     * 
+     * @return a codec of integers
+     */
+    static TokenCodec<Integer> integers() {
+        return new TokenCodec<Integer>() {
+
+            @Override
+            public void write(DataOutput out, Integer token) throws IOException {
+                Varints.write(out, Varints.zigZag(token));
+            }
+
+            @Override
+            public Integer read(DataInput in) throws IOException {
+                return (int) Varints.unZigZag(Varints.read(in));
+            }
+        };
+    }
+}
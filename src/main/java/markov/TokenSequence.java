@@ -1,13 +1,20 @@
 package markov;
 
+import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.NoSuchElementException;
 
-public class TokenSequence<T> {
+public class TokenSequence<T> implements Serializable {
 
-    private final LinkedList<T> tokens;
+    private static final long serialVersionUID = 1L;
+
+    private final Object[] tokens;
+    // Cached since sequences are used as keys on every lookup. Transient, as
+    // the hash codes of the tokens may differ in another JVM
+    private transient int hash;
 
     /**
      * Constructs a new TokenSequence with the specified array.
@@ -27,13 +34,16 @@ public class TokenSequence<T> {
      *            the collection to build the sequence with
      */
     public TokenSequence(Collection<T> key) {
-        tokens = new LinkedList<>(key);
+        tokens = key.toArray();
     }
 
-    private TokenSequence(Collection<T> key, T next) {
-        this(key);
-        tokens.removeFirst();
-        tokens.addLast(next);
+    private TokenSequence(Object[] previous, T next) {
+        if (previous.length == 0) {
+            throw new NoSuchElementException("Cannot shift an empty sequence");
+        }
+        tokens = new Object[previous.length];
+        System.arraycopy(previous, 1, tokens, 0, previous.length - 1);
+        tokens[tokens.length - 1] = next;
     }
 
     /**
@@ -55,13 +65,46 @@ public class TokenSequence<T> {
      * 
      * @return a list of tokens
      */
+    @SuppressWarnings("unchecked")
     public List<T> getTokens() {
-        return new LinkedList<>(tokens);
+        return new ArrayList<>((List<T>) Arrays.asList(tokens));
+    }
+
+    /**
+     * Returns the number of tokens in this sequence.
+     * 
+     * @return the number of tokens in this sequence
+     */
+    public int size() {
+        return tokens.length;
+    }
+
+    /**
+     * Returns the token at the specified position.
+     * 
+     * @param index
+     *            the position of the token
+     * @return the token at the specified position
+     * @throws IndexOutOfBoundsException
+     *             if the index is out of range
+     */
+    @SuppressWarnings("unchecked")
+    public T get(int index) {
+        if (index < 0 || index >= tokens.length) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + tokens.length);
+        }
+        return (T) tokens[index];
     }
 
     @Override
     public int hashCode() {
-        return tokens.hashCode();
+        int h = hash;
+        if (h == 0) {
+            // Same as the hash code of a list of the tokens
+            h = Arrays.hashCode(tokens);
+            hash = h;
+        }
+        return h;
     }
 
     @Override
@@ -76,18 +119,11 @@ public class TokenSequence<T> {
             return false;
         }
         TokenSequence<?> other = (TokenSequence<?>) obj;
-        if (tokens == null) {
-            if (other.tokens != null) {
-                return false;
-            }
-        } else if (!tokens.equals(other.tokens)) {
-            return false;
-        }
-        return true;
+        return hashCode() == other.hashCode() && Arrays.equals(tokens, other.tokens);
     }
 
     @Override
     public String toString() {
-        return tokens.toString();
+        return Arrays.toString(tokens);
     }
 }
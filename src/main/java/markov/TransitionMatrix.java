@@ -0,0 +1,337 @@
+package markov;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * The transition probabilities between the states of a {@link MarkovChain},
+ * as a sparse matrix for computing long-run and multi-step distributions. The
+ * matrix is stored transposed, in compressed sparse row form, so that row
+ * <em>j</em> lists the states leading to state <em>j</em>. Multiplying a
+ * distribution with the matrix then computes every entry independently, and
+ * the entries are partitioned across a fork-join pool. Distributions are
+ * plain arrays indexed like {@link #getStates()}.
+ * <p>
+ * A transition into a sequence which is not a state of the chain, which can
+ * only happen for chains built from other chains, loses its probability.
+ * Instances are immutable.
+ */
+public class TransitionMatrix<T> {
+
+    // Rows per task when multiplying
+    private static final int THRESHOLD = 1 << 13;
+    // The probability of staying put in the lazy walk used for the stationary
+    // distribution
+    private static final double LAZINESS = 0.5;
+
+    private final List<TokenSequence<T>> states;
+    private final Map<TokenSequence<T>, Integer> stateIndex;
+    // Incoming transitions of state j are sources[offsets[j]] to
+    // sources[offsets[j + 1] - 1], with their probabilities
+    private final int[] offsets;
+    private final int[] sources;
+    private final double[] probabilities;
+    private final ForkJoinPool pool;
+
+    private TransitionMatrix(List<TokenSequence<T>> states, Map<TokenSequence<T>, Integer> stateIndex,
+            int[] offsets, int[] sources, double[] probabilities, ForkJoinPool pool) {
+        this.states = states;
+        this.stateIndex = stateIndex;
+        this.offsets = offsets;
+        this.sources = sources;
+        this.probabilities = probabilities;
+        this.pool = pool;
+    }
+
+    /**
+     * Builds the transition matrix of the specified chain, computing on the
+     * common fork-join pool.
+     * 
+     * @param chain
+     *            the chain
+     * @return the transition matrix of the chain
+     */
+    public static <T> TransitionMatrix<T> of(MarkovChain<T> chain) {
+        return of(chain, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Builds the transition matrix of the specified chain, computing on the
+     * specified fork-join pool.
+     * 
+     * @param chain
+     *            the chain
+     * @param pool
+     *            the pool to compute on
+     * @return the transition matrix of the chain
+     */
+    public static <T> TransitionMatrix<T> of(MarkovChain<T> chain, ForkJoinPool pool) {
+        // Views, the chain is read without copying its states or counts
+        Map<TokenSequence<T>, ProbabilityMapping<T>> matrix = chain.states();
+        List<TokenSequence<T>> states = new ArrayList<>(matrix.keySet());
+        Map<TokenSequence<T>, Integer> stateIndex = new HashMap<>(states.size() * 2);
+        for (int i = 0; i < states.size(); i++) {
+            stateIndex.put(states.get(i), i);
+        }
+        int edges = matrix.values()
+                .stream()
+                .mapToInt(mapping -> mapping.counts()
+                        .size())
+                .sum();
+        // Collect every transition, then sort them by target
+        int[] from = new int[edges];
+        int[] to = new int[edges];
+        double[] weights = new double[edges];
+        int[] offsets = new int[states.size() + 1];
+        int edge = 0;
+        for (int i = 0; i < states.size(); i++) {
+            TokenSequence<T> state = states.get(i);
+            ProbabilityMapping<T> mapping = matrix.get(state);
+            double total = mapping.getTotalValues();
+            for (Entry<T, Long> entry : mapping.counts()
+                    .entrySet()) {
+                Integer target = stateIndex.get(state.getNext(entry.getKey()));
+                if (target == null) {
+                    continue;
+                }
+                from[edge] = i;
+                to[edge] = target;
+                weights[edge] = entry.getValue() / total;
+                offsets[target + 1]++;
+                edge++;
+            }
+        }
+        for (int j = 0; j < states.size(); j++) {
+            offsets[j + 1] += offsets[j];
+        }
+        int[] next = offsets.clone();
+        int[] sources = new int[edge];
+        double[] probabilities = new double[edge];
+        for (int e = 0; e < edge; e++) {
+            int position = next[to[e]]++;
+            sources[position] = from[e];
+            probabilities[position] = weights[e];
+        }
+        return new TransitionMatrix<>(states, stateIndex, offsets, sources, probabilities, pool);
+    }
+
+    /**
+     * Returns the distribution after taking the specified number of steps from
+     * the specified distribution.
+     * 
+     * @param distribution
+     *            the probability of being in each state
+     * @param steps
+     *            the number of steps to take
+     * @return a new array with the probability of being in each state after
+     *         the steps
+     * @throws IllegalArgumentException
+     *             if the length of the distribution does not match the number
+     *             of states, or if steps < 0
+     */
+    public double[] step(double[] distribution, int steps) {
+        if (distribution.length != states.size()) {
+            throw new IllegalArgumentException("The distribution must have one entry per state");
+        }
+        if (steps < 0) {
+            throw new IllegalArgumentException("Steps may not be negative");
+        }
+        double[] current = distribution.clone();
+        double[] next = new double[current.length];
+        for (int i = 0; i < steps; i++) {
+            multiply(current, next, 0);
+            double[] swap = current;
+            current = next;
+            next = swap;
+        }
+        return current;
+    }
+
+    /**
+     * Returns the probability of being in each state after taking the
+     * specified number of steps from the specified state.
+     * 
+     * @param start
+     *            the starting state
+     * @param steps
+     *            the number of steps to take
+     * @return a new array with the probability of being in each state after
+     *         the steps
+     * @throws IllegalArgumentException
+     *             if the state is unknown, or if steps < 0
+     */
+    public double[] step(TokenSequence<T> start, int steps) {
+        Integer index = stateIndex.get(start);
+        if (index == null) {
+            throw new IllegalArgumentException("Unknown state " + start);
+        }
+        double[] distribution = new double[states.size()];
+        distribution[index] = 1;
+        return step(distribution, steps);
+    }
+
+    /**
+     * Computes the stationary distribution by power iteration, that is, the
+     * long-run probability of being in each state. The iteration follows a
+     * lazy walk, which stays put half of the time. The lazy walk has the same
+     * stationary distribution, but also converges for periodic chains, such as
+     * those trained on a single circular text.
+     * <p>
+     * For chains which are not irreducible, the result depends on the uniform
+     * starting distribution.
+     * 
+     * @param tolerance
+     *            the largest change between two iterations, in L1 norm, for
+     *            the iteration to be considered converged
+     * @param maxIterations
+     *            the largest number of iterations
+     * @return a new array with the probability of being in each state
+     * @throws IllegalArgumentException
+     *             if tolerance <= 0 or maxIterations < 1
+     * @throws IllegalStateException
+     *             if the iteration did not converge
+     */
+    public double[] stationaryDistribution(double tolerance, int maxIterations) {
+        if (!(tolerance > 0) || maxIterations < 1) {
+            throw new IllegalArgumentException("Tolerance and the number of iterations must be positive");
+        }
+        int n = states.size();
+        double[] current = new double[n];
+        if (n == 0) {
+            return current;
+        }
+        Arrays.fill(current, 1.0 / n);
+        double[] next = new double[n];
+        for (int i = 0; i < maxIterations; i++) {
+            double change = multiply(current, next, LAZINESS);
+            double[] swap = current;
+            current = next;
+            next = swap;
+            if (change < tolerance) {
+                return normalize(current);
+            }
+        }
+        throw new IllegalStateException("Did not converge within " + maxIterations + " iterations");
+    }
+
+    /**
+     * Computes the long-run frequency of every token, that is, the sum of the
+     * stationary probabilities of the states ending with that token.
+     * 
+     * @param tolerance
+     *            the largest change between two iterations, in L1 norm
+     * @param maxIterations
+     *            the largest number of iterations
+     * @return the long-run frequency of every token
+     * @throws IllegalStateException
+     *             if the iteration did not converge
+     * @see #stationaryDistribution(double, int)
+     */
+    public Map<T, Double> tokenFrequencies(double tolerance, int maxIterations) {
+        double[] distribution = stationaryDistribution(tolerance, maxIterations);
+        Map<T, Double> frequencies = new HashMap<>();
+        for (int i = 0; i < distribution.length; i++) {
+            TokenSequence<T> state = states.get(i);
+            frequencies.merge(state.get(state.size() - 1), distribution[i], Double::sum);
+        }
+        return frequencies;
+    }
+
+    private static double[] normalize(double[] distribution) {
+        double sum = 0;
+        for (double p : distribution) {
+            sum += p;
+        }
+        if (sum > 0) {
+            for (int i = 0; i < distribution.length; i++) {
+                distribution[i] /= sum;
+            }
+        }
+        return distribution;
+    }
+
+    /**
+     * Computes next = laziness * current + (1 - laziness) * current * P and
+     * returns the L1 norm of the change.
+     */
+    private double multiply(double[] current, double[] next, double laziness) {
+        return pool.invoke(new Multiply(current, next, laziness, 0, current.length));
+    }
+
+    /**
+     * Returns the states of the chain, in the order of the distributions.
+     * 
+     * @return an unmodifiable list of states
+     */
+    public List<TokenSequence<T>> getStates() {
+        return Collections.unmodifiableList(states);
+    }
+
+    /**
+     * Returns the index of the specified state in the distributions.
+     * 
+     * @param state
+     *            the state
+     * @return the index of the state, or -1 if it is unknown
+     */
+    public int indexOf(TokenSequence<T> state) {
+        return stateIndex.getOrDefault(state, -1);
+    }
+
+    /**
+     * Returns the number of non-zero transitions.
+     * 
+     * @return the number of non-zero transitions
+     */
+    public int getTransitionCount() {
+        return sources.length;
+    }
+
+    private class Multiply extends RecursiveTask<Double> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final double[] current;
+        private final double[] next;
+        private final double laziness;
+        private final int from;
+        private final int to;
+
+        Multiply(double[] current, double[] next, double laziness, int from, int to) {
+            this.current = current;
+            this.next = next;
+            this.laziness = laziness;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Double compute() {
+            if (to - from <= THRESHOLD) {
+                double change = 0;
+                for (int j = from; j < to; j++) {
+                    double sum = 0;
+                    for (int e = offsets[j]; e < offsets[j + 1]; e++) {
+                        sum += current[sources[e]] * probabilities[e];
+                    }
+                    double value = laziness * current[j] + (1 - laziness) * sum;
+                    change += Math.abs(value - current[j]);
+                    next[j] = value;
+                }
+                return change;
+            }
+            int middle = (from + to) >>> 1;
+            Multiply left = new Multiply(current, next, laziness, from, middle);
+            left.fork();
+            double right = new Multiply(current, next, laziness, middle, to).compute();
+            return left.join() + right;
+        }
+    }
+}
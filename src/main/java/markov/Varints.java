@@ -0,0 +1,56 @@
+package markov;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Variable length encoding of non-negative integers, seven bits per byte with
+ * the high bit marking that more bytes follow. Small values take a single
+ * byte.
+ */
+final class Varints {
+
+    private Varints() {
+    }
+
+    static void write(DataOutput out, long value) throws IOException {
+        if (value < 0) {
+            throw new IllegalArgumentException("Cannot encode negative value " + value);
+        }
+        while ((value & ~0x7fL) != 0) {
+            out.writeByte((int) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long read(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+
+    static int readInt(DataInput in) throws IOException {
+        long value = read(in);
+        if (value > Integer.MAX_VALUE) {
+            throw new IOException("Varint out of range: " + value);
+        }
+        return (int) value;
+    }
+
+    // Maps signed values to unsigned ones, small magnitudes to small values
+    static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,183 @@
+package markov.indexed;
+
+import java.util.Arrays;
+
+import markov.util.DefaultRandomGenerator;
+import markov.util.RandomGenerator;
+
+/**
+ * A byte-level Markov chain, over all 256 byte values or a smaller alphabet.
+ * Bytes are mapped to the symbols of an {@link IndexedMarkovChain} through a
+ * lookup table, so no byte is ever boxed or hashed. Note that the full
+ * alphabet needs 256<sup><em>order</em> + 1</sup> counts, which limits it to
+ * orders 1 and 2.
+ */
+public class ByteMarkovChain {
+
+    private final byte[] alphabet;
+    // Maps an unsigned byte to its symbol, or -1 if not in the alphabet
+    private final int[] symbols = new int[256];
+    private final IndexedMarkovChain chain;
+
+    /**
+     * Constructs a new, empty, Markov chain over all 256 byte values.
+     * 
+     * @param order
+     *            the order of the Markov chain
+     * @throws IllegalArgumentException
+     *             if order < 1 or order > 2
+     */
+    public ByteMarkovChain(int order) {
+        this(allBytes(), order);
+    }
+
+    /**
+     * Constructs a new, empty, Markov chain over the distinct bytes of the
+     * specified alphabet.
+     * 
+     * @param alphabet
+     *            the bytes which may occur
+     * @param order
+     *            the order of the Markov chain
+     * @throws IllegalArgumentException
+     *             if the alphabet is empty, if order < 1 or if the alphabet is
+     *             too large for the order, see {@link IndexedMarkovChain}
+     */
+    public ByteMarkovChain(byte[] alphabet, int order) {
+        Arrays.fill(symbols, -1);
+        byte[] distinct = new byte[alphabet.length];
+        int size = 0;
+        for (byte b : alphabet) {
+            if (symbols[b & 0xff] < 0) {
+                symbols[b & 0xff] = size;
+                distinct[size++] = b;
+            }
+        }
+        this.alphabet = Arrays.copyOf(distinct, size);
+        this.chain = new IndexedMarkovChain(size, order);
+    }
+
+    private static byte[] allBytes() {
+        byte[] bytes = new byte[256];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+        }
+        return bytes;
+    }
+
+    /**
+     * Trains on the specified bytes, which are considered to be circular, see
+     * {@link IndexedMarkovChain#add(int[])}.
+     * 
+     * @param bytes
+     *            the bytes to train on
+     * @throws IllegalArgumentException
+     *             if a byte is not in the alphabet
+     */
+    public void add(byte[] bytes) {
+        chain.add(encode(bytes));
+    }
+
+    /**
+     * Returns a random byte to follow the specified context.
+     * 
+     * @param context
+     *            exactly <em>order</em> preceding bytes
+     * @param gen
+     *            the random generator to use
+     * @return the next byte
+     * @throws IllegalArgumentException
+     *             if the context has never been seen
+     */
+    public byte getNextRandomly(byte[] context, RandomGenerator gen) {
+        return alphabet[chain.getNextRandomly(chain.contextOf(encode(context)), gen)];
+    }
+
+    /**
+     * Generates random bytes starting with a random context.
+     * 
+     * @param length
+     *            the number of bytes, including the starting context
+     * @return the generated bytes
+     */
+    public byte[] generate(int length) {
+        return generate(length, new DefaultRandomGenerator());
+    }
+
+    /**
+     * Generates random bytes starting with a random context, using the
+     * specified random generator.
+     * 
+     * @param length
+     *            the number of bytes, including the starting context
+     * @param gen
+     *            the random generator to use
+     * @return the generated bytes
+     */
+    public byte[] generate(int length, RandomGenerator gen) {
+        return decode(chain.generate(length, gen));
+    }
+
+    /**
+     * Generates random bytes starting with the specified context, using the
+     * specified random generator.
+     * 
+     * @param start
+     *            exactly <em>order</em> starting bytes
+     * @param length
+     *            the number of bytes, including the starting context
+     * @param gen
+     *            the random generator to use
+     * @return the generated bytes
+     */
+    public byte[] generate(byte[] start, int length, RandomGenerator gen) {
+        return decode(chain.generate(chain.contextOf(encode(start)), length, gen));
+    }
+
+    /**
+     * Returns how many times the specified byte followed the specified
+     * context.
+     * 
+     * @param context
+     *            exactly <em>order</em> preceding bytes
+     * @param next
+     *            the following byte
+     * @return the number of times the byte followed the context
+     */
+    public long getCount(byte[] context, byte next) {
+        return chain.getCount(chain.contextOf(encode(context)), symbolOf(next));
+    }
+
+    /**
+     * Returns the order of the Markov chain.
+     * 
+     * @return the order of the Markov chain.
+     */
+    public int getOrder() {
+        return chain.getOrder();
+    }
+
+    private int[] encode(byte[] bytes) {
+        int[] encoded = new int[bytes.length];
+        for (int i = 0; i < encoded.length; i++) {
+            encoded[i] = symbolOf(bytes[i]);
+        }
+        return encoded;
+    }
+
+    private int symbolOf(byte b) {
+        int symbol = symbols[b & 0xff];
+        if (symbol < 0) {
+            throw new IllegalArgumentException("Byte " + (b & 0xff) + " not in the alphabet");
+        }
+        return symbol;
+    }
+
+    private byte[] decode(int[] walk) {
+        byte[] bytes = new byte[walk.length];
+        for (int i = 0; i < walk.length; i++) {
+            bytes[i] = alphabet[walk[i]];
+        }
+        return bytes;
+    }
+}
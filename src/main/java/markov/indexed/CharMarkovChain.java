@@ -0,0 +1,180 @@
+package markov.indexed;
+
+import java.util.Arrays;
+
+import markov.util.DefaultRandomGenerator;
+import markov.util.RandomGenerator;
+
+/**
+ * A character-level Markov chain over a fixed alphabet, for instance for
+ * generating names or identifiers. Characters are mapped to the symbols of an
+ * {@link IndexedMarkovChain} through a lookup table, so no character is ever
+ * boxed or hashed.
+ */
+public class CharMarkovChain {
+
+    private final char[] alphabet;
+    // Maps a character to its symbol, or -1 if not in the alphabet
+    private final int[] symbols;
+    private final IndexedMarkovChain chain;
+
+    /**
+     * Constructs a new, empty, Markov chain over the distinct characters of the
+     * specified alphabet.
+     * 
+     * @param alphabet
+     *            the characters which may occur
+     * @param order
+     *            the order of the Markov chain
+     * @throws IllegalArgumentException
+     *             if the alphabet is empty, if order < 1 or if the alphabet is
+     *             too large for the order, see {@link IndexedMarkovChain}
+     */
+    public CharMarkovChain(CharSequence alphabet, int order) {
+        char[] distinct = alphabet.chars()
+                .distinct()
+                .collect(StringBuilder::new, StringBuilder::appendCodePoint, StringBuilder::append)
+                .toString()
+                .toCharArray();
+        int max = -1;
+        for (char c : distinct) {
+            max = Math.max(max, c);
+        }
+        this.alphabet = distinct;
+        this.symbols = new int[max + 1];
+        Arrays.fill(symbols, -1);
+        for (int i = 0; i < distinct.length; i++) {
+            symbols[distinct[i]] = i;
+        }
+        this.chain = new IndexedMarkovChain(distinct.length, order);
+    }
+
+    /**
+     * Trains on the specified text, which is considered to be circular, see
+     * {@link IndexedMarkovChain#add(int[])}.
+     * 
+     * @param text
+     *            the text to train on
+     * @throws IllegalArgumentException
+     *             if a character is not in the alphabet
+     */
+    public void add(CharSequence text) {
+        chain.add(encode(text));
+    }
+
+    /**
+     * Returns a random character to follow the specified context.
+     * 
+     * @param context
+     *            exactly <em>order</em> preceding characters
+     * @param gen
+     *            the random generator to use
+     * @return the next character
+     * @throws IllegalArgumentException
+     *             if the context has never been seen
+     */
+    public char getNextRandomly(CharSequence context, RandomGenerator gen) {
+        return alphabet[chain.getNextRandomly(contextOf(context), gen)];
+    }
+
+    /**
+     * Generates a random text starting with a random context.
+     * 
+     * @param length
+     *            the number of characters, including the starting context
+     * @return the generated text
+     */
+    public String generate(int length) {
+        return generate(length, new DefaultRandomGenerator());
+    }
+
+    /**
+     * Generates a random text starting with a random context, using the
+     * specified random generator.
+     * 
+     * @param length
+     *            the number of characters, including the starting context
+     * @param gen
+     *            the random generator to use
+     * @return the generated text
+     */
+    public String generate(int length, RandomGenerator gen) {
+        return decode(chain.generate(length, gen));
+    }
+
+    /**
+     * Generates a random text starting with the specified context, using the
+     * specified random generator.
+     * 
+     * @param start
+     *            exactly <em>order</em> starting characters
+     * @param length
+     *            the number of characters, including the starting context
+     * @param gen
+     *            the random generator to use
+     * @return the generated text
+     */
+    public String generate(CharSequence start, int length, RandomGenerator gen) {
+        return decode(chain.generate(contextOf(start), length, gen));
+    }
+
+    /**
+     * Returns how many times the specified character followed the specified
+     * context.
+     * 
+     * @param context
+     *            exactly <em>order</em> preceding characters
+     * @param next
+     *            the following character
+     * @return the number of times the character followed the context
+     */
+    public long getCount(CharSequence context, char next) {
+        return chain.getCount(contextOf(context), symbolOf(next));
+    }
+
+    /**
+     * Returns the distinct characters of the alphabet.
+     * 
+     * @return the distinct characters of the alphabet
+     */
+    public String getAlphabet() {
+        return new String(alphabet);
+    }
+
+    /**
+     * Returns the order of the Markov chain.
+     * 
+     * @return the order of the Markov chain.
+     */
+    public int getOrder() {
+        return chain.getOrder();
+    }
+
+    private int contextOf(CharSequence context) {
+        return chain.contextOf(encode(context));
+    }
+
+    private int[] encode(CharSequence text) {
+        int[] encoded = new int[text.length()];
+        for (int i = 0; i < encoded.length; i++) {
+            encoded[i] = symbolOf(text.charAt(i));
+        }
+        return encoded;
+    }
+
+    private int symbolOf(char c) {
+        int symbol = c < symbols.length ? symbols[c] : -1;
+        if (symbol < 0) {
+            throw new IllegalArgumentException("Character '" + c + "' not in the alphabet");
+        }
+        return symbol;
+    }
+
+    private String decode(int[] walk) {
+        char[] text = new char[walk.length];
+        for (int i = 0; i < walk.length; i++) {
+            text[i] = alphabet[walk[i]];
+        }
+        return new String(text);
+    }
+}
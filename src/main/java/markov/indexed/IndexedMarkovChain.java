@@ -0,0 +1,321 @@
+package markov.indexed;
+
+import java.util.Arrays;
+
+import markov.util.DefaultRandomGenerator;
+import markov.util.RandomGenerator;
+
+/**
+ * A Markov chain over the symbols 0 to <em>alphabetSize</em> - 1, for small
+ * alphabets and orders. A context of <em>order</em> symbols is the number
+ * they form in base <em>alphabetSize</em>, and indexes a fixed-length row of
+ * counts in a single flat array. Training and generation are therefore pure
+ * array indexing, without any hashing or boxing. The table holds
+ * <em>alphabetSize</em><sup><em>order</em> + 1</sup> counts, regardless of how
+ * many contexts are actually seen.
+ */
+public class IndexedMarkovChain {
+
+    // The largest number of counts in a table, 1 GiB worth of longs
+    static final int MAX_TABLE_SIZE = 1 << 27;
+
+    private final int alphabetSize;
+    private final int order;
+    private final int contexts;
+    // Row c holds the counts of every symbol following context c
+    private final long[] counts;
+    private final long[] totals;
+    // The contexts seen so far, for picking random contexts in constant time
+    private int[] seen = new int[16];
+    private int seenCount;
+
+    /**
+     * Constructs a new, empty, Markov chain.
+     * 
+     * @param alphabetSize
+     *            the number of distinct symbols
+     * @param order
+     *            the order of the Markov chain
+     * @throws IllegalArgumentException
+     *             if alphabetSize < 1, order < 1, or if the table would exceed
+     *             2<sup>27</sup> counts
+     */
+    public IndexedMarkovChain(int alphabetSize, int order) {
+        if (alphabetSize < 1) {
+            throw new IllegalArgumentException("The alphabet may not be empty");
+        }
+        if (order < 1) {
+            throw new IllegalArgumentException("The order of the markov chain must be positive");
+        }
+        long size = alphabetSize;
+        for (int i = 0; i < order; i++) {
+            size *= alphabetSize;
+            if (size > MAX_TABLE_SIZE) {
+                throw new IllegalArgumentException(
+                        "Alphabet of " + alphabetSize + " symbols too large for order " + order);
+            }
+        }
+        this.alphabetSize = alphabetSize;
+        this.order = order;
+        this.contexts = (int) (size / alphabetSize);
+        this.counts = new long[(int) size];
+        this.totals = new long[contexts];
+    }
+
+    /**
+     * Trains on the specified symbols, which are considered to be
+     * <em>circular</em>, just like {@link markov.MarkovChain#add}. Sources
+     * shorter than the order wrap around as many times as needed.
+     * 
+     * @param symbols
+     *            the symbols to train on
+     * @throws IllegalArgumentException
+     *             if a symbol is outside of the alphabet
+     */
+    public void add(int[] symbols) {
+        int n = symbols.length;
+        for (int symbol : symbols) {
+            checkSymbol(symbol);
+        }
+        if (n == 0) {
+            return;
+        }
+        int context = 0;
+        for (int i = 0; i < order; i++) {
+            context = nextContext(context, symbols[i % n]);
+        }
+        for (int i = 0; i < n; i++) {
+            int next = symbols[(i + order) % n];
+            increment(context, next);
+            context = nextContext(context, next);
+        }
+    }
+
+    private void increment(int context, int symbol) {
+        if (totals[context]++ == 0) {
+            if (seenCount == seen.length) {
+                seen = Arrays.copyOf(seen, seenCount * 2);
+            }
+            seen[seenCount++] = context;
+        }
+        counts[context * alphabetSize + symbol]++;
+    }
+
+    /**
+     * Returns the context of the specified symbols.
+     * 
+     * @param symbols
+     *            exactly <em>order</em> symbols, oldest first
+     * @return the context of the symbols
+     * @throws IllegalArgumentException
+     *             if the number of symbols differs from the order, or if a
+     *             symbol is outside of the alphabet
+     */
+    public int contextOf(int... symbols) {
+        if (symbols.length != order) {
+            throw new IllegalArgumentException("A context consists of exactly " + order + " symbols");
+        }
+        int context = 0;
+        for (int symbol : symbols) {
+            checkSymbol(symbol);
+            context = nextContext(context, symbol);
+        }
+        return context;
+    }
+
+    /**
+     * Returns the context following the specified context and symbol. The
+     * oldest symbol of the context is dropped and the symbol is appended.
+     * 
+     * @param context
+     *            the current context
+     * @param symbol
+     *            the symbol to append
+     * @return the next context
+     */
+    public int nextContext(int context, int symbol) {
+        return (int) (((long) context * alphabetSize + symbol) % contexts);
+    }
+
+    /**
+     * Returns the symbols of the specified context, oldest first.
+     * 
+     * @param context
+     *            the context
+     * @return the symbols of the context
+     */
+    public int[] symbolsOf(int context) {
+        checkContext(context);
+        int[] symbols = new int[order];
+        for (int i = order - 1; i >= 0; i--) {
+            symbols[i] = context % alphabetSize;
+            context /= alphabetSize;
+        }
+        return symbols;
+    }
+
+    /**
+     * Returns a random symbol to follow the specified context, weighted by how
+     * often each symbol followed it.
+     * 
+     * @param context
+     *            the preceding context
+     * @param gen
+     *            the random generator to use
+     * @return the next symbol
+     * @throws IllegalArgumentException
+     *             if the context has never been seen
+     */
+    public int getNextRandomly(int context, RandomGenerator gen) {
+        checkContext(context);
+        long total = totals[context];
+        if (total == 0) {
+            throw new IllegalArgumentException("Unknown context " + context);
+        }
+        long remaining = gen.nextLong(total);
+        int row = context * alphabetSize;
+        int symbol = 0;
+        while ((remaining -= counts[row + symbol]) >= 0) {
+            symbol++;
+        }
+        return symbol;
+    }
+
+    /**
+     * Returns a random context among those seen, each equally likely.
+     * 
+     * @param gen
+     *            the random generator to use
+     * @return a random context
+     * @throws IllegalStateException
+     *             if the chain is empty
+     */
+    public int getRandomContext(RandomGenerator gen) {
+        if (seenCount == 0) {
+            throw new IllegalStateException("The Markov chain is empty");
+        }
+        return seen[gen.nextInt(seenCount)];
+    }
+
+    /**
+     * Generates a random walk starting with a random context.
+     * 
+     * @param length
+     *            the number of symbols, including the starting context
+     * @return the symbols of the walk
+     */
+    public int[] generate(int length) {
+        return generate(length, new DefaultRandomGenerator());
+    }
+
+    /**
+     * Generates a random walk starting with a random context, using the
+     * specified random generator.
+     * 
+     * @param length
+     *            the number of symbols, including the starting context
+     * @param gen
+     *            the random generator to use
+     * @return the symbols of the walk
+     */
+    public int[] generate(int length, RandomGenerator gen) {
+        return generate(getRandomContext(gen), length, gen);
+    }
+
+    /**
+     * Generates a random walk starting with the specified context, using the
+     * specified random generator.
+     * 
+     * @param context
+     *            the starting context
+     * @param length
+     *            the number of symbols, including the starting context
+     * @param gen
+     *            the random generator to use
+     * @return the symbols of the walk
+     * @throws IllegalArgumentException
+     *             if length < 0 or if a context is reached which has never
+     *             been seen
+     */
+    public int[] generate(int context, int length, RandomGenerator gen) {
+        if (length < 0) {
+            throw new IllegalArgumentException("Length may not be negative");
+        }
+        int[] walk = new int[length];
+        int[] start = symbolsOf(context);
+        System.arraycopy(start, 0, walk, 0, Math.min(order, length));
+        for (int i = order; i < length; i++) {
+            int next = getNextRandomly(context, gen);
+            walk[i] = next;
+            context = nextContext(context, next);
+        }
+        return walk;
+    }
+
+    /**
+     * Returns how many times the specified symbol followed the specified
+     * context.
+     * 
+     * @param context
+     *            the preceding context
+     * @param symbol
+     *            the following symbol
+     * @return the number of times the symbol followed the context
+     */
+    public long getCount(int context, int symbol) {
+        checkContext(context);
+        checkSymbol(symbol);
+        return counts[context * alphabetSize + symbol];
+    }
+
+    /**
+     * Returns how many times any symbol followed the specified context.
+     * 
+     * @param context
+     *            the preceding context
+     * @return the number of times the context was seen
+     */
+    public long getTotal(int context) {
+        checkContext(context);
+        return totals[context];
+    }
+
+    /**
+     * Returns the number of distinct contexts seen so far.
+     * 
+     * @return the number of distinct contexts seen
+     */
+    public int getContextCount() {
+        return seenCount;
+    }
+
+    /**
+     * Returns the number of distinct symbols.
+     * 
+     * @return the number of distinct symbols
+     */
+    public int getAlphabetSize() {
+        return alphabetSize;
+    }
+
+    /**
+     * Returns the order of the Markov chain.
+     * 
+     * @return the order of the Markov chain.
+     */
+    public int getOrder() {
+        return order;
+    }
+
+    private void checkContext(int context) {
+        if (context < 0 || context >= contexts) {
+            throw new IllegalArgumentException("Context " + context + " out of range");
+        }
+    }
+
+    private void checkSymbol(int symbol) {
+        if (symbol < 0 || symbol >= alphabetSize) {
+            throw new IllegalArgumentException("Symbol " + symbol + " outside of the alphabet");
+        }
+    }
+}
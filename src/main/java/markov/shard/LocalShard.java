@@ -0,0 +1,49 @@
+package markov.shard;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import markov.ProbabilityMapping;
+import markov.TokenSequence;
+
+public class LocalShard<T> implements Shard<T> {
+
+    private final Map<TokenSequence<T>, ProbabilityMapping<T>> states = new ConcurrentHashMap<>();
+
+    @Override
+    public void load(Map<TokenSequence<T>, ProbabilityMapping<T>> states) {
+        this.states.putAll(states);
+    }
+
+    @Override
+    public List<T> next(List<TokenSequence<T>> states, double[] fractions) {
+        if (states.size() != fractions.length) {
+            throw new IllegalArgumentException("The number of states and fractions must match");
+        }
+        List<T> next = new ArrayList<>(states.size());
+        for (int i = 0; i < fractions.length; i++) {
+            ProbabilityMapping<T> mapping = this.states.get(states.get(i));
+            if (mapping == null) {
+                throw new IllegalStateException("State not owned by this shard: " + states.get(i));
+            }
+            next.add(mapping.getNextByFraction(fractions[i]));
+        }
+        return next;
+    }
+
+    /**
+     * Returns the number of states owned by this shard.
+     * 
+     * @return the number of states owned by this shard
+     */
+    public int size() {
+        return states.size();
+    }
+
+    @Override
+    public void close() {
+        // Nothing to release
+    }
+}
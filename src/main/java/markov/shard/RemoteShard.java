@@ -0,0 +1,105 @@
+package markov.shard;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import markov.ProbabilityMapping;
+import markov.TokenSequence;
+
+/**
+ * A shard living in another process, reached through a {@link ShardServer}.
+ * Tokens must be strings or boxed primitives, see {@link ShardServer}. A
+ * single connection is used, so concurrent batches to the same remote shard
+ * are sent one at a time.
+ */
+public class RemoteShard<T> implements Shard<T> {
+
+    private final Socket socket;
+    private final ObjectOutputStream out;
+    private final ObjectInputStream in;
+
+    /**
+     * Connects to the shard server listening on the specified address.
+     * 
+     * @param address
+     *            the address of the shard server
+     * @throws IOException
+     *             if the connection could not be established
+     */
+    public RemoteShard(InetSocketAddress address) throws IOException {
+        this.socket = new Socket(address.getAddress(), address.getPort());
+        socket.setTcpNoDelay(true);
+        this.out = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        out.flush();
+        this.in = new ObjectInputStream(new BufferedInputStream(socket.getInputStream()));
+        in.setObjectInputFilter(ShardServer.FILTER);
+    }
+
+    @Override
+    public synchronized void load(Map<TokenSequence<T>, ProbabilityMapping<T>> states) {
+        try {
+            out.writeByte(ShardServer.LOAD);
+            out.writeObject(new HashMap<>(states));
+            flush();
+            in.readByte();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public synchronized List<T> next(List<TokenSequence<T>> states, double[] fractions) {
+        if (states.size() != fractions.length) {
+            throw new IllegalArgumentException("The number of states and fractions must match");
+        }
+        try {
+            out.writeByte(ShardServer.NEXT);
+            out.writeObject(new ArrayList<>(states));
+            out.writeObject(fractions);
+            flush();
+            return readReply();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            out.writeByte(ShardServer.CLOSE);
+            out.flush();
+        } finally {
+            socket.close();
+        }
+    }
+
+    private void flush() throws IOException {
+        out.flush();
+        // Forget written objects, otherwise every batch is retained by the
+        // stream for back references
+        out.reset();
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<T> readReply() throws IOException {
+        try {
+            Object reply = in.readObject();
+            if (reply instanceof String) {
+                throw new IllegalStateException((String) reply);
+            }
+            return (List<T>) reply;
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+}
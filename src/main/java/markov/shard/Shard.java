@@ -0,0 +1,42 @@
+package markov.shard;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.Map;
+
+import markov.ProbabilityMapping;
+import markov.TokenSequence;
+
+public interface Shard<T> extends Closeable {
+
+    /**
+     * Adds the specified states to this shard. States already owned by this
+     * shard are replaced.
+     * 
+     * @param states
+     *            the states to be owned by this shard
+     * @throws java.io.UncheckedIOException
+     *             if the shard could not be reached
+     */
+    void load(Map<TokenSequence<T>, ProbabilityMapping<T>> states);
+
+    /**
+     * Advances a batch of walks one step. For each state, the element at the
+     * corresponding fraction of its distribution is returned, see
+     * {@link ProbabilityMapping#getNextByFraction(double)}.
+     * 
+     * @param states
+     *            the current states of the walks, all owned by this shard
+     * @param fractions
+     *            one uniformly distributed fraction in [0, 1) per state
+     * @return the next element of each walk, in the same order as the states
+     * @throws IllegalArgumentException
+     *             if the number of states and fractions differ
+     * @throws IllegalStateException
+     *             if a state is not owned by this shard
+     * @throws java.io.UncheckedIOException
+     *             if the shard could not be reached
+     */
+    List<T> next(List<TokenSequence<T>> states, double[] fractions);
+
+}
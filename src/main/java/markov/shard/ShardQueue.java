@@ -0,0 +1,121 @@
+package markov.shard;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import markov.TokenSequence;
+
+/**
+ * Coalesces single steps of concurrent walks into batches for one shard. The
+ * first waiting caller sends everything pending as a single batch while the
+ * others wait for it, the same way a group commit shares a write. A caller
+ * arriving while a batch is in flight is sent with the next one.
+ */
+final class ShardQueue<T> {
+
+    private final Shard<T> shard;
+    private final Object lock = new Object();
+
+    // Guarded by lock
+    private List<Lookup<T>> pending = new ArrayList<>();
+    private boolean sending;
+
+    ShardQueue(Shard<T> shard) {
+        this.shard = shard;
+    }
+
+    /**
+     * Returns the element at the specified fraction of the distribution of the
+     * specified state, see {@link Shard#next(List, double[])}.
+     */
+    T next(TokenSequence<T> state, double fraction) {
+        Lookup<T> lookup = new Lookup<>(state, fraction);
+        List<Lookup<T>> batch;
+        boolean interrupted = false;
+        synchronized (lock) {
+            pending.add(lookup);
+            while (sending && !lookup.done) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    // The lookup may already be in flight, so it is awaited
+                    interrupted = true;
+                }
+            }
+            if (!lookup.done) {
+                sending = true;
+                batch = pending;
+                pending = new ArrayList<>();
+            } else {
+                batch = null;
+            }
+        }
+        if (batch != null) {
+            send(batch);
+        }
+        if (interrupted) {
+            Thread.currentThread()
+                    .interrupt();
+        }
+        if (lookup.failure != null) {
+            throw lookup.failure;
+        }
+        return lookup.result;
+    }
+
+    private void send(List<Lookup<T>> batch) {
+        try {
+            List<TokenSequence<T>> states = new ArrayList<>(batch.size());
+            double[] fractions = new double[batch.size()];
+            for (int i = 0; i < batch.size(); i++) {
+                states.add(batch.get(i).state);
+                fractions[i] = batch.get(i).fraction;
+            }
+            List<T> reply;
+            try {
+                reply = shard.next(states, fractions);
+            } catch (RuntimeException e) {
+                if (batch.size() == 1) {
+                    batch.get(0).failure = e;
+                    return;
+                }
+                // Only fail the walks responsible, one at a time
+                for (Lookup<T> lookup : batch) {
+                    try {
+                        lookup.result = shard.next(List.of(lookup.state), new double[] { lookup.fraction })
+                                .get(0);
+                    } catch (RuntimeException single) {
+                        lookup.failure = single;
+                    }
+                }
+                return;
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).result = reply.get(i);
+            }
+        } finally {
+            synchronized (lock) {
+                for (Lookup<T> lookup : batch) {
+                    lookup.done = true;
+                }
+                sending = false;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    private static final class Lookup<T> {
+
+        private final TokenSequence<T> state;
+        private final double fraction;
+        // Written by the sender before done is set under the lock
+        private T result;
+        private RuntimeException failure;
+        private boolean done;
+
+        Lookup(TokenSequence<T> state, double fraction) {
+            this.state = state;
+            this.fraction = fraction;
+        }
+    }
+}
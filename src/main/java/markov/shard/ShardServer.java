@@ -0,0 +1,260 @@
+package markov.shard;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import markov.ProbabilityMapping;
+import markov.TokenSequence;
+
+/**
+ * Serves {@link RemoteShard} connections on the loopback interface. Every
+ * connection owns its own {@link LocalShard}. Can be run as a standalone worker
+ * process, in which case the port is printed to standard out once the server
+ * accepts connections.
+ * <p>
+ * Only the classes making up states and batches are accepted from the wire,
+ * see {@link #FILTER}, so tokens must be strings or boxed primitives.
+ */
+public class ShardServer implements Closeable {
+
+    static final byte LOAD = 1;
+    static final byte NEXT = 2;
+    static final byte CLOSE = 3;
+
+    // Consecutive failures to accept a connection after which the server
+    // gives up, waiting a little longer after each one
+    private static final int MAX_ACCEPT_FAILURES = 10;
+    private static final long ACCEPT_BACKOFF_MILLIS = 50;
+    private static final long MAX_DEPTH = 8;
+    // Also bounds the hash tables of loaded states
+    private static final long MAX_ARRAY_LENGTH = 1 << 27;
+    private static final Set<Class<?>> ALLOWED_CLASSES = Set.of(HashMap.class, LinkedHashMap.class, Map.Entry.class,
+            ArrayList.class, TokenSequence.class, ProbabilityMapping.class, Object.class, String.class, Number.class,
+            Boolean.class, Character.class, Byte.class, Short.class, Integer.class, Long.class, Float.class,
+            Double.class);
+
+    /**
+     * Rejects everything but the classes of the protocol, strings and boxed
+     * primitives, and arrays of those, within depth and array length limits.
+     * Applied to both ends of a connection, so that neither can make the other
+     * instantiate arbitrary serializable classes.
+     */
+    static final ObjectInputFilter FILTER = info -> {
+        if (info.depth() > MAX_DEPTH || info.arrayLength() > MAX_ARRAY_LENGTH) {
+            return ObjectInputFilter.Status.REJECTED;
+        }
+        Class<?> type = info.serialClass();
+        if (type == null) {
+            return ObjectInputFilter.Status.UNDECIDED;
+        }
+        while (type.isArray()) {
+            type = type.getComponentType();
+        }
+        if (type.isPrimitive() || ALLOWED_CLASSES.contains(type)) {
+            return ObjectInputFilter.Status.ALLOWED;
+        }
+        return ObjectInputFilter.Status.REJECTED;
+    };
+
+    private final ServerSocket server;
+    private final Consumer<? super Exception> errorHandler;
+
+    /**
+     * Binds a new shard server to the specified port on the loopback
+     * interface. A port of 0 picks any free port. Errors are logged as
+     * warnings through the platform logger.
+     * 
+     * @param port
+     *            the port to listen on
+     * @throws IOException
+     *             if the port could not be bound
+     */
+    public ShardServer(int port) throws IOException {
+        this(port, ShardServer::log);
+    }
+
+    /**
+     * Binds a new shard server to the specified port on the loopback
+     * interface. A port of 0 picks any free port.
+     * 
+     * @param port
+     *            the port to listen on
+     * @param errorHandler
+     *            receives failed connections and failures to accept them
+     * @throws IOException
+     *             if the port could not be bound
+     */
+    public ShardServer(int port, Consumer<? super Exception> errorHandler) throws IOException {
+        this.server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        this.errorHandler = errorHandler;
+    }
+
+    /**
+     * Returns the address this server listens on.
+     * 
+     * @return the address this server listens on
+     */
+    public InetSocketAddress getAddress() {
+        return new InetSocketAddress(server.getInetAddress(), server.getLocalPort());
+    }
+
+    /**
+     * Starts accepting connections on a background thread and returns
+     * immediately.
+     * 
+     * @return this server
+     */
+    public ShardServer start() {
+        Thread acceptor = new Thread(this::serve, "shard-server-" + server.getLocalPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return this;
+    }
+
+    /**
+     * Accepts connections until this server is closed. Each connection is
+     * handled on its own thread. If accepting fails repeatedly, the server is
+     * closed and this method returns.
+     */
+    public void serve() {
+        int failures = 0;
+        while (!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                failures = 0;
+                Thread handler = new Thread(() -> handle(socket), "shard-connection-" + socket.getPort());
+                handler.setDaemon(true);
+                handler.start();
+            } catch (IOException e) {
+                if (server.isClosed()) {
+                    return;
+                }
+                errorHandler.accept(e);
+                if (++failures >= MAX_ACCEPT_FAILURES || !backOff(failures)) {
+                    closeQuietly();
+                    return;
+                }
+            }
+        }
+    }
+
+    private static boolean backOff(int failures) {
+        try {
+            Thread.sleep(ACCEPT_BACKOFF_MILLIS * failures);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread()
+                    .interrupt();
+            return false;
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            server.close();
+        } catch (IOException e) {
+            errorHandler.accept(e);
+        }
+    }
+
+    private static void log(Exception e) {
+        System.getLogger(ShardServer.class.getName())
+                .log(System.Logger.Level.WARNING, "Shard connection failed", e);
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+    }
+
+    private void handle(Socket socket) {
+        try {
+            converse(socket);
+        } catch (EOFException | SocketException e) {
+            // The router went away
+        } catch (IOException | ClassNotFoundException e) {
+            // Reported before closing, so the failure is known by the time
+            // the router sees the connection drop
+            errorHandler.accept(e);
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                errorHandler.accept(e);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void converse(Socket socket) throws IOException, ClassNotFoundException {
+        LocalShard<Object> shard = new LocalShard<>();
+        socket.setTcpNoDelay(true);
+        ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        out.flush();
+        ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(socket.getInputStream()));
+        in.setObjectInputFilter(FILTER);
+        while (true) {
+            byte command = in.readByte();
+            if (command == LOAD) {
+                shard.load((Map<TokenSequence<Object>, ProbabilityMapping<Object>>) in.readObject());
+                out.writeByte(LOAD);
+            } else if (command == NEXT) {
+                List<TokenSequence<Object>> states = (List<TokenSequence<Object>>) in.readObject();
+                double[] fractions = (double[]) in.readObject();
+                out.writeObject(nextOrError(shard, states, fractions));
+            } else if (command == CLOSE) {
+                return;
+            } else {
+                throw new IOException("Unknown command: " + command);
+            }
+            out.flush();
+            out.reset();
+        }
+    }
+
+    private static Object nextOrError(LocalShard<Object> shard, List<TokenSequence<Object>> states,
+            double[] fractions) {
+        try {
+            return shard.next(states, fractions);
+        } catch (RuntimeException e) {
+            return String.valueOf(e.getMessage());
+        }
+    }
+
+    /**
+     * Runs a shard server until the process is killed.
+     * 
+     * @param args
+     *            optionally the port to listen on, any free port is used
+     *            otherwise
+     * @throws IOException
+     *             if the port could not be bound
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 0;
+        try (ShardServer server = new ShardServer(port)) {
+            System.out.println(server.getAddress()
+                    .getPort());
+            System.out.flush();
+            server.serve();
+        }
+    }
+}
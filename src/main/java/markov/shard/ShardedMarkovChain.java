@@ -0,0 +1,326 @@
+package markov.shard;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import markov.MarkovChain;
+import markov.ProbabilityMapping;
+import markov.TokenSequence;
+import markov.util.DefaultRandomGenerator;
+import markov.util.RandomGenerator;
+
+/**
+ * A Markov chain whose states are partitioned across several shards by the
+ * hash of their TokenSequence. Walks are routed step by step to the shard
+ * owning their current state. When many walks are advanced together, all
+ * steps destined for the same shard are sent as a single batch and the shards
+ * are queried concurrently.
+ * <p>
+ * This is a router of its own, owning its shards and their connections, not a
+ * mode of {@link MarkovChain}. Walks from {@link #stream} advance one element
+ * at a time, but the steps of concurrent streams waiting for the same shard
+ * are coalesced into a single batch. {@link #walk(List, int, RandomGenerator)}
+ * batches the steps of its walks without relying on concurrency.
+ */
+public class ShardedMarkovChain<T> implements Closeable {
+
+    private final int order;
+    private final List<Shard<T>> shards;
+    // Coalesce the steps of concurrent streams, one queue per shard
+    private final List<ShardQueue<T>> queues;
+    private final ExecutorService dispatcher;
+
+    /**
+     * Constructs a router over the specified, already loaded, shards. The
+     * states must have been partitioned as by
+     * {@link #partition(MarkovChain, List)}.
+     * 
+     * @param order
+     *            the order of the partitioned Markov chain
+     * @param shards
+     *            the shards, in partition order
+     * @throws IllegalArgumentException
+     *             if the order < 1 or if no shards are specified
+     */
+    public ShardedMarkovChain(int order, List<? extends Shard<T>> shards) {
+        if (order < 1) {
+            throw new IllegalArgumentException("The order of the markov chain must be positive");
+        }
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("At least one shard is required");
+        }
+        this.order = order;
+        this.shards = new ArrayList<>(shards);
+        this.queues = this.shards.stream()
+                .map(ShardQueue::new)
+                .collect(Collectors.toList());
+        this.dispatcher = Executors.newFixedThreadPool(shards.size(), r -> {
+            Thread thread = new Thread(r, "shard-dispatcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Partitions the specified chain into the specified number of in-process
+     * shards.
+     * 
+     * @param chain
+     *            the Markov chain to be partitioned
+     * @param count
+     *            the number of shards
+     * @return a sharded view of the specified chain
+     * @throws IllegalArgumentException
+     *             if count < 1
+     */
+    public static <T> ShardedMarkovChain<T> partition(MarkovChain<T> chain, int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("At least one shard is required");
+        }
+        List<Shard<T>> shards = Stream.generate(LocalShard<T>::new)
+                .limit(count)
+                .collect(Collectors.toList());
+        return partition(chain, shards);
+    }
+
+    /**
+     * Partitions the specified chain across the specified shards, local or
+     * remote, and loads every shard with the states it owns.
+     * 
+     * @param chain
+     *            the Markov chain to be partitioned
+     * @param shards
+     *            the shards receiving the states
+     * @return a sharded view of the specified chain
+     * @throws IllegalArgumentException
+     *             if no shards are specified
+     */
+    public static <T> ShardedMarkovChain<T> partition(MarkovChain<T> chain, List<? extends Shard<T>> shards) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("At least one shard is required");
+        }
+        List<Map<TokenSequence<T>, ProbabilityMapping<T>>> partitions = new ArrayList<>();
+        for (int i = 0; i < shards.size(); i++) {
+            partitions.add(new HashMap<>());
+        }
+        for (Entry<TokenSequence<T>, ProbabilityMapping<T>> entry : chain.states()
+                .entrySet()) {
+            partitions.get(owner(entry.getKey(), shards.size()))
+                    .put(entry.getKey(), entry.getValue());
+        }
+        for (int i = 0; i < shards.size(); i++) {
+            shards.get(i)
+                    .load(partitions.get(i));
+        }
+        return new ShardedMarkovChain<>(chain.getOrder(), shards);
+    }
+
+    /**
+     * Returns the index of the shard owning the specified state.
+     * 
+     * @param sequence
+     *            the state
+     * @param shardCount
+     *            the total number of shards
+     * @return the index of the owning shard
+     */
+    public static int owner(TokenSequence<?> sequence, int shardCount) {
+        return Math.floorMod(sequence.hashCode(), shardCount);
+    }
+
+    /**
+     * Returns an infinite stream representing a random walk through the
+     * sharded transition matrix. The stream starts with the specified
+     * TokenSequence.
+     * 
+     * @param start
+     *            the starting TokenSequence
+     * @return an infinite stream
+     */
+    public Stream<T> stream(TokenSequence<T> start) {
+        return stream(start, new DefaultRandomGenerator());
+    }
+
+    /**
+     * Returns an infinite stream representing a random walk through the
+     * sharded transition matrix, using the specified random generator. The
+     * stream starts with the specified TokenSequence. Every element is a
+     * request to the owning shard, sent together with those of concurrent
+     * streams, see the class documentation.
+     * 
+     * @param start
+     *            the starting TokenSequence
+     * @param gen
+     *            the random generator to use
+     * @return an infinite stream
+     */
+    public Stream<T> stream(TokenSequence<T> start, RandomGenerator gen) {
+        Stream<T> head = start.getTokens()
+                .stream();
+        Stream<T> tail = Stream.generate(new RoutingSupplier(start, gen));
+        return Stream.concat(head, tail);
+    }
+
+    /**
+     * Advances one walk per starting sequence the specified number of steps.
+     * Every step is one round trip per involved shard, regardless of the
+     * number of walks. The random generator is consumed in walk order, so the
+     * result is reproducible with a seeded generator.
+     * 
+     * @param starts
+     *            the starting TokenSequence of each walk
+     * @param length
+     *            the number of elements to generate per walk, not counting the
+     *            starting sequence
+     * @param gen
+     *            the random generator to use
+     * @return the generated elements of each walk, in the order of the starts
+     * @throws IllegalArgumentException
+     *             if length < 0
+     */
+    public List<List<T>> walk(List<TokenSequence<T>> starts, int length, RandomGenerator gen) {
+        if (length < 0) {
+            throw new IllegalArgumentException("Length may not be negative");
+        }
+        List<TokenSequence<T>> states = new ArrayList<>(starts);
+        List<List<T>> walks = new ArrayList<>(states.size());
+        for (int i = 0; i < states.size(); i++) {
+            walks.add(new ArrayList<>(length));
+        }
+        for (int step = 0; step < length; step++) {
+            List<T> next = step(states, gen);
+            for (int i = 0; i < states.size(); i++) {
+                walks.get(i)
+                        .add(next.get(i));
+                states.set(i, states.get(i)
+                        .getNext(next.get(i)));
+            }
+        }
+        return walks;
+    }
+
+    /**
+     * Returns the order of the Markov chain.
+     * 
+     * @return the order of the Markov chain.
+     */
+    public int getOrder() {
+        return order;
+    }
+
+    /**
+     * Returns the number of shards.
+     * 
+     * @return the number of shards
+     */
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    /**
+     * Closes every shard and stops dispatching.
+     */
+    @Override
+    public void close() throws IOException {
+        dispatcher.shutdown();
+        IOException failure = null;
+        for (Shard<T> shard : shards) {
+            try {
+                shard.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private List<T> step(List<TokenSequence<T>> states, RandomGenerator gen) {
+        int shardCount = shards.size();
+        double[] fractions = new double[states.size()];
+        gen.nextDoubles(fractions);
+        if (shardCount == 1) {
+            return shards.get(0)
+                    .next(states, fractions);
+        }
+        List<List<Integer>> routes = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            routes.add(new ArrayList<>());
+        }
+        for (int i = 0; i < states.size(); i++) {
+            routes.get(owner(states.get(i), shardCount))
+                    .add(i);
+        }
+        List<CompletableFuture<List<T>>> replies = new ArrayList<>(shardCount);
+        for (int i = 0; i < shardCount; i++) {
+            replies.add(send(shards.get(i), routes.get(i), states, fractions));
+        }
+        List<T> next = new ArrayList<>(Collections.nCopies(states.size(), null));
+        for (int i = 0; i < shardCount; i++) {
+            List<Integer> route = routes.get(i);
+            List<T> reply = join(replies.get(i));
+            for (int k = 0; k < route.size(); k++) {
+                next.set(route.get(k), reply.get(k));
+            }
+        }
+        return next;
+    }
+
+    private CompletableFuture<List<T>> send(Shard<T> shard, List<Integer> route, List<TokenSequence<T>> states,
+            double[] fractions) {
+        if (route.isEmpty()) {
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }
+        List<TokenSequence<T>> batch = new ArrayList<>(route.size());
+        double[] batchFractions = new double[route.size()];
+        for (int k = 0; k < route.size(); k++) {
+            batch.add(states.get(route.get(k)));
+            batchFractions[k] = fractions[route.get(k)];
+        }
+        return CompletableFuture.supplyAsync(() -> shard.next(batch, batchFractions), dispatcher);
+    }
+
+    private static <R> R join(CompletableFuture<R> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private class RoutingSupplier implements Supplier<T> {
+
+        private TokenSequence<T> sequence;
+        private RandomGenerator gen;
+
+        public RoutingSupplier(TokenSequence<T> sequence, RandomGenerator gen) {
+            this.sequence = sequence;
+            this.gen = gen;
+        }
+
+        @Override
+        public T get() {
+            T next = queues.get(owner(sequence, shards.size()))
+                    .next(sequence, gen.nextDouble());
+            sequence = sequence.getNext(next);
+            return next;
+        }
+    }
+}
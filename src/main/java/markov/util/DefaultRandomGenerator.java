@@ -16,4 +16,10 @@ public class DefaultRandomGenerator implements RandomGenerator {
                 .nextInt(min, max);
     }
 
+    @Override
+    public double nextDouble() {
+        return ThreadLocalRandom.current()
+                .nextDouble();
+    }
+
 }
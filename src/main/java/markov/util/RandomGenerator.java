@@ -62,4 +62,45 @@ public interface RandomGenerator {
         return nextInt(0, max);
     }
 
+    /**
+     * Returns a pseudorandom double value between 0 (inclusive) and 1
+     * (exclusive).
+     *
+     * @return a pseudorandom double value between 0 (inclusive) and 1
+     *         (exclusive)
+     */
+    default double nextDouble() {
+        return nextLong(1L << 53) * 0x1.0p-53;
+    }
+
+    /**
+     * Fills the specified array with pseudorandom long values between 0
+     * (inclusive) and the specified bound (exclusive).
+     *
+     * @param out
+     *            the array to fill
+     * @param max
+     *            the upper bound (exclusive)
+     * @throws IllegalArgumentException
+     *             if 0 is greater than or equal to max
+     */
+    default void nextLongs(long[] out, long max) {
+        for (int i = 0; i < out.length; i++) {
+            out[i] = nextLong(max);
+        }
+    }
+
+    /**
+     * Fills the specified array with pseudorandom double values between 0
+     * (inclusive) and 1 (exclusive).
+     *
+     * @param out
+     *            the array to fill
+     */
+    default void nextDoubles(double[] out) {
+        for (int i = 0; i < out.length; i++) {
+            out[i] = nextDouble();
+        }
+    }
+
 }
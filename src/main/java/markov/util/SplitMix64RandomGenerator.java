@@ -0,0 +1,75 @@
+package markov.util;
+
+/**
+ * The SplitMix64 generator, as used by {@link java.util.SplittableRandom}. Very
+ * fast and splittable, with a period of 2<sup>64</sup> per generator.
+ */
+public class SplitMix64RandomGenerator implements SplittableRandomGenerator {
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private final long seed;
+    private final long gamma;
+    private long state;
+
+    /**
+     * Constructs a new generator which starts at the specified seed.
+     * 
+     * @param seed
+     *            the seed of the generator
+     */
+    public SplitMix64RandomGenerator(long seed) {
+        this(seed, GOLDEN_GAMMA);
+    }
+
+    private SplitMix64RandomGenerator(long seed, long gamma) {
+        this.seed = seed;
+        this.gamma = gamma;
+        this.state = seed;
+    }
+
+    /**
+     * Returns the seed this generator started at. For split generators, this
+     * is the seed they were handed by their parent.
+     * 
+     * @return the seed of this generator
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    @Override
+    public long nextLong() {
+        state += gamma;
+        return mix64(state);
+    }
+
+    @Override
+    public SplitMix64RandomGenerator split() {
+        long nextSeed = nextLong();
+        state += gamma;
+        return new SplitMix64RandomGenerator(nextSeed, mixGamma(state));
+    }
+
+    /**
+     * Returns the specified value with its bits thoroughly mixed. Useful for
+     * deriving seeds from sequential numbers.
+     * 
+     * @param z
+     *            the value to be mixed
+     * @return the mixed value
+     */
+    public static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    private static long mixGamma(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        z = (z ^ (z >>> 33)) | 1L; // Must be odd
+        int n = Long.bitCount(z ^ (z >>> 1));
+        return (n < 24) ? z ^ 0xaaaaaaaaaaaaaaaaL : z;
+    }
+}
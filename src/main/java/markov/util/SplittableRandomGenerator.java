@@ -0,0 +1,63 @@
+package markov.util;
+
+/**
+ * A random generator which can be split into independent generators, one per
+ * thread or task, instead of sharing a single synchronized one. Splitting is
+ * deterministic, so a tree of generators split from a seeded root always
+ * produces the same values. Instances are not thread safe.
+ */
+public interface SplittableRandomGenerator extends RandomGenerator {
+
+    /**
+     * Returns a pseudorandom long value, uniformly distributed over all
+     * possible long values.
+     *
+     * @return a pseudorandom long value
+     */
+    long nextLong();
+
+    /**
+     * Returns a new generator, statistically independent of this one. Both
+     * generators advance this generator's state, so the values produced by
+     * either depend on when the split happened, but never on threads.
+     *
+     * @return a new generator
+     */
+    SplittableRandomGenerator split();
+
+    @Override
+    default long nextLong(long min, long max) {
+        if (min >= max) {
+            throw new IllegalArgumentException("min must be less than max");
+        }
+        long r = nextLong();
+        long n = max - min;
+        long m = n - 1;
+        if ((n & m) == 0L) { // n is a power of 2
+            return (r & m) + min;
+        } else if (n > 0L) { // Reject over-represented candidates
+            for (long u = r >>> 1; u + m - (r = u % n) < 0L; u = nextLong() >>> 1) {
+            }
+            return r + min;
+        }
+        // The range is not representable as a long
+        while (r < min || r >= max) {
+            r = nextLong();
+        }
+        return r;
+    }
+
+    @Override
+    default int nextInt(int min, int max) {
+        if (min >= max) {
+            throw new IllegalArgumentException("min must be less than max");
+        }
+        return (int) nextLong(min, (long) max);
+    }
+
+    @Override
+    default double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+}
@@ -0,0 +1,85 @@
+package markov.util;
+
+/**
+ * The xoroshiro128++ generator, with a period of 2<sup>128</sup> - 1. Splitting
+ * hands out the current position and jumps this generator 2<sup>64</sup>
+ * values ahead, so generators split from the same root never overlap unless
+ * one of them draws more than 2<sup>64</sup> values.
+ */
+public class XoroshiroRandomGenerator implements SplittableRandomGenerator {
+
+    private static final long[] JUMP = { 0x2bd7a6a6e99c2ddcL, 0x0992ccaf6a6fca05L };
+    private static final long[] LONG_JUMP = { 0x360fd5f2cf8d5d99L, 0x9c6e6877736c46e3L };
+
+    private long s0;
+    private long s1;
+
+    /**
+     * Constructs a new generator whose state is derived from the specified
+     * seed.
+     * 
+     * @param seed
+     *            the seed of the generator
+     */
+    public XoroshiroRandomGenerator(long seed) {
+        SplitMix64RandomGenerator expander = new SplitMix64RandomGenerator(seed);
+        this.s0 = expander.nextLong();
+        this.s1 = expander.nextLong();
+        if ((s0 | s1) == 0) {
+            s1 = 1;
+        }
+    }
+
+    private XoroshiroRandomGenerator(long s0, long s1) {
+        this.s0 = s0;
+        this.s1 = s1;
+    }
+
+    @Override
+    public long nextLong() {
+        long a = s0;
+        long b = s1;
+        long result = Long.rotateLeft(a + b, 17) + a;
+        b ^= a;
+        s0 = Long.rotateLeft(a, 49) ^ b ^ (b << 21);
+        s1 = Long.rotateLeft(b, 28);
+        return result;
+    }
+
+    @Override
+    public XoroshiroRandomGenerator split() {
+        XoroshiroRandomGenerator split = new XoroshiroRandomGenerator(s0, s1);
+        jump();
+        return split;
+    }
+
+    /**
+     * Advances this generator 2<sup>64</sup> values.
+     */
+    public void jump() {
+        jump(JUMP);
+    }
+
+    /**
+     * Advances this generator 2<sup>96</sup> values.
+     */
+    public void longJump() {
+        jump(LONG_JUMP);
+    }
+
+    private void jump(long[] polynomial) {
+        long j0 = 0;
+        long j1 = 0;
+        for (long word : polynomial) {
+            for (int bit = 0; bit < 64; bit++) {
+                if ((word & (1L << bit)) != 0) {
+                    j0 ^= s0;
+                    j1 ^= s1;
+                }
+                nextLong();
+            }
+        }
+        s0 = j0;
+        s1 = j1;
+    }
+}
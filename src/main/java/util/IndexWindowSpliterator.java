@@ -0,0 +1,246 @@
+package util;
+
+import java.nio.IntBuffer;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Slides a window over a random access source without copying any elements.
+ * Every window is a flyweight view holding nothing but an offset into the
+ * source, and each spliterator reuses a single view. The range of windows can
+ * be split in halves, every split getting its own view, so the windows can be
+ * consumed in parallel.
+ */
+abstract class IndexWindowSpliterator<W> implements Spliterator<W> {
+
+    final int windowSize;
+    // The offset of the next window, and one past the offset of the last
+    private int index;
+    private final int fence;
+
+    /**
+     * Creates a spliterator over all windows of a source of the specified
+     * length. A source shorter than the window size has a single window.
+     */
+    IndexWindowSpliterator(int length, int windowSize) {
+        this(Math.min(length, windowSize), 0, length == 0 ? 0 : Math.max(length - windowSize + 1, 1));
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("Window size may not be < 1");
+        }
+    }
+
+    IndexWindowSpliterator(int windowSize, int index, int fence) {
+        this.windowSize = windowSize;
+        this.index = index;
+        this.fence = fence;
+    }
+
+    /**
+     * Moves the view of this spliterator to the specified offset and returns
+     * it.
+     */
+    abstract W moveTo(int offset);
+
+    /**
+     * Returns a new spliterator of the windows at the specified offsets.
+     */
+    abstract IndexWindowSpliterator<W> slice(int index, int fence);
+
+    @Override
+    public boolean tryAdvance(Consumer<? super W> action) {
+        if (index >= fence) {
+            return false;
+        }
+        action.accept(moveTo(index++));
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super W> action) {
+        while (index < fence) {
+            action.accept(moveTo(index++));
+        }
+    }
+
+    @Override
+    public Spliterator<W> trySplit() {
+        int middle = (index + fence) >>> 1;
+        if (middle <= index) {
+            return null;
+        }
+        Spliterator<W> prefix = slice(index, middle);
+        index = middle;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        return fence - index;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+    }
+
+    static class OfArray extends IndexWindowSpliterator<IntWindow> {
+
+        private final int[] source;
+        private final View view = new View();
+
+        OfArray(int[] source, int windowSize) {
+            super(source.length, windowSize);
+            this.source = source;
+        }
+
+        private OfArray(int[] source, int windowSize, int index, int fence) {
+            super(windowSize, index, fence);
+            this.source = source;
+        }
+
+        @Override
+        IntWindow moveTo(int offset) {
+            view.offset = offset;
+            return view;
+        }
+
+        @Override
+        IndexWindowSpliterator<IntWindow> slice(int index, int fence) {
+            return new OfArray(source, windowSize, index, fence);
+        }
+
+        private class View implements IntWindow {
+
+            private int offset;
+
+            @Override
+            public int size() {
+                return windowSize;
+            }
+
+            @Override
+            public int get(int index) {
+                if (index < 0 || index >= windowSize) {
+                    throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + windowSize);
+                }
+                return source[offset + index];
+            }
+
+            @Override
+            public long offset() {
+                return offset;
+            }
+
+            @Override
+            public int[] toArray() {
+                int[] array = new int[windowSize];
+                System.arraycopy(source, offset, array, 0, windowSize);
+                return array;
+            }
+        }
+    }
+
+    static class OfBuffer extends IndexWindowSpliterator<IntWindow> {
+
+        private final IntBuffer source;
+        // The position of the buffer when windowing started
+        private final int start;
+        private final View view = new View();
+
+        OfBuffer(IntBuffer source, int windowSize) {
+            super(source.remaining(), windowSize);
+            this.source = source;
+            this.start = source.position();
+        }
+
+        private OfBuffer(IntBuffer source, int start, int windowSize, int index, int fence) {
+            super(windowSize, index, fence);
+            this.source = source;
+            this.start = start;
+        }
+
+        @Override
+        IntWindow moveTo(int offset) {
+            view.offset = offset;
+            return view;
+        }
+
+        @Override
+        IndexWindowSpliterator<IntWindow> slice(int index, int fence) {
+            return new OfBuffer(source, start, windowSize, index, fence);
+        }
+
+        private class View implements IntWindow {
+
+            private int offset;
+
+            @Override
+            public int size() {
+                return windowSize;
+            }
+
+            @Override
+            public int get(int index) {
+                if (index < 0 || index >= windowSize) {
+                    throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + windowSize);
+                }
+                // Absolute reads leave the buffer untouched, which makes them
+                // safe from several threads
+                return source.get(start + offset + index);
+            }
+
+            @Override
+            public long offset() {
+                return offset;
+            }
+        }
+    }
+
+    static class OfList<T> extends IndexWindowSpliterator<List<T>> {
+
+        private final List<T> source;
+        private final View view = new View();
+
+        OfList(List<T> source, int windowSize) {
+            super(source.size(), windowSize);
+            this.source = source;
+        }
+
+        private OfList(List<T> source, int windowSize, int index, int fence) {
+            super(windowSize, index, fence);
+            this.source = source;
+        }
+
+        @Override
+        List<T> moveTo(int offset) {
+            view.offset = offset;
+            return view;
+        }
+
+        @Override
+        IndexWindowSpliterator<List<T>> slice(int index, int fence) {
+            return new OfList<>(source, windowSize, index, fence);
+        }
+
+        private class View extends AbstractList<T> implements RandomAccess {
+
+            private int offset;
+
+            @Override
+            public T get(int index) {
+                if (index < 0 || index >= windowSize) {
+                    throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + windowSize);
+                }
+                return source.get(offset + index);
+            }
+
+            @Override
+            public int size() {
+                return windowSize;
+            }
+        }
+    }
+}
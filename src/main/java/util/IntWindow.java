@@ -0,0 +1,59 @@
+package util;
+
+import java.util.stream.IntStream;
+
+/**
+ * A read-only window of ints, handed out by {@link WindowedStream}. Windows
+ * are views which are usually reused for the next window, so they must be
+ * copied, for instance with {@link #toArray()}, to be kept.
+ */
+public interface IntWindow {
+
+    /**
+     * Returns the number of elements in this window.
+     * 
+     * @return the number of elements in this window
+     */
+    int size();
+
+    /**
+     * Returns the position of the first element of this window in the source.
+     * 
+     * @return the position of this window
+     */
+    long offset();
+
+    /**
+     * Returns the element at the specified position in this window.
+     * 
+     * @param index
+     *            the position of the element, starting at 0
+     * @return the element at the specified position
+     * @throws IndexOutOfBoundsException
+     *             if index < 0 or index >= size()
+     */
+    int get(int index);
+
+    /**
+     * Returns a copy of the elements in this window.
+     * 
+     * @return a new array of the elements in this window
+     */
+    default int[] toArray() {
+        int[] array = new int[size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = get(i);
+        }
+        return array;
+    }
+
+    /**
+     * Returns a stream of the elements in this window.
+     * 
+     * @return a stream of the elements in this window
+     */
+    default IntStream stream() {
+        return IntStream.range(0, size())
+                .map(this::get);
+    }
+}
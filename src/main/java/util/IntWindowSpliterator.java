@@ -0,0 +1,126 @@
+package util;
+
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+
+/**
+ * The primitive counterpart of {@link WindowSpliterator}. The last
+ * <em>windowSize</em> ints are kept in a ring buffer, of which every consumer
+ * is handed the same read-only view.
+ */
+class IntWindowSpliterator implements Spliterator<IntWindow> {
+
+    private final Spliterator.OfInt source;
+    private final int windowSize;
+
+    private final int[] ring;
+    // Index of the oldest element in the ring
+    private int head;
+    private int count;
+    private long offset;
+    private final IntWindow view = new View();
+
+    private boolean initialized = false;
+
+    IntWindowSpliterator(Spliterator.OfInt source, int windowSize) {
+        if (windowSize < 1) {
+            throw new IllegalArgumentException("Window size may not be < 1");
+        }
+        if (source == null) {
+            throw new NullPointerException("Spliterator may not be null");
+        }
+        this.source = source;
+        this.windowSize = windowSize;
+        this.ring = new int[windowSize];
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super IntWindow> action) {
+        if (!hasNext()) {
+            return false;
+        }
+        action.accept(view);
+        slide();
+        return true;
+    }
+
+    @Override
+    public Spliterator<IntWindow> trySplit() {
+        return null;
+    }
+
+    @Override
+    public long estimateSize() {
+        long size = source.estimateSize();
+        if (size == Long.MAX_VALUE) {
+            return size;
+        }
+        if (initialized) {
+            // The current window has not been consumed yet
+            return count == 0 ? 0 : size + 1;
+        }
+        if (size == 0) {
+            return 0;
+        } else if (size < windowSize) {
+            return 1;
+        }
+        return size - windowSize + 1;
+    }
+
+    @Override
+    public int characteristics() {
+        int characteristics = NONNULL | (source.characteristics() & ORDERED);
+        if (source.hasCharacteristics(SIZED)) {
+            characteristics |= SIZED | SUBSIZED;
+        }
+        return characteristics;
+    }
+
+    private boolean hasNext() {
+        if (!initialized) {
+            while (count < windowSize && source.tryAdvance((IntConsumer) this::offer)) {
+                count++;
+            }
+            initialized = true;
+        }
+        return count > 0;
+    }
+
+    private void slide() {
+        if (count < windowSize || !source.tryAdvance((IntConsumer) this::replaceOldest)) {
+            count = 0;
+        }
+    }
+
+    private void offer(int element) {
+        ring[(head + count) % windowSize] = element;
+    }
+
+    private void replaceOldest(int element) {
+        ring[head] = element;
+        head = (head + 1) % windowSize;
+        offset++;
+    }
+
+    private class View implements IntWindow {
+
+        @Override
+        public int size() {
+            return count;
+        }
+
+        @Override
+        public int get(int index) {
+            if (index < 0 || index >= count) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+            }
+            return ring[(head + index) % windowSize];
+        }
+
+        @Override
+        public long offset() {
+            return offset;
+        }
+    }
+}
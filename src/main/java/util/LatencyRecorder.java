@@ -0,0 +1,122 @@
+package util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free latency histogram. Values are recorded into log-linear buckets:
+ * every power of two is split into 16 sub-buckets, so a reported percentile is
+ * at most about 6% above the true value. Recording is a couple of atomic
+ * increments and may happen from any number of threads.
+ */
+public class LatencyRecorder {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+
+    /**
+     * Records the specified latency.
+     * 
+     * @param nanos
+     *            the latency in nanoseconds, negative values are recorded as
+     *            zero
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucketOf(value));
+        total.increment();
+        sum.add(value);
+    }
+
+    /**
+     * Returns the number of recorded latencies.
+     * 
+     * @return the number of recorded latencies
+     */
+    public long getCount() {
+        return total.sum();
+    }
+
+    /**
+     * Returns the mean of the recorded latencies.
+     * 
+     * @param unit
+     *            the unit of the returned value
+     * @return the mean latency, or 0 if nothing has been recorded
+     */
+    public double getMean(TimeUnit unit) {
+        long count = total.sum();
+        if (count == 0) {
+            return 0;
+        }
+        return (double) sum.sum() / count / unit.toNanos(1);
+    }
+
+    /**
+     * Returns an upper bound of the specified percentile of the recorded
+     * latencies.
+     * 
+     * @param percentile
+     *            the percentile, between 0 and 100
+     * @param unit
+     *            the unit of the returned value
+     * @return the percentile, or 0 if nothing has been recorded
+     * @throws IllegalArgumentException
+     *             if the percentile is not between 0 and 100
+     */
+    public double getPercentile(double percentile, TimeUnit unit) {
+        if (!(percentile >= 0 && percentile <= 100)) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100: " + percentile);
+        }
+        long count = total.sum();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += counts.get(bucket);
+            if (seen >= rank) {
+                return (double) upperBoundOf(bucket) / unit.toNanos(1);
+            }
+        }
+        return (double) upperBoundOf(BUCKETS - 1) / unit.toNanos(1);
+    }
+
+    /**
+     * Forgets all recorded latencies. Latencies recorded concurrently may or
+     * may not be forgotten.
+     */
+    public void reset() {
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            counts.set(bucket, 0);
+        }
+        total.reset();
+        sum.reset();
+    }
+
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int sub = (int) (value >>> shift) - SUB_BUCKETS;
+        return (shift + 1) * SUB_BUCKETS + sub;
+    }
+
+    private static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        long lower = (SUB_BUCKETS + sub) << shift;
+        return lower + (1L << shift) - 1;
+    }
+}
@@ -9,6 +9,7 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.stream.Collectors;
 
+import markov.DenseMarkovChain;
 import markov.MarkovChain;
 import markov.ProbabilityMapping;
 import markov.TokenSequence;
@@ -116,6 +117,59 @@ public class MatrixPrinter {
         }
     }
 
+    /**
+     * Prints the transition probabilities of the specified dense chain, one row
+     * per state and one column per token. Only really works with tiny Markov
+     * chains.
+     * 
+     * @param chain
+     *            the chain to be printed as a transition matrix
+     * @param out
+     *            the stream to which the contents will be printed
+     */
+    public static <T> void printAsMatrix(DenseMarkovChain<T> chain, PrintStream out) {
+        List<TokenSequence<T>> rows = chain.getStates();
+        List<T> cols = chain.getTokens();
+
+        int maxTokenLength = cols.stream()
+                .map(String::valueOf)
+                .mapToInt(String::length)
+                .max()
+                .orElse(1);
+        int maxRowLength = rows.stream()
+                .map(MatrixPrinter::formatSequence)
+                .mapToInt(String::length)
+                .max()
+                .orElse(1);
+        int length = Math.max(maxTokenLength, 5) + 4;
+        int whitespaceAtBeginLength = maxRowLength + 2;
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(leftPad(" ", whitespaceAtBeginLength));
+        sb.append("|");
+        for (T col : cols) {
+            sb.append(leftPad(String.valueOf(col), length));
+        }
+        out.println(sb.toString());
+        out.println(replicate("-", sb.length()));
+        for (TokenSequence<T> row : rows) {
+            sb.setLength(0);
+            sb.append(rightPad(formatSequence(row), whitespaceAtBeginLength));
+            sb.append("|");
+            for (double probability : chain.getProbabilities(row)) {
+                sb.append(leftPad(String.format("%.3f", probability), length));
+            }
+            out.println(sb.toString());
+        }
+    }
+
+    private static <T> String formatSequence(TokenSequence<T> sequence) {
+        return sequence.getTokens()
+                .stream()
+                .map(String::valueOf)
+                .collect(Collectors.joining(" "));
+    }
+
     private static String leftPad(String text, int outputLength) {
         int toPad = outputLength - text.length();
         if (toPad < 1) {
@@ -1,22 +1,62 @@
 package util;
 
-import java.util.ArrayDeque;
-import java.util.Deque;
-import java.util.LinkedList;
+import java.util.AbstractList;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.RandomAccess;
 import java.util.Spliterator;
 import java.util.function.Consumer;
 
+/**
+ * Turns a spliterator of elements into a spliterator of sliding windows. The
+ * last <em>windowSize</em> elements are kept in a ring buffer. Depending on
+ * the mode, every window is either copied out of the ring buffer, or the
+ * consumer is handed a read-only view of it which is only valid until the next
+ * window is requested. If the source has fewer elements than the window size,
+ * a single shorter window is produced.
+ */
 public class WindowSpliterator<T> implements Spliterator<List<T>> {
 
     private final Spliterator<T> source;
     private final int windowSize;
+    private final boolean reuseWindow;
 
-    private final Deque<T> nextWindow;
+    private final Object[] ring;
+    // Index of the oldest element in the ring
+    private int head;
+    private int count;
+    private final List<T> view = new View();
 
     boolean initalized = false;
 
+    /**
+     * Constructs a new spliterator copying every window into a new list.
+     * 
+     * @param source
+     *            the elements to slide the window over
+     * @param windowSize
+     *            the size of each window
+     * @throws IllegalArgumentException
+     *             if windowSize < 1
+     */
     public WindowSpliterator(Spliterator<T> source, int windowSize) {
+        this(source, windowSize, false);
+    }
+
+    /**
+     * Constructs a new spliterator. If reuseWindow is true, every window is the
+     * same read-only list, which changes once the next window is requested.
+     * 
+     * @param source
+     *            the elements to slide the window over
+     * @param windowSize
+     *            the size of each window
+     * @param reuseWindow
+     *            whether to hand out a view instead of copying every window
+     * @throws IllegalArgumentException
+     *             if windowSize < 1
+     */
+    public WindowSpliterator(Spliterator<T> source, int windowSize, boolean reuseWindow) {
         if (windowSize < 1) {
             throw new IllegalArgumentException("Window size may not be < 1");
         }
@@ -25,16 +65,18 @@ public class WindowSpliterator<T> implements Spliterator<List<T>> {
         }
         this.source = source;
         this.windowSize = windowSize;
-        this.nextWindow = new ArrayDeque<>(windowSize);
+        this.reuseWindow = reuseWindow;
+        this.ring = new Object[windowSize];
     }
 
     @Override
     public boolean tryAdvance(Consumer<? super List<T>> action) {
-        if (hasNext()) {
-            action.accept(getNextWindow());
-            return true;
+        if (!hasNext()) {
+            return false;
         }
-        return false;
+        action.accept(reuseWindow ? view : new ArrayList<>(view));
+        slide();
+        return true;
     }
 
     @Override
@@ -45,51 +87,71 @@ public class WindowSpliterator<T> implements Spliterator<List<T>> {
     @Override
     public long estimateSize() {
         long size = source.estimateSize();
+        if (size == Long.MAX_VALUE) {
+            return size;
+        }
+        if (initalized) {
+            // The current window has not been consumed yet
+            return count == 0 ? 0 : size + 1;
+        }
         if (size == 0) {
             return 0;
-        } else if (size <= windowSize) {
+        } else if (size < windowSize) {
             return 1;
         }
-        return size - windowSize;
+        return size - windowSize + 1;
     }
 
     @Override
     public int characteristics() {
-        return source.characteristics() & ~(Spliterator.SIZED | Spliterator.ORDERED);
-    }
-
-    private void nextWindow() {
-        if (nextWindow.isEmpty()) {
-            return;
-        }
-        nextWindow.removeFirst();
-        source.tryAdvance(nextWindow::offer);
-    }
-
-    private void fillInitialWindow() {
-        for (int i = windowSize; i > 0; i--) {
-            if (!source.tryAdvance(nextWindow::offer)) {
-                return;
-            }
+        // Windows are neither sorted nor necessarily distinct, whatever the
+        // elements are
+        int characteristics = NONNULL | (source.characteristics() & ORDERED);
+        if (source.hasCharacteristics(SIZED)) {
+            characteristics |= SIZED | SUBSIZED;
         }
+        return characteristics;
     }
 
     private boolean hasNext() {
         if (!initalized) {
-            fillInitialWindow();
+            while (count < windowSize && source.tryAdvance(this::offer)) {
+                count++;
+            }
             initalized = true;
         }
-        return !nextWindow.isEmpty();
+        return count > 0;
+    }
+
+    private void offer(T element) {
+        ring[(head + count) % windowSize] = element;
     }
 
-    private List<T> getNextWindow() {
-        List<T> window = new LinkedList<>(nextWindow);
-        nextWindow();
-        if (nextWindow.size() != windowSize) {
-            nextWindow.clear();
+    private void slide() {
+        if (count < windowSize || !source.tryAdvance(this::replaceOldest)) {
+            count = 0;
         }
+    }
 
-        return window;
+    private void replaceOldest(T element) {
+        ring[head] = element;
+        head = (head + 1) % windowSize;
     }
 
+    private class View extends AbstractList<T> implements RandomAccess {
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T get(int index) {
+            if (index < 0 || index >= count) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+            }
+            return (T) ring[(head + index) % windowSize];
+        }
+
+        @Override
+        public int size() {
+            return count;
+        }
+    }
 }
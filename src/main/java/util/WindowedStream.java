@@ -1,7 +1,10 @@
 package util;
 
+import java.nio.IntBuffer;
 import java.util.List;
+import java.util.RandomAccess;
 import java.util.Spliterator;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
@@ -23,4 +26,93 @@ public class WindowedStream {
                 .onClose(source::close);
     }
 
+    /**
+     * Returns a sliding window in the form of a Stream of read-only lists,
+     * without copying any elements. Every window is the same list, which
+     * changes once the next window is requested. The windows must therefore be
+     * consumed one at a time, and copied if they are to be kept.
+     *
+     * @param source
+     *            the original stream which will be partitioned into windows
+     * @param windowSize
+     *            the size of each window
+     * @return a stream of views of equally sized windows
+     */
+    public static <T> Stream<List<T>> windowedViews(Stream<T> source, int windowSize) {
+        Spliterator<List<T>> spliterator = new WindowSpliterator<>(source.spliterator(), windowSize, true);
+        return StreamSupport.stream(spliterator, false)
+                .onClose(source::close);
+    }
+
+    /**
+     * Returns a sliding window over the specified ints, without boxing or
+     * copying any elements. Every window is the same view, which changes once
+     * the next window is requested, see {@link IntWindow}.
+     *
+     * @param source
+     *            the original stream which will be partitioned into windows
+     * @param windowSize
+     *            the size of each window
+     * @return a stream of views of equally sized windows
+     */
+    public static Stream<IntWindow> windowedInts(IntStream source, int windowSize) {
+        Spliterator<IntWindow> spliterator = new IntWindowSpliterator(source.spliterator(), windowSize);
+        return StreamSupport.stream(spliterator, false)
+                .onClose(source::close);
+    }
+
+    /**
+     * Returns a sliding window over the specified ints, without copying any
+     * elements. Every window is a view of the array which is reused for the
+     * next window, see {@link IntWindow}. The stream splits evenly, so the
+     * windows of large arrays can be consumed in parallel.
+     *
+     * @param source
+     *            the array which will be partitioned into windows
+     * @param windowSize
+     *            the size of each window
+     * @return a stream of views of equally sized windows
+     */
+    public static Stream<IntWindow> windowedInts(int[] source, int windowSize) {
+        return StreamSupport.stream(new IndexWindowSpliterator.OfArray(source, windowSize), false);
+    }
+
+    /**
+     * Returns a sliding window over the remaining ints of the specified buffer,
+     * for instance a memory-mapped file of token ids, without copying any
+     * elements. Every window is a view of the buffer which is reused for the
+     * next window, see {@link IntWindow}. The position of the buffer is not
+     * changed, and the stream splits evenly, so the windows can be consumed in
+     * parallel.
+     *
+     * @param source
+     *            the buffer which will be partitioned into windows
+     * @param windowSize
+     *            the size of each window
+     * @return a stream of views of equally sized windows
+     */
+    public static Stream<IntWindow> windowedInts(IntBuffer source, int windowSize) {
+        return StreamSupport.stream(new IndexWindowSpliterator.OfBuffer(source, windowSize), false);
+    }
+
+    /**
+     * Returns a sliding window in the form of a Stream of read-only views of
+     * the specified list. Every window is a view which is reused for the next
+     * window. If the list supports random access, no elements are copied and
+     * the stream splits evenly, so the windows can be consumed in parallel.
+     * Otherwise, see {@link #windowedViews(Stream, int)}.
+     *
+     * @param source
+     *            the list which will be partitioned into windows
+     * @param windowSize
+     *            the size of each window
+     * @return a stream of views of equally sized windows
+     */
+    public static <T> Stream<List<T>> windowedViews(List<T> source, int windowSize) {
+        if (!(source instanceof RandomAccess)) {
+            return windowedViews(source.stream(), windowSize);
+        }
+        return StreamSupport.stream(new IndexWindowSpliterator.OfList<>(source, windowSize), false);
+    }
+
 }
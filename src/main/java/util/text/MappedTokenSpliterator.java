@@ -0,0 +1,199 @@
+package util.text;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Emits the tokens of a byte range of a UTF-8 file. The range is memory-mapped
+ * one chunk at a time and decoded incrementally, so only a chunk and the
+ * current token are ever held on the heap. Splitting halves the byte range at
+ * an ASCII delimiter, which can never be part of a multi-byte character.
+ * <p>
+ * Each spliterator opens the file once, on first use, and closes it when it
+ * is exhausted or closed.
+ */
+class MappedTokenSpliterator implements Spliterator<String>, Closeable {
+
+    // How far past the middle of a range a split looks for a delimiter
+    private static final int MAX_SPLIT_SCAN = 1 << 20;
+    private static final int MIN_SPLIT_SIZE = 1 << 16;
+
+    private final Path path;
+    private final Tokenizer tokenizer;
+    private final int chunkSize;
+    private long position;
+    private long end;
+
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final StringBuilder token = new StringBuilder();
+    private FileChannel channel;
+    private CharBuffer chars;
+    private boolean flushed;
+
+    MappedTokenSpliterator(Path path, Tokenizer tokenizer, long start, long end, int chunkSize) {
+        this.path = path;
+        this.tokenizer = tokenizer;
+        this.position = start;
+        this.end = end;
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super String> action) {
+        while (true) {
+            if (chars != null && chars.hasRemaining()) {
+                String next = scan();
+                if (next != null) {
+                    action.accept(next);
+                    return true;
+                }
+                continue;
+            }
+            if (position < end) {
+                decodeNextChunk();
+                continue;
+            }
+            if (!flushed) {
+                flushed = true;
+                String last = emit();
+                if (last != null) {
+                    action.accept(last);
+                    return true;
+                }
+            }
+            close();
+            return false;
+        }
+    }
+
+    @Override
+    public Spliterator<String> trySplit() {
+        if (chars != null || end - position < MIN_SPLIT_SIZE) {
+            return null;
+        }
+        long middle = position + (end - position) / 2;
+        long split = findDelimiter(middle, Math.min(end, middle + MAX_SPLIT_SCAN));
+        if (split < 0) {
+            return null;
+        }
+        MappedTokenSpliterator prefix = new MappedTokenSpliterator(path, tokenizer, position, split, chunkSize);
+        position = split;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        // Roughly the number of bytes per token in English text
+        return (end - position) / 6;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL | IMMUTABLE;
+    }
+
+    private String scan() {
+        while (chars.hasRemaining()) {
+            char c = chars.get();
+            if (tokenizer.isDelimiter(c)) {
+                String next = emit();
+                if (next != null) {
+                    return next;
+                }
+            } else {
+                token.append(c);
+            }
+        }
+        return null;
+    }
+
+    private String emit() {
+        if (token.length() == 0) {
+            return null;
+        }
+        String next = tokenizer.normalize(token.toString());
+        token.setLength(0);
+        return next == null || next.isEmpty() ? null : next;
+    }
+
+    private void decodeNextChunk() {
+        int length = (int) Math.min(chunkSize, end - position);
+        MappedByteBuffer bytes = map(position, length);
+        // Sized for the chunk at hand, small files never get a full chunk
+        if (chars == null || chars.capacity() < length + 1) {
+            chars = CharBuffer.allocate(length + 1);
+        }
+        chars.clear();
+        boolean last = position + length == end;
+        decoder.decode(bytes, chars, last);
+        if (last) {
+            decoder.flush(chars);
+        }
+        if (bytes.position() == 0 && !last) {
+            // A single character straddles the chunk, which can only happen
+            // with chunks smaller than a character
+            throw new IllegalStateException("Chunk size too small");
+        }
+        // Undecoded trailing bytes of a split character are mapped again
+        position += bytes.position();
+        if (last) {
+            position = end;
+        }
+        chars.flip();
+    }
+
+    private long findDelimiter(long from, long to) {
+        if (from >= to) {
+            return -1;
+        }
+        MappedByteBuffer bytes = map(from, (int) (to - from));
+        for (int i = 0; i < bytes.limit(); i++) {
+            byte b = bytes.get(i);
+            if (b >= 0 && tokenizer.isDelimiter((char) b)) {
+                return from + i;
+            }
+        }
+        return -1;
+    }
+
+    private MappedByteBuffer map(long offset, int length) {
+        try {
+            if (channel == null) {
+                channel = FileChannel.open(path, StandardOpenOption.READ);
+            }
+            // The mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Closes the file, it is opened again if the spliterator is used further.
+     */
+    @Override
+    public void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                channel = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package util.text;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.IntPredicate;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Splits UTF-8 text files into tokens. Files are memory-mapped and decoded
+ * incrementally, so tokens are produced lazily without ever reading a whole
+ * file onto the heap. The returned streams can be made parallel, in which case
+ * large files are split at delimiters and tokenized concurrently.
+ * <p>
+ * Instances are immutable. Delimiters are tested one UTF-16 char at a time.
+ */
+public final class Tokenizer {
+
+    static final int DEFAULT_CHUNK_SIZE = 1 << 24;
+
+    private final IntPredicate delimiters;
+    private final UnaryOperator<String> normalizer;
+    private final ConcurrentMap<String, String> interned;
+    private final int chunkSize;
+
+    private Tokenizer(IntPredicate delimiters, UnaryOperator<String> normalizer,
+            ConcurrentMap<String, String> interned, int chunkSize) {
+        this.delimiters = delimiters;
+        this.normalizer = normalizer;
+        this.interned = interned;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Returns a tokenizer splitting on whitespace, without any normalization.
+     * 
+     * @return a tokenizer splitting on whitespace
+     */
+    public static Tokenizer whitespace() {
+        return new Tokenizer(Character::isWhitespace, UnaryOperator.identity(), null, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Returns a copy of this tokenizer splitting on the specified characters.
+     * 
+     * @param delimiters
+     *            tests whether a character separates tokens
+     * @return a copy of this tokenizer
+     */
+    public Tokenizer withDelimiters(IntPredicate delimiters) {
+        return new Tokenizer(Objects.requireNonNull(delimiters), normalizer, interned, chunkSize);
+    }
+
+    /**
+     * Returns a copy of this tokenizer which transforms every token with the
+     * specified function, for instance {@code String::toLowerCase}. Tokens
+     * normalized to an empty string are dropped.
+     * 
+     * @param normalizer
+     *            the function applied to every token
+     * @return a copy of this tokenizer
+     */
+    public Tokenizer withNormalizer(UnaryOperator<String> normalizer) {
+        return new Tokenizer(delimiters, Objects.requireNonNull(normalizer), interned, chunkSize);
+    }
+
+    /**
+     * Returns a copy of this tokenizer which hands out a single instance per
+     * distinct token. A corpus repeats its vocabulary over and over, so this
+     * saves considerable memory when the tokens are retained. The returned
+     * tokenizer keeps every distinct token it has seen.
+     * 
+     * @return a copy of this tokenizer
+     */
+    public Tokenizer withInterning() {
+        return new Tokenizer(delimiters, normalizer, new ConcurrentHashMap<>(), chunkSize);
+    }
+
+    Tokenizer withChunkSize(int chunkSize) {
+        return new Tokenizer(delimiters, normalizer, interned, chunkSize);
+    }
+
+    /**
+     * Returns a lazy stream of the tokens of the specified file. The file is
+     * closed once the stream is exhausted or closed.
+     * 
+     * @param path
+     *            the UTF-8 encoded file
+     * @return a stream of tokens
+     * @throws UncheckedIOException
+     *             if the file could not be read
+     */
+    public Stream<String> tokens(Path path) {
+        long size;
+        try {
+            size = Files.size(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        MappedTokenSpliterator spliterator = new MappedTokenSpliterator(path, this, 0, size, chunkSize);
+        return StreamSupport.stream(spliterator, false)
+                .onClose(spliterator::close);
+    }
+
+    /**
+     * Returns a lazy stream of the tokens of the specified files, in order.
+     * 
+     * @param paths
+     *            the UTF-8 encoded files
+     * @return a stream of tokens
+     * @throws UncheckedIOException
+     *             if a file could not be read
+     */
+    public Stream<String> tokens(Collection<Path> paths) {
+        return paths.stream()
+                .flatMap(this::tokens);
+    }
+
+    /**
+     * Returns a stream of documents, each consisting of the tokens of one of
+     * the specified files. The files are tokenized lazily, once their document
+     * is consumed, which makes this suitable for ingesting many small files in
+     * parallel.
+     * 
+     * @param paths
+     *            the UTF-8 encoded files
+     * @return a stream of documents, in the order of the specified files
+     * @throws UncheckedIOException
+     *             if a file could not be read
+     */
+    public Stream<Stream<String>> documents(Collection<Path> paths) {
+        return paths.stream()
+                .map(this::tokens);
+    }
+
+    boolean isDelimiter(char c) {
+        return delimiters.test(c);
+    }
+
+    String normalize(String token) {
+        String normalized = normalizer.apply(token);
+        if (interned == null || normalized == null) {
+            return normalized;
+        }
+        String previous = interned.putIfAbsent(normalized, normalized);
+        return previous == null ? normalized : previous;
+    }
+}
@@ -0,0 +1,92 @@
+package core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+import markov.MarkovChain;
+import markov.Sampler;
+import markov.util.XoroshiroRandomGenerator;
+
+public class GenerationBatcherTest {
+
+    @Test
+    public void testGenerates() throws Exception {
+        try (GenerationBatcher<Integer> batcher = new GenerationBatcher<>(createChain(), 8, 1,
+                TimeUnit.MILLISECONDS)) {
+            List<Integer> walk = batcher.submit(10, 1, Sampler.standard())
+                    .get(10, TimeUnit.SECONDS);
+            assertEquals(10, walk.size());
+            assertEquals(walk, batcher.submit(10, 1, Sampler.standard())
+                    .get(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void testBatchedWalksMatchStreams() throws Exception {
+        MarkovChain<Integer> chain = new MarkovChain<>(2);
+        Random random = new Random(3);
+        chain.add(IntStream.range(0, 5000)
+                .mapToObj(i -> random.nextInt(20)));
+        MarkovChain<Integer> frozen = chain.freeze();
+        Sampler sampler = Sampler.standard()
+                .withTopK(5);
+        try (GenerationBatcher<Integer> batcher = new GenerationBatcher<>(frozen, 64, 50, TimeUnit.MILLISECONDS)) {
+            List<CompletableFuture<List<Integer>>> futures = new ArrayList<>();
+            for (int i = 0; i < 32; i++) {
+                futures.add(batcher.submit(i * 7, i, sampler));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                List<Integer> expected = frozen.stream(new XoroshiroRandomGenerator(i), sampler)
+                        .limit(i * 7)
+                        .collect(Collectors.toList());
+                assertEquals(expected, futures.get(i)
+                        .get(10, TimeUnit.SECONDS));
+            }
+            assertTrue(batcher.getAverageBatchSize() > 1);
+        }
+    }
+
+    @Test
+    public void testCloseCompletesEveryRequest() throws InterruptedException, TimeoutException {
+        for (int round = 0; round < 20; round++) {
+            // A long delay keeps the worker collecting when closed
+            GenerationBatcher<Integer> batcher = new GenerationBatcher<>(createChain(), 1000, 10, TimeUnit.SECONDS);
+            List<CompletableFuture<List<Integer>>> futures = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                futures.add(batcher.submit(5, i, Sampler.standard()));
+            }
+            Thread closer = new Thread(batcher::close);
+            closer.start();
+            for (int i = 0; i < 10; i++) {
+                futures.add(batcher.submit(5, i, Sampler.standard()));
+            }
+            closer.join();
+            for (CompletableFuture<List<Integer>> future : futures) {
+                try {
+                    future.get(10, TimeUnit.SECONDS);
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof IllegalStateException);
+                }
+            }
+        }
+    }
+
+    private static MarkovChain<Integer> createChain() {
+        MarkovChain<Integer> chain = new MarkovChain<>(1);
+        chain.add(Stream.of(1, 2, 3, 1, 3, 2));
+        return chain.freeze();
+    }
+}
@@ -0,0 +1,165 @@
+package core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import markov.MarkovChain;
+
+public class GenerationServerTest {
+
+    private GenerationServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        MarkovChain<String> chain = new MarkovChain<>(1);
+        chain.add(Stream.of("the", "cat", "sat", "on", "the", "mat", "and", "the", "cat", "slept"));
+        server = new GenerationServer(chain, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Test
+    public void testGenerateIsReproducible() throws IOException {
+        String first = get("/generate?length=20&seed=5");
+        String second = get("/generate?length=20&seed=5");
+        assertTrue(first, first.startsWith("{\"tokens\":["));
+        assertEquals(first, second);
+    }
+
+    @Test
+    public void testLengthIsBounded() throws IOException {
+        assertEquals(200, status("/generate?length=10000"));
+        assertEquals(400, status("/generate?length=10001"));
+        assertEquals(400, status("/generate?length=2000000000"));
+        assertEquals(400, status("/generate?length=-1"));
+    }
+
+    @Test
+    public void testTopK() throws IOException {
+        assertEquals("{\"tokens\":[\"cat\",\"mat\"]}", get("/topk?context=the&k=2"));
+        assertEquals(400, status("/topk?context=the+cat&k=2"));
+    }
+
+    @Test
+    public void testScore() throws IOException {
+        String response = post("/score", "the cat sat");
+        assertTrue(response, response.contains("\"transitions\":2"));
+        assertTrue(response, response.contains("\"unseenContexts\":0"));
+    }
+
+    @Test
+    public void testScoreBodyIsBounded() throws IOException {
+        StringBuilder body = new StringBuilder();
+        while (body.length() <= 1 << 20) {
+            body.append("the cat ");
+        }
+        HttpURLConnection connection = open("/score");
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(body.toString()
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+        assertEquals(413, connection.getResponseCode());
+    }
+
+    @Test
+    public void testConcurrentRequestsAndStats() throws Exception {
+        ExecutorService clients = Executors.newFixedThreadPool(8);
+        List<Future<String>> responses = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            int seed = i;
+            responses.add(clients.submit(() -> get("/generate?length=30&topK=2&seed=" + seed)));
+        }
+        for (Future<String> response : responses) {
+            assertTrue(response.get()
+                    .startsWith("{\"tokens\":["));
+        }
+        clients.shutdown();
+        String stats = get("/stats");
+        assertTrue(stats, stats.contains("\"/generate\":{\"requests\":200"));
+        assertTrue(stats, stats.contains("p99Micros"));
+        assertTrue(stats, stats.contains("tokensPerSecond"));
+        stats = get("/stats");
+        assertTrue(stats, stats.contains("\"/stats\":{\"requests\":1"));
+    }
+
+    @Test
+    public void testTimeout() throws IOException {
+        MarkovChain<String> chain = new MarkovChain<>(1);
+        chain.add(Stream.of("a", "b"));
+        // Shorter than the batching delay and the walk
+        GenerationServer impatient = new GenerationServer(chain,
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 2_000_000, 1, TimeUnit.NANOSECONDS);
+        impatient.start();
+        try {
+            InetSocketAddress address = impatient.getAddress();
+            URL url = new URL("http", address.getHostString(), address.getPort(), "/generate?length=2000000");
+            assertEquals(503, ((HttpURLConnection) url.openConnection()).getResponseCode());
+        } finally {
+            impatient.stop();
+        }
+    }
+
+    private String get(String path) throws IOException {
+        HttpURLConnection connection = open(path);
+        return read(connection.getInputStream());
+    }
+
+    private int status(String path) throws IOException {
+        return open(path).getResponseCode();
+    }
+
+    private String post(String path, String body) throws IOException {
+        HttpURLConnection connection = open(path);
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+        return read(connection.getInputStream());
+    }
+
+    private HttpURLConnection open(String path) throws IOException {
+        InetSocketAddress address = server.getAddress();
+        URL url = new URL("http", address.getHostString(), address.getPort(), path);
+        return (HttpURLConnection) url.openConnection();
+    }
+
+    private String read(InputStream in) throws IOException {
+        try (InputStream stream = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = stream.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package markov;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+import markov.util.RandomGenerator;
+import markov.util.SeededRandomGenerator;
+import test_utils.TestUtility;
+
+public class BeamSearchTest {
+
+    @Test
+    public void testInvalidArguments() {
+        MarkovChain<Integer> chain = new MarkovChain<>(1);
+        chain.add(Stream.of(1, 2));
+        TestUtility.shouldThrowException("Did not throw IllegalArgumentException", IllegalArgumentException.class,
+                () -> chain.beamSearch(new TokenSequence<>(1), 2, 0));
+        TestUtility.shouldThrowException("Did not throw IllegalArgumentException", IllegalArgumentException.class,
+                () -> chain.beamSearch(new TokenSequence<>(1), -1, 2));
+    }
+
+    @Test
+    public void testUnknownStart() {
+        MarkovChain<Integer> chain = new MarkovChain<>(1);
+        chain.add(Stream.of(1, 2));
+        assertTrue(chain.beamSearch(new TokenSequence<>(3), 2, 2)
+                .isEmpty());
+    }
+
+    @Test
+    public void testDeterministicChain() {
+        MarkovChain<Integer> chain = new MarkovChain<>(2);
+        chain.add(Stream.of(1, 2, 3, 4, 5));
+        List<Continuation<Integer>> result = chain.beamSearch(new TokenSequence<>(1, 2), 7, 3);
+        assertEquals(1, result.size());
+        assertEquals(Arrays.asList(3, 4, 5, 1, 2, 3, 4), result.get(0)
+                .getTokens());
+        assertEquals(0, result.get(0)
+                .getLogProbability(), 1e-12);
+    }
+
+    @Test
+    public void testBeatsGreedy() {
+        // Greedily, "a" is followed by "b" (2/3), after which four tokens are
+        // equally likely. "c d" has probability 1/3 which beats 2/3 * 1/4
+        MarkovChain<String> chain = new MarkovChain<>(1);
+        chain.add(Stream.of("a", "b", "w", "a", "b", "x", "a", "b", "y", "a", "c", "d", "a", "c", "d"));
+        chain.add(Stream.of("a", "b", "z"));
+        List<Continuation<String>> result = chain.beamSearch(new TokenSequence<>("a"), 2, 2);
+        assertEquals(Arrays.asList("c", "d"), result.get(0)
+                .getTokens());
+        assertEquals(1 / 3.0, result.get(0)
+                .getProbability(), 1e-9);
+        assertTrue(result.get(0)
+                .getLogProbability() >= result.get(1)
+                        .getLogProbability());
+    }
+
+    @Test
+    public void testParallelMatchesSequential() {
+        RandomGenerator gen = new SeededRandomGenerator(42);
+        MarkovChain<Integer> chain = new MarkovChain<>(2);
+        chain.add(IntStream.generate(() -> gen.nextInt(0, 30))
+                .limit(20000)
+                .boxed());
+        TokenSequence<Integer> start = chain.getMatrix()
+                .keySet()
+                .iterator()
+                .next();
+        List<List<Integer>> sequential = tokens(new BeamSearch<>(chain, 200, false).search(start, 6));
+        List<List<Integer>> parallel = tokens(new BeamSearch<>(chain, 200, true).search(start, 6));
+        assertEquals(200, sequential.size());
+        assertEquals(sequential, parallel);
+    }
+
+    private List<List<Integer>> tokens(List<Continuation<Integer>> continuations) {
+        return continuations.stream()
+                .map(Continuation::getTokens)
+                .collect(Collectors.toList());
+    }
+}
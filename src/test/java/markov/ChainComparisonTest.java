@@ -0,0 +1,100 @@
+package markov;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+import markov.util.RandomGenerator;
+import markov.util.SeededRandomGenerator;
+import test_utils.TestUtility;
+
+public class ChainComparisonTest {
+
+    @Test
+    public void testIdenticalChains() {
+        MarkovChain<Integer> chain = new MarkovChain<>(2);
+        chain.add(randomStream(new SeededRandomGenerator(1), 10_000));
+        Drift drift = chain.compareWith(chain)
+                .compare();
+        assertEquals(chain.getMatrix()
+                .size(), drift.getCommonStates());
+        assertEquals(0, drift.getAddedStates());
+        assertEquals(0, drift.getRemovedStates());
+        assertEquals(0, drift.getKlDivergence(), 1e-12);
+        assertEquals(0, drift.getJsDivergence(), 1e-12);
+    }
+
+    @Test
+    public void testSingleState() {
+        MarkovChain<String> before = new MarkovChain<>(1);
+        before.add(Stream.of("a", "b", "a", "c", "a", "b", "a", "c", "x"));
+        MarkovChain<String> after = new MarkovChain<>(1);
+        after.add(Stream.of("a", "b", "a", "b", "a", "b", "a", "b", "y"));
+        ChainComparison<String> comparison = before.compareWith(after);
+        StateDivergence<String> a = comparison.divergences()
+                .filter(d -> d.getState()
+                        .equals(new TokenSequence<>("a")))
+                .findAny()
+                .get();
+        double m1 = 0.75;
+        double m2 = 0.25;
+        double js = (0.5 * Math.log(0.5 / m1) + 0.5 * Math.log(0.5 / m2)) / 2 + Math.log(1 / m1) / 2;
+        assertEquals(js, a.getJsDivergence(), 1e-12);
+        // Smoothed, before is (0.5, 0.5) and after is (0.9, 0.1)
+        double kl = 0.9 * Math.log(0.9 / 0.5) + 0.1 * Math.log(0.1 / 0.5);
+        assertEquals(kl, a.getKlDivergence(), 1e-12);
+
+        assertEquals(Arrays.asList(new TokenSequence<>("y")), comparison.addedStates()
+                .collect(Collectors.toList()));
+        assertEquals(2, comparison.removedStates()
+                .count());
+        Drift drift = comparison.compare();
+        assertEquals(2, drift.getCommonStates());
+        assertEquals(1, drift.getAddedStates());
+        assertEquals(2, drift.getRemovedStates());
+        assertEquals(1.0 / 9, drift.getAddedMass(), 1e-12);
+        assertEquals(3.0 / 9, drift.getRemovedMass(), 1e-12);
+    }
+
+    @Test
+    public void testMostChanged() {
+        MarkovChain<Integer> before = new MarkovChain<>(1);
+        before.add(randomStream(new SeededRandomGenerator(1), 50_000));
+        MarkovChain<Integer> after = new MarkovChain<>(1);
+        after.add(randomStream(new SeededRandomGenerator(2), 50_000));
+        ChainComparison<Integer> comparison = before.compareWith(after);
+        List<Double> expected = comparison.divergences()
+                .map(StateDivergence::getJsDivergence)
+                .sorted(Comparator.reverseOrder())
+                .limit(10)
+                .collect(Collectors.toList());
+        List<StateDivergence<Integer>> actual = comparison.mostChanged(10);
+        assertEquals(expected, actual.stream()
+                .map(StateDivergence::getJsDivergence)
+                .collect(Collectors.toList()));
+        assertTrue(comparison.mostChanged(0)
+                .isEmpty());
+        TestUtility.shouldThrowException("Did not throw a IllegalArgumentException", IllegalArgumentException.class,
+                () -> comparison.mostChanged(-1));
+    }
+
+    @Test
+    public void testDifferentOrders() {
+        TestUtility.shouldThrowException("Did not throw a IllegalArgumentException", IllegalArgumentException.class,
+                () -> new MarkovChain<Integer>(1).compareWith(new MarkovChain<>(2)));
+    }
+
+    private Stream<Integer> randomStream(RandomGenerator gen, int length) {
+        return IntStream.generate(() -> gen.nextInt(0, 100))
+                .limit(length)
+                .boxed();
+    }
+}
@@ -0,0 +1,44 @@
+package markov;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+import markov.util.SeededRandomGenerator;
+
+public class ChainMetricsTest {
+
+    @Test
+    public void testCounters() {
+        long ingested = ChainMetrics.getTokensIngested();
+        long created = ChainMetrics.getStatesCreated();
+        long generated = ChainMetrics.getTokensGenerated();
+        long lookups = ChainMetrics.getLookupLatency()
+                .getCount();
+        long samples = ChainMetrics.getSamplingLatency()
+                .getCount();
+
+        MarkovChain<Integer> chain = new MarkovChain<>(1);
+        chain.add(Stream.of(1, 2, 3, 1, 2));
+        chain.add(Stream.of(4, 1));
+        chain.stream(new SeededRandomGenerator(1))
+                .limit(10)
+                .forEach(token -> {
+                });
+        chain.freeze()
+                .tryNextRandomly(new TokenSequence<>(1));
+
+        int enabled = ChainMetrics.ENABLED ? 1 : 0;
+        assertEquals(7 * enabled, ChainMetrics.getTokensIngested() - ingested);
+        assertEquals(4 * enabled, ChainMetrics.getStatesCreated() - created);
+        // The first element of the stream is picked from the states, the
+        // last one generated by tryNextRandomly
+        assertEquals(10 * enabled, ChainMetrics.getTokensGenerated() - generated);
+        assertEquals(10 * enabled, ChainMetrics.getLookupLatency()
+                .getCount() - lookups);
+        assertEquals(10 * enabled, ChainMetrics.getSamplingLatency()
+                .getCount() - samples);
+    }
+}
@@ -0,0 +1,242 @@
+package markov;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import markov.util.SeededRandomGenerator;
+
+public class ChainPublisherTest {
+
+    private ExecutorService executor;
+    private MarkovChain<Integer> chain;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(2);
+        chain = new MarkovChain<>(2);
+        chain.add(IntStream.range(0, 10)
+                .boxed()
+                .collect(Collectors.toList())
+                .stream());
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testRespectsDemand() throws InterruptedException {
+        ChainPublisher<Integer> publisher = new ChainPublisher<>(chain, new TokenSequence<>(0, 1),
+                () -> new SeededRandomGenerator(1), Long.MAX_VALUE, executor);
+        RecordingSubscriber subscriber = new RecordingSubscriber(5);
+        publisher.subscribe(subscriber);
+        subscriber.awaitItems(5);
+        Thread.sleep(50);
+        assertEquals(5, subscriber.items.size());
+
+        subscriber.subscription.request(1000);
+        subscriber.awaitItems(1005);
+        subscriber.subscription.cancel();
+        List<Integer> expected = IntStream.range(0, 1005)
+                .map(i -> i % 10)
+                .boxed()
+                .collect(Collectors.toList());
+        assertEquals(expected, subscriber.snapshot());
+        assertNull(subscriber.error);
+    }
+
+    @Test
+    public void testLimitCompletes() throws InterruptedException {
+        ChainPublisher<Integer> publisher = new ChainPublisher<>(chain, new TokenSequence<>(3, 4),
+                () -> new SeededRandomGenerator(1), 12, executor);
+        RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE);
+        publisher.subscribe(subscriber);
+        assertTrue(subscriber.terminated.await(5, TimeUnit.SECONDS));
+        assertEquals(12, subscriber.items.size());
+        assertEquals(3, (int) subscriber.items.get(0));
+    }
+
+    @Test
+    public void testLimitZeroCompletes() throws InterruptedException {
+        ChainPublisher<Integer> publisher = new ChainPublisher<>(chain, null, () -> new SeededRandomGenerator(1), 0,
+                executor);
+        RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE);
+        publisher.subscribe(subscriber);
+        assertTrue(subscriber.terminated.await(5, TimeUnit.SECONDS));
+        Thread.sleep(50);
+        assertEquals(0, subscriber.items.size());
+        assertEquals(1, subscriber.terminations.get());
+        assertFalse(subscriber.overlapped);
+    }
+
+    @Test
+    public void testInvalidRequest() throws InterruptedException {
+        RecordingSubscriber subscriber = new RecordingSubscriber(0);
+        chain.publisher(executor)
+                .subscribe(subscriber);
+        subscriber.subscription.request(-1);
+        assertTrue(subscriber.terminated.await(5, TimeUnit.SECONDS));
+        assertTrue(subscriber.error instanceof IllegalArgumentException);
+        assertEquals(1, subscriber.terminations.get());
+    }
+
+    @Test
+    public void testInvalidRequestWhileEmitting() throws InterruptedException {
+        RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE);
+        chain.publisher(executor)
+                .subscribe(subscriber);
+        subscriber.awaitItems(1000);
+        subscriber.subscription.request(0);
+        assertTrue(subscriber.terminated.await(5, TimeUnit.SECONDS));
+        Thread.sleep(50);
+        assertTrue(subscriber.error instanceof IllegalArgumentException);
+        assertEquals(1, subscriber.terminations.get());
+        assertFalse(subscriber.overlapped);
+    }
+
+    @Test
+    public void testRejectedExecutionSignalsError() throws InterruptedException {
+        RecordingSubscriber subscriber = new RecordingSubscriber(10);
+        chain.publisher(task -> {
+            throw new RejectedExecutionException();
+        })
+                .subscribe(subscriber);
+        assertTrue(subscriber.terminated.await(5, TimeUnit.SECONDS));
+        assertTrue(subscriber.error instanceof RejectedExecutionException);
+        assertEquals(1, subscriber.terminations.get());
+    }
+
+    @Test
+    public void testManySessionsOnSharedExecutor() throws InterruptedException {
+        int sessions = 2000;
+        CountDownLatch completed = new CountDownLatch(sessions);
+        AtomicInteger received = new AtomicInteger();
+        ChainPublisher<Integer> publisher = new ChainPublisher<>(chain, null, () -> new SeededRandomGenerator(1),
+                1000, executor);
+        for (int i = 0; i < sessions; i++) {
+            publisher.subscribe(new Flow.Subscriber<Integer>() {
+
+                private Flow.Subscription subscription;
+                private int count;
+
+                @Override
+                public void onSubscribe(Flow.Subscription subscription) {
+                    this.subscription = subscription;
+                    subscription.request(100);
+                }
+
+                @Override
+                public void onNext(Integer item) {
+                    received.incrementAndGet();
+                    if (++count % 100 == 0) {
+                        subscription.request(100);
+                    }
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                }
+
+                @Override
+                public void onComplete() {
+                    completed.countDown();
+                }
+            });
+        }
+        assertTrue(completed.await(30, TimeUnit.SECONDS));
+        assertEquals(sessions * 1000, received.get());
+    }
+
+    private static class RecordingSubscriber implements Flow.Subscriber<Integer> {
+
+        private final long initialRequest;
+        private final List<Integer> items = new ArrayList<>();
+        private final CountDownLatch terminated = new CountDownLatch(1);
+        private final AtomicInteger terminations = new AtomicInteger();
+        private final AtomicBoolean signalling = new AtomicBoolean();
+        private volatile boolean overlapped;
+        private volatile Flow.Subscription subscription;
+        private volatile Throwable error;
+
+        RecordingSubscriber(long initialRequest) {
+            this.initialRequest = initialRequest;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (initialRequest > 0) {
+                subscription.request(initialRequest);
+            }
+        }
+
+        @Override
+        public void onNext(Integer item) {
+            enter();
+            synchronized (this) {
+                items.add(item);
+                notifyAll();
+            }
+            exit();
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            enter();
+            error = throwable;
+            terminations.incrementAndGet();
+            terminated.countDown();
+            exit();
+        }
+
+        @Override
+        public void onComplete() {
+            enter();
+            terminations.incrementAndGet();
+            terminated.countDown();
+            exit();
+        }
+
+        // Detects signals which are not serialized
+        private void enter() {
+            if (!signalling.compareAndSet(false, true)) {
+                overlapped = true;
+            }
+        }
+
+        private void exit() {
+            signalling.set(false);
+        }
+
+        synchronized void awaitItems(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5000;
+            while (items.size() < count && System.currentTimeMillis() < deadline) {
+                wait(100);
+            }
+        }
+
+        synchronized List<Integer> snapshot() {
+            return new ArrayList<>(items);
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package markov;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+public class ChainStatsTest {
+
+    @Test
+    public void testStructure() {
+        MarkovChain<Integer> chain = new MarkovChain<>(1);
+        chain.add(Stream.of(1, 2, 1, 3, 1, 4, 1, 5, 2, 3));
+        ChainStats stats = chain.stats();
+        assertEquals(5, stats.getStates());
+        // 1 -> 2,3,4,5; 2 -> 1,3; 3 -> 1; 4 -> 1; 5 -> 2
+        assertEquals(9, stats.getTransitions());
+        assertEquals(10, stats.getTotalCount());
+        assertEquals(4, stats.getMaxDegree());
+        assertEquals(1.8, stats.getMeanDegree(), 1e-9);
+        assertArrayEquals(new long[] { 3, 1, 1 }, stats.getDegreeHistogram());
+    }
+
+    @Test
+    public void testBytes() {
+        MarkovChain<Integer> chain = new MarkovChain<>(2);
+        chain.add(Stream.of(1, 2, 3, 1, 2, 4));
+        ChainStats mutable = chain.stats();
+        assertEquals(0, mutable.getFilterBytes());
+        assertEquals(0, mutable.getIndexBytes());
+        assertTrue(mutable.getTableBytes() > 0);
+        assertTrue(mutable.getSequenceBytes() > 0);
+        assertTrue(mutable.getMappingBytes() > 0);
+        assertEquals(mutable.getTableBytes() + mutable.getSequenceBytes() + mutable.getMappingBytes(),
+                mutable.getEstimatedBytes());
+
+        ChainStats frozen = chain.freeze()
+                .stats();
+        assertTrue(frozen.getFilterBytes() > 0);
+        assertTrue(frozen.getIndexBytes() > 0);
+        assertEquals(mutable.getMappingBytes(), frozen.getMappingBytes());
+        assertTrue(frozen.getEstimatedBytes() > mutable.getEstimatedBytes());
+    }
+
+    @Test
+    public void testEmpty() {
+        ChainStats stats = new MarkovChain<String>(3).stats();
+        assertEquals(0, stats.getStates());
+        assertEquals(0, stats.getMaxDegree());
+        assertEquals(0, stats.getMeanDegree(), 0);
+        assertEquals(0, stats.getDegreeHistogram().length);
+    }
+}
@@ -0,0 +1,117 @@
+package markov;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+import markov.util.SeededRandomGenerator;
+import test_utils.TestUtility;
+
+public class ConcurrentMarkovChainTest {
+
+    @Test
+    public void testSnapshotIsFrozen() {
+        ConcurrentMarkovChain<Integer> chain = new ConcurrentMarkovChain<>(1);
+        chain.add(Stream.of(1, 2, 3));
+        assertTrue(chain.snapshot()
+                .isFrozen());
+        TestUtility.shouldThrowException("Did not throw a UnsupportedOperationException",
+                UnsupportedOperationException.class, () -> chain.snapshot()
+                        .add(Stream.of(1)));
+    }
+
+    @Test
+    public void testInFlightWalkKeepsSnapshot() {
+        ConcurrentMarkovChain<Integer> chain = new ConcurrentMarkovChain<>(1);
+        chain.add(Stream.of(1, 2, 3));
+        Iterator<Integer> walk = chain.stream(new TokenSequence<>(1), new SeededRandomGenerator(1))
+                .iterator();
+        MarkovChain<Integer> before = chain.snapshot();
+
+        chain.add(Stream.of(1, 4, 5));
+
+        assertNotSame(before, chain.snapshot());
+        List<Integer> expected = Arrays.asList(1, 2, 3, 1, 2, 3, 1);
+        for (int expectedValue : expected) {
+            assertEquals(expectedValue, (int) walk.next());
+        }
+        assertEquals(3, before.getMatrix()
+                .size());
+        assertEquals(5, chain.snapshot()
+                .getMatrix()
+                .size());
+    }
+
+    @Test
+    public void testUnchangedStatesAreShared() {
+        ConcurrentMarkovChain<Integer> chain = new ConcurrentMarkovChain<>(1);
+        chain.add(Stream.of(1, 2, 3));
+        MarkovChain<Integer> before = chain.snapshot();
+        chain.add(Stream.of(3, 4));
+        MarkovChain<Integer> after = chain.snapshot();
+        TokenSequence<Integer> untouched = new TokenSequence<>(1);
+        TokenSequence<Integer> touched = new TokenSequence<>(3);
+        assertSame(before.getMatrix()
+                .get(untouched),
+                after.getMatrix()
+                        .get(untouched));
+        assertNotSame(before.getMatrix()
+                .get(touched),
+                after.getMatrix()
+                        .get(touched));
+        assertEquals(1, before.getMatrix()
+                .get(touched)
+                .getTotalValues());
+        assertEquals(2, after.getMatrix()
+                .get(touched)
+                .getTotalValues());
+    }
+
+    @Test
+    public void testReadersDuringUpdates() throws InterruptedException {
+        ConcurrentMarkovChain<Integer> chain = new ConcurrentMarkovChain<>(2);
+        chain.add(randomTokens(1, 1000));
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            try {
+                while (!done.get()) {
+                    chain.stream(new SeededRandomGenerator(3))
+                            .limit(100)
+                            .count();
+                }
+            } catch (Throwable e) {
+                failure.set(e);
+            }
+        });
+        reader.start();
+        for (int i = 0; i < 50; i++) {
+            chain.add(randomTokens(i, 200));
+        }
+        done.set(true);
+        reader.join();
+        assertFalse(String.valueOf(failure.get()), failure.get() != null);
+    }
+
+    private Stream<Integer> randomTokens(long seed, int count) {
+        SeededRandomGenerator gen = new SeededRandomGenerator(seed);
+        return IntStream.generate(() -> gen.nextInt(0, 20))
+                .limit(count)
+                .boxed()
+                .collect(Collectors.toList())
+                .stream();
+    }
+}
@@ -0,0 +1,63 @@
+package markov;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+public class ContextFilterTest {
+
+    @Test
+    public void testNoFalseNegatives() {
+        List<TokenSequence<Integer>> states = sequences(0, 100_000);
+        ContextFilter filter = new ContextFilter(states);
+        for (TokenSequence<Integer> state : states) {
+            assertTrue(filter.mightContain(state));
+        }
+    }
+
+    @Test
+    public void testFalsePositiveRate() {
+        ContextFilter filter = new ContextFilter(sequences(0, 100_000));
+        long falsePositives = sequences(100_000, 200_000).stream()
+                .filter(filter::mightContain)
+                .count();
+        // Under 1% is expected, these states measure 0.85%
+        assertTrue("False positives: " + falsePositives, falsePositives < 1_000);
+    }
+
+    @Test
+    public void testPlus() {
+        ContextFilter filter = new ContextFilter(sequences(0, 10_000));
+        ContextFilter plus = filter.plus(sequences(10_000, 11_000), 11_000);
+        for (TokenSequence<Integer> state : sequences(0, 11_000)) {
+            assertTrue(plus.mightContain(state));
+        }
+        assertEquals(filter.sizeInBytes(), plus.sizeInBytes());
+        // The original filter is left untouched
+        assertTrue(sequences(10_000, 11_000).stream()
+                .filter(filter::mightContain)
+                .count() < 100);
+        assertNull(filter.plus(sequences(10_000, 100_000), 100_000));
+    }
+
+    @Test
+    public void testEmpty() {
+        ContextFilter filter = new ContextFilter(Collections.emptyList());
+        assertFalse(filter.mightContain(new TokenSequence<>(1, 2)));
+        assertTrue(filter.sizeInBytes() > 0);
+    }
+
+    private static List<TokenSequence<Integer>> sequences(int from, int to) {
+        return IntStream.range(from, to)
+                .mapToObj(i -> new TokenSequence<>(i / 1000, i % 1000))
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,101 @@
+package markov;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+import markov.util.RandomGenerator;
+import markov.util.SeededRandomGenerator;
+import test_utils.TestUtility;
+
+public class DenseMarkovChainTest {
+
+    private final RandomGenerator gen = new SeededRandomGenerator(42);
+
+    @Test
+    public void testProbabilities() {
+        MarkovChain<String> chain = new MarkovChain<>(1);
+        chain.add(Stream.of("a", "b", "a", "b", "a", "c", "a", "d", "a", "b"));
+        DenseMarkovChain<String> dense = chain.toDense();
+        TokenSequence<String> a = new TokenSequence<>("a");
+        assertEquals(0.6, dense.getProbability(a, "b"), 1e-12);
+        assertEquals(0.2, dense.getProbability(a, "c"), 1e-12);
+        assertEquals(0, dense.getProbability(a, "a"), 0);
+        assertEquals(0, dense.getProbability(new TokenSequence<>("x"), "a"), 0);
+        assertEquals(1, IntStream.range(0, 4)
+                .mapToDouble(i -> dense.getProbabilities(a)[i])
+                .sum(), 1e-12);
+        TestUtility.shouldThrowException("Did not throw a IllegalArgumentException", IllegalArgumentException.class,
+                () -> dense.getProbabilities(new TokenSequence<>("x")));
+    }
+
+    @Test
+    public void testSamplingFollowsCounts() {
+        MarkovChain<String> chain = new MarkovChain<>(1);
+        chain.add(Stream.of("a", "b", "a", "b", "a", "b", "a", "c", "a", "d"));
+        DenseMarkovChain<String> dense = chain.toDense();
+        Map<String, Long> histogram = Stream.generate(() -> dense.getNextRandomly(new TokenSequence<>("a"), gen))
+                .limit(100_000)
+                .collect(Collectors.groupingBy(s -> s, Collectors.counting()));
+        assertEquals(0.6, histogram.get("b") / 100_000.0, 0.01);
+        assertEquals(0.2, histogram.get("c") / 100_000.0, 0.01);
+        assertEquals(0.2, histogram.get("d") / 100_000.0, 0.01);
+    }
+
+    @Test
+    public void testDeterministicWalk() {
+        MarkovChain<Integer> chain = new MarkovChain<>(3);
+        chain.add(IntStream.range(0, 50)
+                .boxed());
+        List<Integer> walk = chain.toDense()
+                .stream(new TokenSequence<>(0, 1, 2), gen)
+                .limit(100)
+                .collect(Collectors.toList());
+        assertArrayEquals(IntStream.range(0, 100)
+                .map(i -> i % 50)
+                .toArray(), walk.stream()
+                        .mapToInt(Integer::intValue)
+                        .toArray());
+    }
+
+    @Test
+    public void testZeroColumnsAreNeverSampled() {
+        MarkovChain<String> chain = new MarkovChain<>(1);
+        // 49 * (1 / 49) rounds to just below 1
+        chain.add(Stream.concat(IntStream.range(0, 49)
+                .boxed()
+                .flatMap(i -> Stream.of("a", "b")), Stream.of("c", "d", "e", "f", "g")));
+        DenseMarkovChain<String> dense = chain.toDense();
+        for (TokenSequence<String> state : dense.getStates()) {
+            int row = dense.getStates()
+                    .indexOf(state);
+            for (double fraction : new double[] { 0, 0.5, Math.nextDown(1.0) }) {
+                String token = dense.getTokens()
+                        .get(dense.sample(row, fraction));
+                assertTrue(chain.getMatrix()
+                        .get(state)
+                        .getMapping()
+                        .containsKey(token));
+            }
+        }
+    }
+
+    @Test
+    public void testIndependentOfChain() {
+        MarkovChain<Integer> chain = new MarkovChain<>(1);
+        chain.add(Stream.of(1, 2));
+        DenseMarkovChain<Integer> dense = chain.toDense();
+        chain.add(Stream.of(1, 3));
+        assertEquals(1, dense.getProbability(new TokenSequence<>(1), 2), 0);
+        assertEquals(2, dense.getStates()
+                .size());
+    }
+}
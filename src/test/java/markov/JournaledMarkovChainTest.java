@@ -0,0 +1,198 @@
+package markov;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import test_utils.TestUtility;
+
+public class JournaledMarkovChainTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testRecoverFromJournal() throws IOException {
+        Path dir = folder.getRoot()
+                .toPath();
+        MarkovChain<String> expected = new MarkovChain<>(2);
+        long journalSize;
+        try (JournaledMarkovChain<String> chain = JournaledMarkovChain.open(dir, 2, TokenCodec.strings())) {
+            chain.add(Stream.of("the", "cat", "sat", "on", "the", "mat"));
+            chain.add(Stream.of("the", "cat", "ran"));
+            expected.add(Stream.of("the", "cat", "sat", "on", "the", "mat"));
+            expected.add(Stream.of("the", "cat", "ran"));
+            assertEquals(expected.getMatrix(), chain.snapshot()
+                    .getMatrix());
+            journalSize = chain.journalSize();
+        }
+        try (JournaledMarkovChain<String> chain = JournaledMarkovChain.open(dir, 2, TokenCodec.strings())) {
+            assertEquals(expected.getMatrix(), chain.snapshot()
+                    .getMatrix());
+            assertEquals(journalSize, chain.journalSize());
+        }
+    }
+
+    @Test
+    public void testRecoverFromCheckpointAndJournal() throws IOException {
+        Path dir = folder.getRoot()
+                .toPath();
+        MarkovChain<Integer> expected = new MarkovChain<>(1);
+        try (JournaledMarkovChain<Integer> chain = JournaledMarkovChain.open(dir, 1, TokenCodec.integers())) {
+            chain.add(Stream.of(1, 2, 3, 1, 2));
+            chain.checkpoint();
+            assertEquals(0, chain.journalSize());
+            chain.add(Stream.of(3, 2, 1));
+            expected.add(Stream.of(1, 2, 3, 1, 2));
+            expected.add(Stream.of(3, 2, 1));
+        }
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(2, files.count());
+        }
+        try (JournaledMarkovChain<Integer> chain = JournaledMarkovChain.open(dir, 1, TokenCodec.integers())) {
+            assertEquals(expected.getMatrix(), chain.snapshot()
+                    .getMatrix());
+        }
+    }
+
+    @Test
+    public void testTornRecordIsDiscarded() throws IOException {
+        Path dir = folder.getRoot()
+                .toPath();
+        MarkovChain<String> expected = new MarkovChain<>(1);
+        try (JournaledMarkovChain<String> chain = JournaledMarkovChain.open(dir, 1, TokenCodec.strings())) {
+            chain.add(Stream.of("a", "b", "c"));
+            expected.add(Stream.of("a", "b", "c"));
+        }
+        Path segment = dir.resolve("journal-1.log");
+        Files.write(segment, new byte[] { 0, 0, 0, 42, 1, 2 }, StandardOpenOption.APPEND);
+        long size = Files.size(segment);
+        try (JournaledMarkovChain<String> chain = JournaledMarkovChain.open(dir, 1, TokenCodec.strings())) {
+            assertEquals(expected.getMatrix(), chain.snapshot()
+                    .getMatrix());
+            chain.add(Stream.of("c", "a"));
+            expected.add(Stream.of("c", "a"));
+        }
+        assertEquals(size - 6, Files.size(segment));
+        try (JournaledMarkovChain<String> chain = JournaledMarkovChain.open(dir, 1, TokenCodec.strings())) {
+            assertEquals(expected.getMatrix(), chain.snapshot()
+                    .getMatrix());
+        }
+    }
+
+    @Test
+    public void testCorruptEarlierSegment() throws IOException {
+        Path dir = folder.getRoot()
+                .toPath();
+        try (JournaledMarkovChain<String> chain = JournaledMarkovChain.open(dir, 1, TokenCodec.strings())) {
+            chain.add(Stream.of("a", "b", "c"));
+        }
+        try (JournaledMarkovChain<String> chain = JournaledMarkovChain.open(dir, 1, TokenCodec.strings())) {
+            chain.add(Stream.of("c", "a"));
+        }
+        Files.write(dir.resolve("journal-1.log"), new byte[] { 0, 0, 0, 42, 1, 2 }, StandardOpenOption.APPEND);
+        TestUtility.shouldThrowException("Did not throw an IOException", IOException.class,
+                () -> JournaledMarkovChain.open(dir, 1, TokenCodec.strings()));
+    }
+
+    @Test
+    public void testOrderMismatch() throws IOException {
+        Path dir = folder.getRoot()
+                .toPath();
+        try (JournaledMarkovChain<String> chain = JournaledMarkovChain.open(dir, 1, TokenCodec.strings())) {
+            chain.add(Stream.of("a", "b", "c"));
+            chain.checkpoint();
+        }
+        TestUtility.shouldThrowException("Did not throw an IllegalArgumentException", IllegalArgumentException.class,
+                () -> JournaledMarkovChain.open(dir, 2, TokenCodec.strings()));
+    }
+
+    @Test
+    public void testConcurrentAddsWithCompaction() throws IOException {
+        Path dir = folder.getRoot()
+                .toPath();
+        MarkovChain<Integer> expected = new MarkovChain<>(2);
+        List<List<Integer>> documents = IntStream.range(0, 64)
+                .mapToObj(i -> IntStream.range(0, 50)
+                        .map(j -> (i * 31 + j * 7) % 13)
+                        .boxed()
+                        .collect(Collectors.toList()))
+                .collect(Collectors.toList());
+        try (JournaledMarkovChain<Integer> chain = JournaledMarkovChain.open(dir, 2, TokenCodec.integers(), 512)) {
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            for (List<Integer> document : documents) {
+                futures.add(CompletableFuture.runAsync(() -> chain.add(document.stream())));
+            }
+            futures.forEach(CompletableFuture::join);
+            documents.forEach(document -> expected.add(document.stream()));
+            assertEquals(expected.getMatrix(), chain.snapshot()
+                    .getMatrix());
+        }
+        try (JournaledMarkovChain<Integer> chain = JournaledMarkovChain.open(dir, 2, TokenCodec.integers())) {
+            assertEquals(expected.getMatrix(), chain.snapshot()
+                    .getMatrix());
+            List<Long> checkpoints = sequences(dir, "checkpoint-", ".mka");
+            assertEquals(1, checkpoints.size());
+            long checkpoint = checkpoints.get(0);
+            long size = 0;
+            for (long sequence : sequences(dir, "journal-", ".log")) {
+                assertTrue(sequence >= checkpoint);
+                size += Files.size(dir.resolve("journal-" + sequence + ".log"));
+            }
+            assertEquals(size, chain.journalSize());
+        }
+    }
+
+    @Test
+    public void testFailedCompactionIsReported() throws IOException {
+        Path dir = folder.getRoot()
+                .toPath();
+        // The first compaction cannot write its checkpoint over a directory
+        Files.createDirectory(dir.resolve("checkpoint-2.tmp"));
+        MarkovChain<String> expected = new MarkovChain<>(1);
+        expected.add(Stream.of("a", "b", "c", "a"));
+        JournaledMarkovChain<String> chain = JournaledMarkovChain.open(dir, 1, TokenCodec.strings(), 1);
+        try (chain) {
+            assertNull(chain.getLastCompactionFailure());
+            chain.add(Stream.of("a", "b", "c", "a"));
+        }
+        assertNotNull(chain.getLastCompactionFailure());
+        long size = 0;
+        for (long sequence : sequences(dir, "journal-", ".log")) {
+            size += Files.size(dir.resolve("journal-" + sequence + ".log"));
+        }
+        assertTrue(size > 0);
+        assertEquals(size, chain.journalSize());
+        try (JournaledMarkovChain<String> recovered = JournaledMarkovChain.open(dir, 1, TokenCodec.strings())) {
+            assertEquals(expected.getMatrix(), recovered.snapshot()
+                    .getMatrix());
+        }
+    }
+
+    private static List<Long> sequences(Path dir, String prefix, String suffix) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.map(path -> path.getFileName()
+                    .toString())
+                    .filter(name -> name.startsWith(prefix) && name.endsWith(suffix))
+                    .map(name -> Long.valueOf(name.substring(prefix.length(), name.length() - suffix.length())))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+}
@@ -1,11 +1,17 @@
 package markov;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
@@ -108,6 +114,120 @@ public class MarkovChainTest {
         assertEquals("Merging Markov chains does not match an equivalent \"unmerged\" Markov chain ", expected, actual);
     }
 
+    @Test
+    public void testFreeze() {
+        MarkovChain<Integer> chain = createChain(1);
+        chain.add(Stream.of(1, 2, 3));
+        MarkovChain<Integer> frozen = chain.freeze();
+        assertTrue(frozen.isFrozen());
+        assertFalse(chain.isFrozen());
+        assertSame(frozen, frozen.freeze());
+        chain.add(Stream.of(4, 5));
+        assertEquals(3, frozen.getMatrix()
+                .size());
+        TestUtility.shouldThrowException("Did not throw a UnsupportedOperationException",
+                UnsupportedOperationException.class, () -> frozen.add(Stream.of(1)));
+    }
+
+    @Test
+    public void testTopK() {
+        MarkovChain<Integer> chain = createChain(1);
+        chain.add(Stream.of(1, 2, 1, 3, 1, 3, 1, 2, 1, 3, 1, 4));
+        assertEquals(Arrays.asList(3, 2), chain.topK(new TokenSequence<>(1), 2));
+        assertTrue(chain.topK(new TokenSequence<>(5), 2)
+                .isEmpty());
+        chain.add(Stream.of(1, 4, 1, 4, 1, 4));
+        assertEquals(Arrays.asList(4, 3, 2), chain.freeze()
+                .topK(new TokenSequence<>(1), 3));
+    }
+
+    @Test
+    public void testTryNextRandomly() {
+        MarkovChain<Integer> chain = createChain(2);
+        chain.add(Stream.of(1, 2, 3, 1, 2, 4));
+        for (MarkovChain<Integer> current : Arrays.asList(chain, chain.freeze())) {
+            assertTrue(current.contains(new TokenSequence<>(1, 2)));
+            assertFalse(current.contains(new TokenSequence<>(2, 1)));
+            assertFalse(current.tryNextRandomly(new TokenSequence<>(2, 1), gen)
+                    .isPresent());
+            assertEquals(Integer.valueOf(1), current.tryNextRandomly(new TokenSequence<>(2, 3), gen)
+                    .get());
+            assertTrue(Arrays.asList(3, 4)
+                    .contains(current.tryNextRandomly(new TokenSequence<>(1, 2), gen)
+                            .get()));
+        }
+    }
+
+    @Test
+    public void testFewerTokensThanOrder() {
+        MarkovChain<Integer> chain = createChain(3);
+        chain.add(Stream.of(1, 2));
+        assertEquals(Long.valueOf(1), chain.getMatrix()
+                .get(new TokenSequence<>(1, 2, 1))
+                .get(2));
+        assertEquals(Long.valueOf(1), chain.getMatrix()
+                .get(new TokenSequence<>(2, 1, 2))
+                .get(1));
+        assertEquals(2, chain.getMatrix()
+                .size());
+    }
+
+    @Test
+    public void testAddDocumentsEqualsAdd() {
+        List<List<Integer>> documents = new ArrayList<>();
+        MarkovChain<Integer> reference = createChain(2);
+        for (int i = 0; i < 500; i++) {
+            List<Integer> document = randomStream(gen, 0, 10).limit(1 + gen.nextInt(0, 40))
+                    .collect(Collectors.toList());
+            documents.add(document);
+            reference.add(document.stream());
+        }
+        MarkovChain<Integer> chain = createChain(2);
+        chain.addDocuments(documents.stream()
+                .map(List::stream));
+        assertEquals(reference.getMatrix(), chain.getMatrix());
+    }
+
+    @Test
+    public void testAddDelimitedDocuments() {
+        MarkovChain<String> chain = new MarkovChain<>(2);
+        chain.addDocuments(Stream.of(Stream.of("a", "b"), Stream.of("a", "c"), Stream.empty()), "<s>", "</s>");
+        Map<TokenSequence<String>, ProbabilityMapping<String>> matrix = chain.getMatrix();
+        assertEquals(Long.valueOf(2), matrix.get(new TokenSequence<>("<s>", "<s>"))
+                .get("a"));
+        assertEquals(Long.valueOf(1), matrix.get(new TokenSequence<>("a", "b"))
+                .get("</s>"));
+        assertEquals(Long.valueOf(2), matrix.get(new TokenSequence<>("</s>", "<s>"))
+                .get("<s>"));
+        assertEquals(null, matrix.get(new TokenSequence<>("c", "a")));
+        List<String> walk = chain.stream(new TokenSequence<>("<s>", "<s>"), gen)
+                .limit(20)
+                .collect(Collectors.toList());
+        assertEquals("</s>", walk.get(4));
+        assertEquals("<s>", walk.get(5));
+    }
+
+    @Test
+    public void testWalksIndependentOfThreads() throws Exception {
+        MarkovChain<Integer> chain = createChain(2);
+        chain.add(randomStream(gen, 0, 20).limit(5000));
+        List<List<Integer>> parallel = chain.walks(2000, 30, 7)
+                .collect(Collectors.toList());
+        List<List<Integer>> sequential = chain.walks(2000, 30, 7)
+                .sequential()
+                .collect(Collectors.toList());
+        List<List<Integer>> singleThread = new ForkJoinPool(1).submit(() -> chain.walks(2000, 30, 7)
+                .collect(Collectors.toList()))
+                .get();
+        assertEquals(2000, parallel.size());
+        assertEquals(30, parallel.get(0)
+                .size());
+        assertEquals(sequential, parallel);
+        assertEquals(sequential, singleThread);
+        assertNotEquals(sequential, chain.walks(2000, 30, 8)
+                .collect(Collectors.toList()));
+    }
+
     @Test
     public void testBasicNthChain() {
         int minOrder = 1;
@@ -0,0 +1,119 @@
+package markov;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import markov.util.RandomGenerator;
+import markov.util.SeededRandomGenerator;
+import test_utils.TestUtility;
+
+public class ModelArchiveTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final RandomGenerator gen = new SeededRandomGenerator(42);
+
+    @Test
+    public void testRoundTripStrings() throws IOException {
+        MarkovChain<String> chain = new MarkovChain<>(2);
+        chain.add(Stream.of("the", "cat", "sat", "on", "the", "mat", "and", "the", "cat", "ran", "ünï"));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ModelArchive.write(chain, TokenCodec.strings(), out);
+        MarkovChain<String> read = ModelArchive.read(new ByteArrayInputStream(out.toByteArray()),
+                TokenCodec.strings());
+        assertEquals(2, read.getOrder());
+        assertEquals(chain.getMatrix(), read.getMatrix());
+    }
+
+    @Test
+    public void testRoundTripManyBlocks() throws IOException {
+        MarkovChain<Integer> chain = randomChain(3, 200_000);
+        Path path = folder.newFile()
+                .toPath();
+        ModelArchive.write(chain, TokenCodec.integers(), path);
+        assertEquals(chain.getMatrix(), ModelArchive.read(path, TokenCodec.integers())
+                .getMatrix());
+        try (ModelArchive.Reader<Integer> reader = ModelArchive.open(path, TokenCodec.integers())) {
+            assertTrue(reader.getBlockCount() > 1);
+            Map<TokenSequence<Integer>, ProbabilityMapping<Integer>> blocks = new HashMap<>();
+            for (int b = 0; b < reader.getBlockCount(); b++) {
+                blocks.putAll(reader.readBlock(b));
+            }
+            assertEquals(chain.getMatrix(), blocks);
+        }
+    }
+
+    @Test
+    public void testSelectiveRead() throws IOException {
+        MarkovChain<Integer> chain = randomChain(2, 100_000);
+        Path path = folder.newFile()
+                .toPath();
+        ModelArchive.write(chain, TokenCodec.integers(), path);
+        try (ModelArchive.Reader<Integer> reader = ModelArchive.open(path, TokenCodec.integers())) {
+            for (Map.Entry<TokenSequence<Integer>, ProbabilityMapping<Integer>> entry : chain.getMatrix()
+                    .entrySet()) {
+                if (entry.getKey()
+                        .hashCode() % 50 == 0) {
+                    assertEquals(entry.getValue(), reader.get(entry.getKey()));
+                }
+            }
+            assertNull(reader.get(new TokenSequence<>(-1, -1)));
+            assertNull(reader.get(new TokenSequence<>(1)));
+        }
+    }
+
+    @Test
+    public void testSmallerThanSerialization() throws IOException {
+        MarkovChain<Integer> chain = randomChain(2, 100_000);
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        ModelArchive.write(chain, TokenCodec.integers(), archive);
+        ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(serialized)) {
+            out.writeObject(new HashMap<>(chain.getMatrix()));
+        }
+        assertTrue(archive.size() * 4 < serialized.size());
+    }
+
+    @Test
+    public void testEmptyChain() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ModelArchive.write(new MarkovChain<String>(3), TokenCodec.strings(), out);
+        assertTrue(ModelArchive.read(new ByteArrayInputStream(out.toByteArray()), TokenCodec.strings())
+                .getMatrix()
+                .isEmpty());
+    }
+
+    @Test
+    public void testNotAnArchive() throws IOException {
+        Path path = folder.newFile()
+                .toPath();
+        Files.write(path, new byte[64]);
+        TestUtility.shouldThrowException("Did not throw an IOException", IOException.class,
+                () -> ModelArchive.read(path, TokenCodec.strings()));
+    }
+
+    private MarkovChain<Integer> randomChain(int order, int length) {
+        MarkovChain<Integer> chain = new MarkovChain<>(order);
+        chain.add(IntStream.generate(() -> gen.nextInt(0, 60) * gen.nextInt(0, 60))
+                .limit(length)
+                .boxed());
+        return chain;
+    }
+}
@@ -0,0 +1,141 @@
+package markov;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import test_utils.TestUtility;
+
+public class ModelRegistryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path dir;
+    private long modelBytes;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = folder.getRoot()
+                .toPath();
+        for (String id : new String[] { "a", "b", "c" }) {
+            MarkovChain<String> chain = new MarkovChain<>(1);
+            chain.add(Stream.of(id, "x", "y", "z"));
+            ModelArchive.write(chain, TokenCodec.strings(), dir.resolve(id + ".mka"));
+            modelBytes = chain.freeze()
+                    .stats()
+                    .getEstimatedBytes();
+        }
+    }
+
+    @Test
+    public void testLoadsOnceAndCaches() {
+        ModelRegistry<String> registry = new ModelRegistry<>(dir, TokenCodec.strings(), Long.MAX_VALUE);
+        MarkovChain<String> a = registry.get("a");
+        assertTrue(a.isFrozen());
+        assertEquals(4, a.getMatrix()
+                .size());
+        assertSame(a, registry.get("a"));
+        assertEquals(1, registry.getHitCount());
+        assertEquals(1, registry.getMissCount());
+        assertEquals(0.5, registry.getHitRate(), 0);
+        assertEquals(1, registry.getLoadLatency()
+                .getCount());
+        assertEquals(modelBytes, registry.getUsedBytes());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        ModelRegistry<String> registry = new ModelRegistry<>(dir, TokenCodec.strings(), 2 * modelBytes);
+        registry.get("a");
+        registry.get("b");
+        registry.get("a");
+        registry.get("c");
+        assertTrue(registry.isLoaded("a"));
+        assertFalse(registry.isLoaded("b"));
+        assertTrue(registry.isLoaded("c"));
+        assertEquals(1, registry.getEvictionCount());
+        assertEquals(2 * modelBytes, registry.getUsedBytes());
+    }
+
+    @Test
+    public void testModelLargerThanBudget() {
+        ModelRegistry<String> registry = new ModelRegistry<>(dir, TokenCodec.strings(), modelBytes / 2);
+        registry.get("a");
+        registry.get("b");
+        assertFalse(registry.isLoaded("a"));
+        assertTrue(registry.isLoaded("b"));
+    }
+
+    @Test
+    public void testExplicitEviction() {
+        ModelRegistry<String> registry = new ModelRegistry<>(dir, TokenCodec.strings(), Long.MAX_VALUE);
+        MarkovChain<String> a = registry.get("a");
+        assertTrue(registry.evict("a"));
+        assertFalse(registry.evict("a"));
+        assertEquals(0, registry.getUsedBytes());
+        assertNotSame(a, registry.get("a"));
+    }
+
+    @Test
+    public void testConcurrentRequestsShareLoad() {
+        ModelRegistry<String> registry = new ModelRegistry<>(dir, TokenCodec.strings(), Long.MAX_VALUE);
+        List<CompletableFuture<MarkovChain<String>>> futures = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            futures.add(CompletableFuture.supplyAsync(() -> registry.get("b")));
+        }
+        MarkovChain<String> first = futures.get(0)
+                .join();
+        futures.forEach(future -> assertSame(first, future.join()));
+        assertEquals(1, registry.getMissCount());
+        assertEquals(15, registry.getHitCount());
+    }
+
+    @Test
+    public void testRelativeDirectory() throws IOException {
+        // A model in the working directory, named so as not to clash
+        String id = "model-registry-test-" + System.nanoTime();
+        Path path = Paths.get(id + ".mka");
+        Files.copy(dir.resolve("a.mka"), path);
+        try {
+            ModelRegistry<String> registry = new ModelRegistry<>(Paths.get("."), TokenCodec.strings(),
+                    Long.MAX_VALUE);
+            assertEquals(4, registry.get(id)
+                    .getMatrix()
+                    .size());
+            TestUtility.shouldThrowException("Did not throw an IllegalArgumentException",
+                    IllegalArgumentException.class, () -> registry.get("../" + id));
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void testMissingModel() {
+        ModelRegistry<String> registry = new ModelRegistry<>(dir, TokenCodec.strings(), Long.MAX_VALUE);
+        TestUtility.shouldThrowException("Did not throw an UncheckedIOException", UncheckedIOException.class,
+                () -> registry.get("missing"));
+        assertFalse(registry.isLoaded("missing"));
+        TestUtility.shouldThrowException("Did not throw an IllegalArgumentException", IllegalArgumentException.class,
+                () -> registry.get("../a"));
+        TestUtility.shouldThrowException("Did not throw an IllegalArgumentException", IllegalArgumentException.class,
+                () -> new ModelRegistry<>(dir, TokenCodec.strings(), -1));
+    }
+}
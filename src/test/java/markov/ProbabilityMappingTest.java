@@ -5,6 +5,8 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 
 import org.junit.Test;
@@ -218,4 +220,31 @@ public class ProbabilityMappingTest {
         Long value = map.getOrDefault(2, 100L);
         assertTrue(value == 100);
     }
+
+    @Test
+    public void testTopK() {
+        ProbabilityMapping<Integer> map = new ProbabilityMapping<>();
+        map.add(1, 2);
+        map.add(2, 7);
+        map.add(3, 1);
+        map.add(4, 5);
+        assertEquals(Arrays.asList(2, 4, 1, 3), map.topK(10));
+        assertEquals(Arrays.asList(2, 4), map.topK(2));
+        assertTrue(map.topK(0)
+                .isEmpty());
+        TestUtility.shouldThrowException("Did not throw IllegalArgumentException", IllegalArgumentException.class,
+                () -> map.topK(-1));
+    }
+
+    @Test
+    public void testTopKFollowsModifications() {
+        ProbabilityMapping<Integer> map = new ProbabilityMapping<>();
+        map.add(1, 2);
+        map.add(2, 3);
+        List<Integer> before = map.topK(2);
+        map.add(1, 2);
+        map.set(3, 10);
+        assertEquals(Arrays.asList(2, 1), before);
+        assertEquals(Arrays.asList(3, 1, 2), map.topK(3));
+    }
 }
@@ -0,0 +1,108 @@
+package markov;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+import markov.QuantizedMarkovChain.Precision;
+import markov.util.RandomGenerator;
+import markov.util.SeededRandomGenerator;
+import test_utils.TestUtility;
+
+public class QuantizedMarkovChainTest {
+
+    private final RandomGenerator gen = new SeededRandomGenerator(42);
+
+    @Test
+    public void testSmallCountsAreExact() {
+        MarkovChain<String> chain = new MarkovChain<>(1);
+        chain.add(Stream.of("a", "b", "a", "b", "a", "c"));
+        QuantizedMarkovChain<String> quantized = chain.quantize(Precision.BYTE);
+        assertEquals(0, quantized.getMaxError(), 0);
+        assertEquals(2.0 / 3, quantized.getProbability(new TokenSequence<>("a"), "b"), 1e-12);
+        assertEquals(0, quantized.getProbability(new TokenSequence<>("a"), "a"), 0);
+        TestUtility.shouldThrowException("Did not throw a IllegalArgumentException", IllegalArgumentException.class,
+                () -> quantized.getNextRandomly(new TokenSequence<>("x"), gen));
+    }
+
+    @Test
+    public void testMeasuredErrorBoundsProbabilities() {
+        MarkovChain<Integer> chain = new MarkovChain<>(1);
+        chain.add(IntStream.generate(() -> gen.nextInt(0, 40) * gen.nextInt(0, 40) % 97)
+                .limit(200_000)
+                .boxed());
+        for (Precision precision : Precision.values()) {
+            QuantizedMarkovChain<Integer> quantized = chain.quantize(precision);
+            assertTrue(quantized.getMeanError() <= quantized.getMaxError());
+            for (Entry<TokenSequence<Integer>, ProbabilityMapping<Integer>> state : chain.getMatrix()
+                    .entrySet()) {
+                double distance = 0;
+                ProbabilityMapping<Integer> mapping = state.getValue();
+                for (Entry<Integer, Long> successor : mapping.getMapping()
+                        .entrySet()) {
+                    double exact = (double) successor.getValue() / mapping.getTotalValues();
+                    distance += Math.abs(exact - quantized.getProbability(state.getKey(), successor.getKey()));
+                }
+                assertTrue(distance / 2 <= quantized.getMaxError() + 1e-12);
+            }
+        }
+        // The states have fewer than 65535 transitions, which 16 bits store
+        // exactly
+        assertEquals(0, chain.quantize(Precision.SHORT)
+                .getMaxError(), 0);
+        assertTrue(chain.quantize(Precision.BYTE)
+                .getMaxError() > 0);
+    }
+
+    @Test
+    public void testEverySuccessorKept() {
+        MarkovChain<Integer> chain = new MarkovChain<>(1);
+        // 0 is followed by 1 a thousand times and by 2 once
+        chain.add(IntStream.range(0, 1000)
+                .flatMap(i -> i == 0 ? IntStream.of(0, 2, 0, 1) : IntStream.of(0, 1))
+                .boxed());
+        QuantizedMarkovChain<Integer> quantized = chain.quantize(Precision.BYTE);
+        assertEquals(1.0 / 255, quantized.getProbability(new TokenSequence<>(0), 2), 1e-12);
+    }
+
+    @Test
+    public void testSampling() {
+        MarkovChain<String> chain = new MarkovChain<>(1);
+        chain.add(Stream.of("a", "b", "a", "b", "a", "b", "a", "c", "a", "d"));
+        QuantizedMarkovChain<String> quantized = chain.quantize(Precision.SHORT);
+        Map<String, Long> histogram = Stream.generate(() -> quantized.getNextRandomly(new TokenSequence<>("a"), gen))
+                .limit(100_000)
+                .collect(Collectors.groupingBy(s -> s, Collectors.counting()));
+        assertEquals(0.6, histogram.get("b") / 100_000.0, 0.01);
+        assertEquals(0.2, histogram.get("c") / 100_000.0, 0.01);
+
+        List<String> walk = quantized.stream(new TokenSequence<>("b"), gen)
+                .limit(3)
+                .collect(Collectors.toList());
+        assertEquals("a", walk.get(1));
+    }
+
+    @Test
+    public void testPayloadIsSmaller() {
+        MarkovChain<Integer> chain = new MarkovChain<>(2);
+        chain.add(IntStream.generate(() -> gen.nextInt(0, 20))
+                .limit(50_000)
+                .boxed());
+        long mappingBytes = chain.stats()
+                .getMappingBytes();
+        long bytePayload = chain.quantize(Precision.BYTE)
+                .getPayloadBytes();
+        long shortPayload = chain.quantize(Precision.SHORT)
+                .getPayloadBytes();
+        assertTrue(mappingBytes >= 4 * bytePayload);
+        assertTrue(mappingBytes >= 4 * shortPayload);
+    }
+}
@@ -0,0 +1,137 @@
+package markov;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+import markov.util.RandomGenerator;
+import markov.util.SeededRandomGenerator;
+import test_utils.TestUtility;
+
+public class SamplerTest {
+
+    private final RandomGenerator gen = new SeededRandomGenerator(42);
+
+    @Test
+    public void testInvalidArguments() {
+        TestUtility.shouldThrowException("Did not throw IllegalArgumentException", IllegalArgumentException.class,
+                () -> Sampler.standard()
+                        .withTemperature(0));
+        TestUtility.shouldThrowException("Did not throw IllegalArgumentException", IllegalArgumentException.class,
+                () -> Sampler.standard()
+                        .withTemperature(Double.NaN));
+        TestUtility.shouldThrowException("Did not throw IllegalArgumentException", IllegalArgumentException.class,
+                () -> Sampler.standard()
+                        .withTopK(0));
+        TestUtility.shouldThrowException("Did not throw IllegalArgumentException", IllegalArgumentException.class,
+                () -> Sampler.standard()
+                        .withTopP(0));
+        TestUtility.shouldThrowException("Did not throw IllegalArgumentException", IllegalArgumentException.class,
+                () -> Sampler.standard()
+                        .withTopP(1.5));
+    }
+
+    @Test
+    public void testEmptyMapping() {
+        TestUtility.shouldThrowException("Did not throw IllegalStateException", IllegalStateException.class,
+                () -> Sampler.standard()
+                        .withTopK(3)
+                        .sample(new ProbabilityMapping<Integer>(), gen));
+    }
+
+    @Test
+    public void testStandardMatchesPlainSampling() {
+        MarkovChain<Integer> chain = new MarkovChain<>(1);
+        chain.add(IntStream.generate(() -> gen.nextInt(0, 10))
+                .limit(1000)
+                .boxed());
+        TokenSequence<Integer> start = new TokenSequence<>(3);
+        List<Integer> expected = chain.stream(start, new SeededRandomGenerator(7))
+                .limit(100)
+                .collect(Collectors.toList());
+        List<Integer> actual = chain.stream(start, new SeededRandomGenerator(7), Sampler.standard())
+                .limit(100)
+                .collect(Collectors.toList());
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testTopK() {
+        ProbabilityMapping<String> mapping = createMapping();
+        Map<String, Integer> drawn = draw(mapping, Sampler.standard()
+                .withTopK(2), 10000);
+        assertEquals(2, drawn.size());
+        assertTrue(drawn.containsKey("a"));
+        assertTrue(drawn.containsKey("b"));
+        assertEquals(6 / 8.0, drawn.get("a") / 10000.0, 0.03);
+    }
+
+    @Test
+    public void testTopP() {
+        ProbabilityMapping<String> mapping = createMapping();
+        assertEquals(1, draw(mapping, Sampler.standard()
+                .withTopP(0.5), 1000).size());
+        assertEquals(1, draw(mapping, Sampler.standard()
+                .withTopP(0.6), 1000).size());
+        assertEquals(2, draw(mapping, Sampler.standard()
+                .withTopP(0.61), 1000).size());
+        assertEquals(4, draw(mapping, Sampler.standard()
+                .withTopP(1), 1000).size());
+    }
+
+    @Test
+    public void testTemperature() {
+        ProbabilityMapping<String> mapping = createMapping();
+        Map<String, Integer> cold = draw(mapping, Sampler.standard()
+                .withTemperature(0.01), 1000);
+        assertEquals(1000, (int) cold.get("a"));
+
+        Map<String, Integer> hot = draw(mapping, Sampler.standard()
+                .withTemperature(1000), 10000);
+        for (String token : mapping.getMapping()
+                .keySet()) {
+            assertEquals(0.25, hot.get(token) / 10000.0, 0.03);
+        }
+
+        Map<String, Integer> neutral = draw(mapping, Sampler.standard()
+                .withTemperature(1.0)
+                .withTopP(1), 10000);
+        assertEquals(0.6, neutral.get("a") / 10000.0, 0.03);
+    }
+
+    @Test
+    public void testCombined() {
+        ProbabilityMapping<String> mapping = createMapping();
+        Map<String, Integer> drawn = draw(mapping, Sampler.standard()
+                .withTemperature(1000)
+                .withTopK(3)
+                .withTopP(0.5), 10000);
+        assertEquals(2, drawn.size());
+        assertEquals(0.5, drawn.get("a") / 10000.0, 0.03);
+    }
+
+    private Map<String, Integer> draw(ProbabilityMapping<String> mapping, Sampler sampler, int times) {
+        Map<String, Integer> drawn = new HashMap<>();
+        Stream.generate(() -> sampler.sample(mapping, gen))
+                .limit(times)
+                .forEach(token -> drawn.merge(token, 1, Integer::sum));
+        return drawn;
+    }
+
+    private ProbabilityMapping<String> createMapping() {
+        ProbabilityMapping<String> mapping = new ProbabilityMapping<>();
+        mapping.add("d", 1);
+        mapping.add("b", 2);
+        mapping.add("a", 6);
+        mapping.add("c", 1);
+        return mapping;
+    }
+}
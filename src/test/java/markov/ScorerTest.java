@@ -0,0 +1,87 @@
+package markov;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+import markov.Scorer.Unseen;
+import markov.util.RandomGenerator;
+import markov.util.SeededRandomGenerator;
+import test_utils.TestUtility;
+
+public class ScorerTest {
+
+    @Test
+    public void testKnownTransitions() {
+        MarkovChain<String> chain = new MarkovChain<>(1);
+        chain.add(Stream.of("a", "b", "a", "c"));
+        // a -> b (1/2), b -> a (1), a -> c (1/2)
+        Score score = chain.score(Stream.of("a", "b", "a", "c"));
+        assertEquals(3, score.getTransitions());
+        assertEquals(Math.log(0.25), score.getLogProbability(), 1e-12);
+        assertEquals(Math.pow(4, 1 / 3.0), score.getPerplexity(), 1e-12);
+    }
+
+    @Test
+    public void testTooShortInput() {
+        MarkovChain<String> chain = new MarkovChain<>(2);
+        chain.add(Stream.of("a", "b", "c"));
+        Score score = chain.score(Stream.of("a", "b"));
+        assertEquals(0, score.getTransitions());
+        assertTrue(Double.isNaN(score.getPerplexity()));
+        assertEquals(0, new Scorer<>(chain).scoreParallel(Arrays.asList("a"))
+                .getTransitions());
+    }
+
+    @Test
+    public void testUnseenHandling() {
+        MarkovChain<String> chain = new MarkovChain<>(1);
+        chain.add(Stream.of("a", "b"));
+        List<String> input = Arrays.asList("a", "b", "c", "a", "a");
+
+        Score penalized = new Scorer<>(chain).withPenalty(-10)
+                .score(input.stream());
+        assertEquals(4, penalized.getTransitions());
+        assertEquals(1, penalized.getUnseenContexts());
+        assertEquals(2, penalized.getUnseenTransitions());
+        assertEquals(-30, penalized.getLogProbability(), 1e-12);
+
+        Score skipped = new Scorer<>(chain).withUnseenContext(Unseen.SKIP)
+                .withUnseenTransition(Unseen.SKIP)
+                .score(input.stream());
+        assertEquals(1, skipped.getTransitions());
+        assertEquals(0, skipped.getLogProbability(), 1e-12);
+
+        TestUtility.shouldThrowException("Did not throw IllegalArgumentException", IllegalArgumentException.class,
+                () -> new Scorer<>(chain).withUnseenTransition(Unseen.FAIL)
+                        .score(input.stream()));
+        TestUtility.shouldThrowException("Did not throw IllegalArgumentException", IllegalArgumentException.class,
+                () -> new Scorer<>(chain).withPenalty(1));
+    }
+
+    @Test
+    public void testParallelMatchesSequential() {
+        RandomGenerator gen = new SeededRandomGenerator(42);
+        List<Integer> tokens = IntStream.generate(() -> gen.nextInt(0, 50))
+                .limit(400000)
+                .boxed()
+                .collect(Collectors.toList());
+        MarkovChain<Integer> chain = new MarkovChain<>(2);
+        chain.add(tokens.subList(0, 200000)
+                .stream());
+        Scorer<Integer> scorer = new Scorer<>(chain);
+        Score sequential = scorer.score(tokens.stream());
+        Score parallel = scorer.scoreParallel(tokens);
+        assertEquals(tokens.size() - 2, sequential.getTransitions());
+        assertEquals(sequential.getTransitions(), parallel.getTransitions());
+        assertEquals(sequential.getUnseenTransitions(), parallel.getUnseenTransitions());
+        assertEquals(sequential.getLogProbability(), parallel.getLogProbability(), 1e-6);
+    }
+}
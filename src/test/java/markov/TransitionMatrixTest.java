@@ -0,0 +1,98 @@
+package markov;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+import markov.util.RandomGenerator;
+import markov.util.SeededRandomGenerator;
+import test_utils.TestUtility;
+
+public class TransitionMatrixTest {
+
+    @Test
+    public void testTwoStates() {
+        MarkovChain<String> chain = new MarkovChain<>(1);
+        chain.add(Stream.of("a", "a", "b"));
+        TransitionMatrix<String> matrix = chain.transitionMatrix();
+        int a = matrix.indexOf(new TokenSequence<>("a"));
+        int b = matrix.indexOf(new TokenSequence<>("b"));
+        double[] stationary = matrix.stationaryDistribution(1e-12, 1000);
+        assertEquals(2.0 / 3, stationary[a], 1e-9);
+        assertEquals(1.0 / 3, stationary[b], 1e-9);
+        Map<String, Double> frequencies = matrix.tokenFrequencies(1e-12, 1000);
+        assertEquals(2.0 / 3, frequencies.get("a"), 1e-9);
+
+        double[] step = matrix.step(new TokenSequence<>("b"), 2);
+        assertEquals(0.5, step[a], 1e-12);
+        assertEquals(0.5, step[b], 1e-12);
+        assertEquals(-1, matrix.indexOf(new TokenSequence<>("c")));
+    }
+
+    @Test
+    public void testPeriodicChainConverges() {
+        MarkovChain<Integer> chain = new MarkovChain<>(2);
+        chain.add(IntStream.range(0, 50)
+                .boxed());
+        double[] stationary = chain.transitionMatrix()
+                .stationaryDistribution(1e-10, 100_000);
+        for (double p : stationary) {
+            assertEquals(1.0 / 50, p, 1e-9);
+        }
+    }
+
+    @Test
+    public void testStepOfPeriodicChain() {
+        MarkovChain<Integer> chain = new MarkovChain<>(1);
+        chain.add(IntStream.range(0, 5)
+                .boxed());
+        TransitionMatrix<Integer> matrix = chain.transitionMatrix();
+        double[] step = matrix.step(new TokenSequence<>(0), 7);
+        assertEquals(1, step[matrix.indexOf(new TokenSequence<>(2))], 0);
+    }
+
+    @Test
+    public void testParallelMatchesSingleThread() {
+        RandomGenerator gen = new SeededRandomGenerator(3);
+        MarkovChain<Integer> chain = new MarkovChain<>(2);
+        chain.add(IntStream.generate(() -> gen.nextInt(0, 300))
+                .limit(100_000)
+                .boxed());
+        TransitionMatrix<Integer> parallel = chain.transitionMatrix();
+        double[] expected = parallel.stationaryDistribution(1e-9, 1000);
+        assertEquals(1, Arrays.stream(expected)
+                .sum(), 1e-9);
+        ForkJoinPool single = new ForkJoinPool(1);
+        try {
+            TransitionMatrix<Integer> sequential = TransitionMatrix.of(chain, single);
+            assertArrayEquals(expected, sequential.stationaryDistribution(1e-9, 1000), 1e-12);
+        } finally {
+            single.shutdown();
+        }
+    }
+
+    @Test
+    public void testInvalidArguments() {
+        MarkovChain<Integer> chain = new MarkovChain<>(1);
+        chain.add(Stream.of(1, 2));
+        TransitionMatrix<Integer> matrix = chain.transitionMatrix();
+        TestUtility.shouldThrowException("Did not throw a IllegalArgumentException", IllegalArgumentException.class,
+                () -> matrix.step(new double[1], 1));
+        TestUtility.shouldThrowException("Did not throw a IllegalArgumentException", IllegalArgumentException.class,
+                () -> matrix.step(new TokenSequence<>(3), 1));
+        TestUtility.shouldThrowException("Did not throw a IllegalArgumentException", IllegalArgumentException.class,
+                () -> matrix.stationaryDistribution(0, 10));
+        MarkovChain<Integer> skewed = new MarkovChain<>(1);
+        skewed.add(Stream.of(1, 1, 2));
+        TestUtility.shouldThrowException("Did not throw a IllegalStateException", IllegalStateException.class,
+                () -> skewed.transitionMatrix()
+                        .stationaryDistribution(1e-6, 1));
+    }
+}
@@ -0,0 +1,35 @@
+package markov.indexed;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import markov.util.RandomGenerator;
+import markov.util.SeededRandomGenerator;
+import test_utils.TestUtility;
+
+public class ByteMarkovChainTest {
+
+    private final RandomGenerator gen = new SeededRandomGenerator(42);
+
+    @Test
+    public void testFullAlphabet() {
+        ByteMarkovChain chain = new ByteMarkovChain(2);
+        chain.add(new byte[] { -1, 0, 127, -128 });
+        assertEquals(1, chain.getCount(new byte[] { -1, 0 }, (byte) 127));
+        assertArrayEquals(new byte[] { 0, 127, -128, -1, 0, 127 },
+                chain.generate(new byte[] { 0, 127 }, 6, gen));
+        TestUtility.shouldThrowException("Did not throw a IllegalArgumentException", IllegalArgumentException.class,
+                () -> new ByteMarkovChain(3));
+    }
+
+    @Test
+    public void testSmallAlphabet() {
+        ByteMarkovChain chain = new ByteMarkovChain(new byte[] { 'A', 'C', 'G', 'T', 'A' }, 4);
+        chain.add("GATTACA".getBytes());
+        assertEquals(1, chain.getCount("GATT".getBytes(), (byte) 'A'));
+        TestUtility.shouldThrowException("Did not throw a IllegalArgumentException", IllegalArgumentException.class,
+                () -> chain.add("GATTACX".getBytes()));
+    }
+}
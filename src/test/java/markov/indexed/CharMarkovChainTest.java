@@ -0,0 +1,44 @@
+package markov.indexed;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import markov.util.RandomGenerator;
+import markov.util.SeededRandomGenerator;
+import test_utils.TestUtility;
+
+public class CharMarkovChainTest {
+
+    private final RandomGenerator gen = new SeededRandomGenerator(42);
+
+    @Test
+    public void testAlphabet() {
+        CharMarkovChain chain = new CharMarkovChain("abcabc_", 2);
+        assertEquals("abc_", chain.getAlphabet());
+        TestUtility.shouldThrowException("Did not throw a IllegalArgumentException", IllegalArgumentException.class,
+                () -> chain.add("abd"));
+    }
+
+    @Test
+    public void testGenerate() {
+        CharMarkovChain chain = new CharMarkovChain("abcdefghijklmnopqrstuvwxyz_", 2);
+        chain.add("anna_hanna_joanna_");
+        assertEquals(3, chain.getCount("an", 'n'));
+        String name = chain.generate("jo", 30, gen);
+        assertEquals(30, name.length());
+        assertTrue(name.startsWith("joanna_"));
+        for (int i = 0; i + 2 < name.length(); i++) {
+            assertTrue(chain.getCount(name.substring(i, i + 2), name.charAt(i + 2)) > 0);
+        }
+    }
+
+    @Test
+    public void testUnseenContext() {
+        CharMarkovChain chain = new CharMarkovChain("ab", 1);
+        chain.add("aaa");
+        TestUtility.shouldThrowException("Did not throw a IllegalArgumentException", IllegalArgumentException.class,
+                () -> chain.getNextRandomly("b", gen));
+    }
+}
@@ -0,0 +1,90 @@
+package markov.indexed;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+import markov.util.RandomGenerator;
+import markov.util.SeededRandomGenerator;
+import test_utils.TestUtility;
+
+public class IndexedMarkovChainTest {
+
+    private final RandomGenerator gen = new SeededRandomGenerator(42);
+
+    @Test
+    public void testInvalidArguments() {
+        TestUtility.shouldThrowException("Did not throw a IllegalArgumentException", IllegalArgumentException.class,
+                () -> new IndexedMarkovChain(0, 1));
+        TestUtility.shouldThrowException("Did not throw a IllegalArgumentException", IllegalArgumentException.class,
+                () -> new IndexedMarkovChain(2, 0));
+        TestUtility.shouldThrowException("Did not throw a IllegalArgumentException", IllegalArgumentException.class,
+                () -> new IndexedMarkovChain(1000, 3));
+        IndexedMarkovChain chain = new IndexedMarkovChain(3, 2);
+        TestUtility.shouldThrowException("Did not throw a IllegalArgumentException", IllegalArgumentException.class,
+                () -> chain.add(new int[] { 0, 3 }));
+        TestUtility.shouldThrowException("Did not throw a IllegalArgumentException", IllegalArgumentException.class,
+                () -> chain.contextOf(0));
+        TestUtility.shouldThrowException("Did not throw a IllegalArgumentException", IllegalArgumentException.class,
+                () -> chain.getNextRandomly(chain.contextOf(0, 1), gen));
+    }
+
+    @Test
+    public void testContexts() {
+        IndexedMarkovChain chain = new IndexedMarkovChain(5, 3);
+        int context = chain.contextOf(4, 0, 2);
+        assertArrayEquals(new int[] { 4, 0, 2 }, chain.symbolsOf(context));
+        assertArrayEquals(new int[] { 0, 2, 3 }, chain.symbolsOf(chain.nextContext(context, 3)));
+    }
+
+    @Test
+    public void testCircularCounts() {
+        IndexedMarkovChain chain = new IndexedMarkovChain(3, 2);
+        chain.add(new int[] { 0, 1, 2, 0, 1 });
+        assertEquals(2, chain.getCount(chain.contextOf(0, 1), 2) + chain.getCount(chain.contextOf(0, 1), 0));
+        assertEquals(1, chain.getCount(chain.contextOf(1, 0), 1));
+        assertEquals(5, IntStream.range(0, 9)
+                .mapToLong(chain::getTotal)
+                .sum());
+        assertEquals(4, chain.getContextCount());
+    }
+
+    @Test
+    public void testDeterministicWalk() {
+        int[] source = IntStream.range(0, 10)
+                .toArray();
+        for (int order = 1; order <= 4; order++) {
+            IndexedMarkovChain chain = new IndexedMarkovChain(10, order);
+            chain.add(source);
+            int[] walk = chain.generate(chain.contextOf(IntStream.range(0, order)
+                    .toArray()), 20, gen);
+            assertArrayEquals(IntStream.range(0, 20)
+                    .map(i -> i % 10)
+                    .toArray(), walk);
+        }
+    }
+
+    @Test
+    public void testShorterThanOrder() {
+        IndexedMarkovChain chain = new IndexedMarkovChain(2, 3);
+        chain.add(new int[] { 1 });
+        assertArrayEquals(new int[] { 1, 1, 1, 1, 1 }, chain.generate(5, gen));
+    }
+
+    @Test
+    public void testSamplingFollowsCounts() {
+        IndexedMarkovChain chain = new IndexedMarkovChain(4, 1);
+        chain.add(new int[] { 0, 1, 0, 1, 0, 1, 0, 2, 0, 3 });
+        int[] histogram = new int[4];
+        for (int i = 0; i < 100_000; i++) {
+            histogram[chain.getNextRandomly(0, gen)]++;
+        }
+        assertEquals(0, histogram[0]);
+        assertEquals(0.6, histogram[1] / 100_000.0, 0.01);
+        assertEquals(0.2, histogram[2] / 100_000.0, 0.01);
+        assertEquals(0.2, histogram[3] / 100_000.0, 0.01);
+    }
+}
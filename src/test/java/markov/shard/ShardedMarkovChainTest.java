@@ -0,0 +1,225 @@
+package markov.shard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InvalidClassException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+import markov.MarkovChain;
+import markov.ProbabilityMapping;
+import markov.TokenSequence;
+import markov.util.RandomGenerator;
+import markov.util.SeededRandomGenerator;
+import test_utils.TestUtility;
+
+public class ShardedMarkovChainTest {
+
+    @Test
+    public void testNoShards() {
+        TestUtility.shouldThrowException("Did not throw a IllegalArgumentException", IllegalArgumentException.class,
+                () -> ShardedMarkovChain.partition(createCycle(2, 10), 0).close());
+    }
+
+    @Test
+    public void testLocalShardsFollowCycle() throws IOException {
+        MarkovChain<Integer> chain = createCycle(2, 100);
+        try (ShardedMarkovChain<Integer> sharded = ShardedMarkovChain.partition(chain, 4)) {
+            List<Integer> actual = sharded.stream(new TokenSequence<>(0, 1))
+                    .limit(200)
+                    .collect(Collectors.toList());
+            List<Integer> expected = IntStream.concat(IntStream.range(0, 100), IntStream.range(0, 100))
+                    .boxed()
+                    .collect(Collectors.toList());
+            assertEquals(expected, actual);
+        }
+    }
+
+    @Test
+    public void testConcurrentStreamsAreCoalesced() throws Exception {
+        MarkovChain<Integer> chain = createCycle(2, 100);
+        AtomicInteger batches = new AtomicInteger();
+        AtomicInteger lookups = new AtomicInteger();
+        LocalShard<Integer> local = new LocalShard<>();
+        Shard<Integer> counting = new Shard<Integer>() {
+
+            @Override
+            public void load(Map<TokenSequence<Integer>, ProbabilityMapping<Integer>> states) {
+                local.load(states);
+            }
+
+            @Override
+            public List<Integer> next(List<TokenSequence<Integer>> states, double[] fractions) {
+                batches.incrementAndGet();
+                lookups.addAndGet(states.size());
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread()
+                            .interrupt();
+                }
+                return local.next(states, fractions);
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        List<Integer> expected = IntStream.range(0, 200)
+                .map(i -> i % 100)
+                .boxed()
+                .collect(Collectors.toList());
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try (ShardedMarkovChain<Integer> sharded = ShardedMarkovChain.partition(chain,
+                Collections.singletonList(counting))) {
+            List<Future<List<Integer>>> walks = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                walks.add(executor.submit(() -> sharded.stream(new TokenSequence<>(0, 1))
+                        .limit(200)
+                        .collect(Collectors.toList())));
+            }
+            for (Future<List<Integer>> walk : walks) {
+                assertEquals(expected, walk.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(8 * 198, lookups.get());
+        assertTrue("Batches: " + batches.get(), batches.get() < lookups.get());
+    }
+
+    @Test
+    public void testBatchedWalksMatchSingleWalks() throws IOException {
+        MarkovChain<Integer> chain = createRandom(2, 5000);
+        List<TokenSequence<Integer>> starts = new ArrayList<>(chain.getMatrix()
+                .keySet()).subList(0, 20);
+        try (ShardedMarkovChain<Integer> sharded = ShardedMarkovChain.partition(chain, 3);
+                ShardedMarkovChain<Integer> single = ShardedMarkovChain.partition(chain, 1)) {
+            List<List<Integer>> expected = single.walk(starts, 50, createGenerator(7));
+            List<List<Integer>> actual = sharded.walk(starts, 50, createGenerator(7));
+            assertEquals("Sharding changed the outcome of the walks", expected, actual);
+        }
+    }
+
+    @Test
+    public void testLoopbackShards() throws IOException {
+        MarkovChain<Integer> chain = createRandom(3, 2000);
+        List<TokenSequence<Integer>> starts = new ArrayList<>(chain.getMatrix()
+                .keySet()).subList(0, 10);
+        try (ShardServer server = new ShardServer(0).start();
+                ShardedMarkovChain<Integer> local = ShardedMarkovChain.partition(chain, 2);
+                ShardedMarkovChain<Integer> remote = ShardedMarkovChain.partition(chain,
+                        Arrays.asList(new RemoteShard<>(server.getAddress()),
+                                new RemoteShard<>(server.getAddress())))) {
+            assertEquals(local.walk(starts, 30, createGenerator(1)), remote.walk(starts, 30, createGenerator(1)));
+        }
+    }
+
+    @Test
+    public void testServerRejectsUnexpectedClasses() throws IOException {
+        Map<TokenSequence<Date>, ProbabilityMapping<Date>> states = new HashMap<>();
+        ProbabilityMapping<Date> mapping = new ProbabilityMapping<>();
+        mapping.add(new Date(0));
+        states.put(new TokenSequence<>(new Date(1)), mapping);
+        List<Exception> errors = new CopyOnWriteArrayList<>();
+        try (ShardServer server = new ShardServer(0, errors::add).start()) {
+            RemoteShard<Date> shard = new RemoteShard<>(server.getAddress());
+            TestUtility.shouldThrowException("Did not throw an UncheckedIOException", UncheckedIOException.class,
+                    () -> shard.load(states));
+            try {
+                shard.close();
+            } catch (IOException e) {
+                // The server dropped the connection
+            }
+            // The server keeps serving other connections
+            try (RemoteShard<Integer> other = new RemoteShard<>(server.getAddress())) {
+                other.load(createCycle(1, 3).getMatrix());
+                assertEquals(Arrays.asList(1), other.next(Arrays.asList(new TokenSequence<>(0)), new double[] { 0 }));
+            }
+            assertEquals(1, errors.size());
+            assertTrue(errors.get(0) instanceof InvalidClassException);
+        }
+    }
+
+    @Test
+    public void testWorkerProcesses() throws IOException, InterruptedException {
+        MarkovChain<Integer> chain = createCycle(2, 50);
+        List<Process> workers = new ArrayList<>();
+        try {
+            List<RemoteShard<Integer>> shards = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                Process worker = startWorker();
+                workers.add(worker);
+                BufferedReader reader = new BufferedReader(new InputStreamReader(worker.getInputStream()));
+                int port = Integer.parseInt(reader.readLine()
+                        .trim());
+                shards.add(new RemoteShard<>(new InetSocketAddress(InetAddress.getLoopbackAddress(), port)));
+            }
+            try (ShardedMarkovChain<Integer> sharded = ShardedMarkovChain.partition(chain, shards)) {
+                List<List<Integer>> walks = sharded.walk(Arrays.asList(new TokenSequence<>(0, 1)), 50,
+                        createGenerator(3));
+                List<Integer> expected = IntStream.range(2, 52)
+                        .map(i -> i % 50)
+                        .boxed()
+                        .collect(Collectors.toList());
+                assertEquals(expected, walks.get(0));
+            }
+        } finally {
+            for (Process worker : workers) {
+                worker.destroy();
+                worker.waitFor();
+            }
+        }
+    }
+
+    private Process startWorker() throws IOException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        return new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), ShardServer.class.getName())
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+    }
+
+    private MarkovChain<Integer> createCycle(int order, int length) {
+        MarkovChain<Integer> chain = new MarkovChain<>(order);
+        chain.add(IntStream.range(0, length)
+                .boxed()
+                .collect(Collectors.toList())
+                .stream());
+        return chain;
+    }
+
+    private MarkovChain<Integer> createRandom(int order, int length) {
+        RandomGenerator gen = createGenerator(42);
+        MarkovChain<Integer> chain = new MarkovChain<>(order);
+        chain.add(IntStream.generate(() -> gen.nextInt(0, 10))
+                .limit(length)
+                .boxed());
+        return chain;
+    }
+
+    private RandomGenerator createGenerator(long seed) {
+        return new SeededRandomGenerator(seed);
+    }
+}
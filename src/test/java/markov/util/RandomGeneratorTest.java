@@ -1,5 +1,7 @@
 package markov.util;
 
+import static org.junit.Assert.assertTrue;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -45,4 +47,23 @@ public abstract class RandomGeneratorTest {
         TestUtility.shouldThrowException("nextLong not throwing exception", IllegalArgumentException.class,
                 () -> gen.nextLong(-1));
     }
+
+    @Test
+    public void testNextDouble() {
+        for (int i = 0; i < 1000; i++) {
+            double d = gen.nextDouble();
+            assertTrue("nextDouble out of range", d >= 0 && d < 1);
+        }
+    }
+
+    @Test
+    public void testNextLongs() {
+        long[] values = new long[1000];
+        gen.nextLongs(values, 10);
+        for (long value : values) {
+            assertTrue("nextLongs out of range", value >= 0 && value < 10);
+        }
+        TestUtility.shouldThrowException("nextLongs not throwing exception", IllegalArgumentException.class,
+                () -> gen.nextLongs(values, 0));
+    }
 }
@@ -0,0 +1,41 @@
+package markov.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import org.junit.Test;
+
+public class SplitMix64RandomGeneratorTest extends SplittableRandomGeneratorTest {
+
+    @Override
+    protected SplitMix64RandomGenerator createInstance() {
+        return createInstance(42);
+    }
+
+    @Override
+    protected SplitMix64RandomGenerator createInstance(long seed) {
+        return new SplitMix64RandomGenerator(seed);
+    }
+
+    @Test
+    public void testGetSeed() {
+        for (int i = 0; i < 100; i++) {
+            SplitMix64RandomGenerator gen = createInstance(i);
+            assertEquals("getSeed does not return the seed that initialized the object", i, gen.getSeed());
+        }
+    }
+
+    @Test
+    public void testKnownValues() {
+        // Reference values of SplitMix64 seeded with 0
+        SplitMix64RandomGenerator gen = createInstance(0);
+        assertEquals(0xe220a8397b1dcdafL, gen.nextLong());
+        assertEquals(0x6e789e6aa1b965f4L, gen.nextLong());
+        assertEquals(0x06c45d188009454fL, gen.nextLong());
+    }
+
+    @Test
+    public void testMix64() {
+        assertNotEquals(SplitMix64RandomGenerator.mix64(1), SplitMix64RandomGenerator.mix64(2));
+    }
+}
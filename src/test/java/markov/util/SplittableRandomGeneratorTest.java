@@ -0,0 +1,70 @@
+package markov.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public abstract class SplittableRandomGeneratorTest extends RandomGeneratorTest {
+
+    @Override
+    protected abstract SplittableRandomGenerator createInstance();
+
+    protected abstract SplittableRandomGenerator createInstance(long seed);
+
+    @Test
+    public void testReproducible() {
+        long[] a = new long[100];
+        long[] b = new long[100];
+        createInstance(3).nextLongs(a, 1000);
+        createInstance(3).nextLongs(b, 1000);
+        assertArrayEquals("Equally seeded generators produce different values", a, b);
+    }
+
+    @Test
+    public void testSplitIsReproducible() {
+        SplittableRandomGenerator a = createInstance(3).split();
+        SplittableRandomGenerator b = createInstance(3).split();
+        for (int i = 0; i < 100; i++) {
+            assertEquals(a.nextLong(), b.nextLong());
+        }
+    }
+
+    @Test
+    public void testSplitDiffers() {
+        SplittableRandomGenerator root = createInstance(3);
+        SplittableRandomGenerator first = root.split();
+        SplittableRandomGenerator second = root.split();
+        assertNotEquals(first.nextLong(), second.nextLong());
+        assertNotEquals(root.nextLong(), first.nextLong());
+    }
+
+    @Test
+    public void testBounds() {
+        SplittableRandomGenerator gen = createInstance(5);
+        for (int i = 0; i < 10000; i++) {
+            long l = gen.nextLong(-5, 7);
+            assertTrue(l >= -5 && l < 7);
+            int n = gen.nextInt(3, 4);
+            assertEquals(3, n);
+            long wide = gen.nextLong(Long.MIN_VALUE, Long.MAX_VALUE);
+            assertTrue(wide < Long.MAX_VALUE);
+            double d = gen.nextDouble();
+            assertTrue(d >= 0 && d < 1);
+        }
+    }
+
+    @Test
+    public void testUniform() {
+        SplittableRandomGenerator gen = createInstance(5);
+        int[] buckets = new int[10];
+        for (int i = 0; i < 100000; i++) {
+            buckets[gen.nextInt(10)]++;
+        }
+        for (int bucket : buckets) {
+            assertEquals(10000, bucket, 500);
+        }
+    }
+}
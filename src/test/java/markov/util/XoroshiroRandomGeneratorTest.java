@@ -0,0 +1,39 @@
+package markov.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import org.junit.Test;
+
+public class XoroshiroRandomGeneratorTest extends SplittableRandomGeneratorTest {
+
+    @Override
+    protected XoroshiroRandomGenerator createInstance() {
+        return createInstance(42);
+    }
+
+    @Override
+    protected XoroshiroRandomGenerator createInstance(long seed) {
+        return new XoroshiroRandomGenerator(seed);
+    }
+
+    @Test
+    public void testSplitJumpsAhead() {
+        XoroshiroRandomGenerator root = createInstance(7);
+        XoroshiroRandomGenerator reference = createInstance(7);
+        XoroshiroRandomGenerator split = root.split();
+        reference.jump();
+        assertEquals("The split generator must continue where the root was", createInstance(7).nextLong(),
+                split.nextLong());
+        assertEquals("The root must have jumped ahead", reference.nextLong(), root.nextLong());
+    }
+
+    @Test
+    public void testLongJump() {
+        XoroshiroRandomGenerator a = createInstance(7);
+        XoroshiroRandomGenerator b = createInstance(7);
+        a.jump();
+        b.longJump();
+        assertNotEquals(a.nextLong(), b.nextLong());
+    }
+}
@@ -0,0 +1,57 @@
+package util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import test_utils.TestUtility;
+
+public class LatencyRecorderTest {
+
+    @Test
+    public void testEmpty() {
+        LatencyRecorder recorder = new LatencyRecorder();
+        assertEquals(0, recorder.getCount());
+        assertEquals(0, recorder.getPercentile(50, TimeUnit.NANOSECONDS), 0);
+    }
+
+    @Test
+    public void testInvalidPercentile() {
+        LatencyRecorder recorder = new LatencyRecorder();
+        TestUtility.shouldThrowException("Did not throw IllegalArgumentException", IllegalArgumentException.class,
+                () -> recorder.getPercentile(101, TimeUnit.NANOSECONDS));
+    }
+
+    @Test
+    public void testPercentilesWithinPrecision() {
+        LatencyRecorder recorder = new LatencyRecorder();
+        for (long i = 1; i <= 100000; i++) {
+            recorder.record(i * 1000);
+        }
+        assertEquals(100000, recorder.getCount());
+        assertPrecise(50_000_000, recorder.getPercentile(50, TimeUnit.NANOSECONDS));
+        assertPrecise(99_000_000, recorder.getPercentile(99, TimeUnit.NANOSECONDS));
+        assertPrecise(99_000, recorder.getPercentile(99, TimeUnit.MICROSECONDS));
+        assertPrecise(100_000_000, recorder.getPercentile(100, TimeUnit.NANOSECONDS));
+        assertEquals(50_000.5, recorder.getMean(TimeUnit.MICROSECONDS), 1e-6);
+    }
+
+    @Test
+    public void testSmallValuesAreExact() {
+        LatencyRecorder recorder = new LatencyRecorder();
+        for (int i = 0; i < 16; i++) {
+            recorder.record(i);
+        }
+        assertEquals(7, recorder.getPercentile(50, TimeUnit.NANOSECONDS), 0);
+        recorder.reset();
+        assertEquals(0, recorder.getCount());
+    }
+
+    private void assertPrecise(double expected, double actual) {
+        assertTrue("Expected about " + expected + " but was " + actual,
+                actual >= expected && actual <= expected * 1.07);
+    }
+}
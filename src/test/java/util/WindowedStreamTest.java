@@ -1,10 +1,21 @@
 package util;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Spliterator;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
 
 import org.junit.Test;
 
@@ -42,6 +53,133 @@ public class WindowedStreamTest {
         }
     }
 
+    @Test
+    public void testSortedSourceIsSized() {
+        assertEquals(96, WindowedStream.windowed(IntStream.range(0, 100)
+                .boxed(), 5)
+                .count());
+        Spliterator<List<Integer>> spliterator = WindowedStream.windowed(IntStream.range(0, 100)
+                .boxed(), 5)
+                .spliterator();
+        assertTrue(spliterator.hasCharacteristics(Spliterator.SIZED | Spliterator.ORDERED));
+        assertFalse(spliterator.hasCharacteristics(Spliterator.SORTED));
+        assertEquals(96, spliterator.getExactSizeIfKnown());
+        spliterator.tryAdvance(window -> {
+        });
+        assertEquals(95, spliterator.estimateSize());
+    }
+
+    @Test
+    public void testExactSizeOfShortSources() {
+        assertEquals(0, new WindowSpliterator<>(Arrays.<Integer> asList()
+                .spliterator(), 3).getExactSizeIfKnown());
+        WindowSpliterator<Integer> spliterator = new WindowSpliterator<>(Arrays.asList(1, 2)
+                .spliterator(), 3);
+        assertEquals(1, spliterator.getExactSizeIfKnown());
+        List<List<Integer>> windows = new ArrayList<>();
+        spliterator.forEachRemaining(windows::add);
+        assertEquals(Arrays.asList(Arrays.asList(1, 2)), windows);
+        assertEquals(0, spliterator.getExactSizeIfKnown());
+    }
+
+    @Test
+    public void testWindowViewsAreReused() {
+        List<List<Integer>> windows = new ArrayList<>();
+        List<List<Integer>> copies = new ArrayList<>();
+        WindowedStream.windowedViews(Stream.of(1, 2, 3, 4), 2)
+                .forEach(window -> {
+                    windows.add(window);
+                    copies.add(new ArrayList<>(window));
+                });
+        assertSame(windows.get(0), windows.get(2));
+        assertEquals(Arrays.asList(Arrays.asList(1, 2), Arrays.asList(2, 3), Arrays.asList(3, 4)), copies);
+        TestUtility.shouldThrowException("Window view was modifiable", UnsupportedOperationException.class,
+                () -> windows.get(0)
+                        .set(0, 1));
+    }
+
+    @Test
+    public void testWindowedInts() {
+        for (int size = 1; size <= 10; size++) {
+            int windowSize = size;
+            List<int[]> windows = WindowedStream.windowedInts(IntStream.range(0, 100), windowSize)
+                    .map(IntWindow::toArray)
+                    .collect(Collectors.toList());
+            assertEquals(100 - windowSize + 1, windows.size());
+            for (int i = 0; i < windows.size(); i++) {
+                assertArrayEquals(IntStream.range(i, i + windowSize)
+                        .toArray(), windows.get(i));
+            }
+        }
+        assertEquals(Arrays.asList(7, 8), WindowedStream.windowedInts(IntStream.of(7, 8), 3)
+                .flatMap(window -> window.stream()
+                        .boxed())
+                .collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testWindowedArray() {
+        int[] source = IntStream.range(0, 10_000)
+                .toArray();
+        for (int size = 1; size <= 5; size++) {
+            int windowSize = size;
+            List<int[]> expected = WindowedStream.windowedInts(IntStream.of(source), windowSize)
+                    .map(IntWindow::toArray)
+                    .collect(Collectors.toList());
+            List<int[]> actual = WindowedStream.windowedInts(source, windowSize)
+                    .parallel()
+                    .map(IntWindow::toArray)
+                    .collect(Collectors.toList());
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertArrayEquals(expected.get(i), actual.get(i));
+            }
+        }
+        assertEquals(Arrays.asList(0L, 1L, 2L), WindowedStream.windowedInts(new int[] { 1, 2, 3, 4 }, 2)
+                .map(IntWindow::offset)
+                .collect(Collectors.toList()));
+        assertEquals(1, WindowedStream.windowedInts(new int[] { 1, 2 }, 3)
+                .count());
+        assertEquals(0, WindowedStream.windowedInts(new int[0], 3)
+                .count());
+    }
+
+    @Test
+    public void testWindowedBuffer() {
+        IntBuffer buffer = IntBuffer.wrap(IntStream.range(0, 10_000)
+                .toArray());
+        buffer.position(100);
+        long sum = WindowedStream.windowedInts(buffer, 3)
+                .parallel()
+                .mapToLong(window -> window.get(0) + window.get(2))
+                .sum();
+        long expected = LongStream.range(100, 9998)
+                .map(i -> 2 * i + 2)
+                .sum();
+        assertEquals(expected, sum);
+        assertEquals(100, buffer.position());
+        TestUtility.shouldThrowException("Did not throw IndexOutOfBoundsException", IndexOutOfBoundsException.class,
+                () -> WindowedStream.windowedInts(buffer, 3)
+                        .forEach(window -> window.get(3)));
+    }
+
+    @Test
+    public void testWindowedList() {
+        List<Integer> source = IntStream.range(0, 1000)
+                .boxed()
+                .collect(Collectors.toList());
+        List<List<Integer>> expected = WindowedStream.windowed(source.stream(), 4)
+                .collect(Collectors.toList());
+        List<List<Integer>> actual = WindowedStream.windowedViews(source, 4)
+                .parallel()
+                .map(ArrayList::new)
+                .collect(Collectors.toList());
+        assertEquals(expected, actual);
+        assertEquals(expected, WindowedStream.windowedViews(new LinkedList<>(source), 4)
+                .map(ArrayList::new)
+                .collect(Collectors.toList()));
+    }
+
     private void testWindowSizeNth(List<Integer> source, int size) {
         List<List<Integer>> windows = WindowedStream.windowed(source.stream(), size)
                 .collect(Collectors.toList());
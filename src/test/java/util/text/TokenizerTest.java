@@ -0,0 +1,123 @@
+package util.text;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TokenizerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testWhitespace() throws IOException {
+        Path path = write("  the quick\tbrown\n\nfox  ");
+        assertEquals(Arrays.asList("the", "quick", "brown", "fox"), tokens(Tokenizer.whitespace(), path));
+    }
+
+    @Test
+    public void testEmptyFile() throws IOException {
+        Path path = write("");
+        assertTrue(tokens(Tokenizer.whitespace(), path).isEmpty());
+    }
+
+    @Test
+    public void testMultiByteAcrossChunks() throws IOException {
+        Path path = write("naïve café 日本語 😀x ünïcödé");
+        List<String> expected = Arrays.asList("naïve", "café", "日本語", "😀x", "ünïcödé");
+        for (int chunk = 4; chunk <= 16; chunk++) {
+            assertEquals(expected, tokens(Tokenizer.whitespace()
+                    .withChunkSize(chunk), path));
+        }
+    }
+
+    @Test
+    public void testDelimitersAndNormalizer() throws IOException {
+        Path path = write("One,two;;THREE, ,four");
+        Tokenizer tokenizer = Tokenizer.whitespace()
+                .withDelimiters(c -> c == ',' || c == ';' || Character.isWhitespace(c))
+                .withNormalizer(String::toLowerCase);
+        assertEquals(Arrays.asList("one", "two", "three", "four"), tokens(tokenizer, path));
+    }
+
+    @Test
+    public void testNormalizerDropsEmpty() throws IOException {
+        Path path = write("a -- b");
+        Tokenizer tokenizer = Tokenizer.whitespace()
+                .withNormalizer(s -> s.replace("-", ""));
+        assertEquals(Arrays.asList("a", "b"), tokens(tokenizer, path));
+    }
+
+    @Test
+    public void testInterning() throws IOException {
+        Path path = write("word other word");
+        List<String> tokens = tokens(Tokenizer.whitespace()
+                .withInterning(), path);
+        assertSame(tokens.get(0), tokens.get(2));
+    }
+
+    @Test
+    public void testMultipleFiles() throws IOException {
+        Path first = write("a b");
+        Path second = write("c");
+        assertEquals(Arrays.asList("a", "b", "c"), Tokenizer.whitespace()
+                .tokens(Arrays.asList(first, second))
+                .collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testDocuments() throws IOException {
+        Path first = write("a b");
+        Path second = write("c");
+        assertEquals(Arrays.asList(Arrays.asList("a", "b"), Arrays.asList("c")), Tokenizer.whitespace()
+                .documents(Arrays.asList(first, second))
+                .map(document -> document.collect(Collectors.toList()))
+                .collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testParallelEqualsSequential() throws IOException {
+        Random random = new Random(7);
+        String[] words = { "alpha", "beta", "γάμμα", "δέλτα", "epsilon", "日本" };
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 300_000) {
+            text.append(words[random.nextInt(words.length)])
+                    .append(random.nextBoolean() ? " " : "\n");
+        }
+        Path path = write(text.toString());
+        Tokenizer tokenizer = Tokenizer.whitespace()
+                .withChunkSize(1 << 12);
+        List<String> sequential = tokens(tokenizer, path);
+        List<String> parallel = tokenizer.tokens(path)
+                .parallel()
+                .collect(Collectors.toList());
+        assertEquals(Arrays.asList(text.toString()
+                .split("\\s+")), sequential);
+        assertEquals(sequential, parallel);
+    }
+
+    private Path write(String text) throws IOException {
+        Path path = folder.newFile()
+                .toPath();
+        Files.write(path, text.getBytes(StandardCharsets.UTF_8));
+        return path;
+    }
+
+    private static List<String> tokens(Tokenizer tokenizer, Path path) {
+        return tokenizer.tokens(path)
+                .collect(Collectors.toList());
+    }
+}